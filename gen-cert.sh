@@ -0,0 +1,31 @@
+#!/bin/sh
+# gen-cert.sh writes a test CA, a server cert for localhost and a client cert signed by it,
+# and a session ticket key file, in the directory given (cert by default).
+# The server and client load them from cert/, and TlsBenchmark needs them too.
+set -e
+
+dir=${1:-cert}
+mkdir -p "$dir"
+cd "$dir"
+
+# P-256 keys, the server offers ECDHE_ECDSA suites in TlsConfig.performance()
+openssl req -x509 -newkey ec -pkeyopt ec_paramgen_curve:prime256v1 -days 365 -nodes \
+    -keyout ca-key.pem -out ca-cert.pem -subj "/O=PC Book/CN=PC Book Test CA" 2>/dev/null
+
+openssl req -newkey ec -pkeyopt ec_paramgen_curve:prime256v1 -nodes \
+    -keyout server-key.pem -out server-req.pem -subj "/O=PC Book/CN=localhost" 2>/dev/null
+printf "subjectAltName=DNS:localhost,IP:127.0.0.1,IP:0.0.0.0\n" > server-ext.cnf
+openssl x509 -req -in server-req.pem -days 60 -CA ca-cert.pem -CAkey ca-key.pem -CAcreateserial \
+    -out server-cert.pem -extfile server-ext.cnf 2>/dev/null
+
+openssl req -newkey ec -pkeyopt ec_paramgen_curve:prime256v1 -nodes \
+    -keyout client-key.pem -out client-req.pem -subj "/O=PC Book/CN=pcbook-client" 2>/dev/null
+openssl x509 -req -in client-req.pem -days 60 -CA ca-cert.pem -CAkey ca-key.pem -CAcreateserial \
+    -out client-cert.pem 2>/dev/null
+
+rm -f server-req.pem client-req.pem server-ext.cnf
+
+if [ ! -f ticket-keys ]; then
+    openssl rand -base64 48 > ticket-keys
+fi
+echo "wrote certs to $dir"
@@ -0,0 +1,15 @@
+#!/bin/sh
+# rotate-ticket-keys.sh puts a new session ticket key first in the key file and keeps the
+# newest older ones, so tickets issued before the rotation still resume. Servers reload the
+# file within a minute; copy it to every server that shares sessions.
+set -e
+
+file=${1:-cert/ticket-keys}
+keep=${2:-2}
+
+tmp="$file.tmp"
+openssl rand -base64 48 > "$tmp"
+if [ -f "$file" ]; then
+    head -n "$keep" "$file" >> "$tmp"
+fi
+mv "$tmp" "$file"
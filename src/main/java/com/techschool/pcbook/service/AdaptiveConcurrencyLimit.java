@@ -0,0 +1,129 @@
+package com.techschool.pcbook.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// AdaptiveConcurrencyLimit caps the number of calls in flight and adapts the cap with AIMD.
+// The limit grows by one when a fast call completes while at least half of the limit is in use,
+// and is cut by backoffRatio when a call takes more than latencyTolerance times the baseline
+// latency, or ends in a way that means the server was overloaded.
+//
+// The baseline is the minimum latency over the previous window of samples, so it follows
+// real changes in the workload instead of remembering the fastest call ever seen.
+public class AdaptiveConcurrencyLimit {
+    private static final int windowSize = 100;
+    private static final double backoffRatio = 0.9;
+    private static final double latencyTolerance = 2.0;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder backoffs = new LongAdder();
+
+    // guarded by this
+    private long baselineNanos = Long.MAX_VALUE;
+    private long windowMinNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    // samples to skip before the next backoff: the calls already running
+    // when the limit was cut say nothing about the new limit
+    private int backoffCooldown;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    // tryAcquire takes a slot, or returns false if the limit is reached
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                accepted.increment();
+                return true;
+            }
+        }
+    }
+
+    // release frees a slot and feeds the call latency into the limit
+    public void release(long latencyNanos, boolean overloaded) {
+        int current = inFlight.getAndDecrement();
+        update(latencyNanos, current, overloaded);
+    }
+
+    // releaseIgnored frees a slot without using the call as a sample,
+    // e.g. when the client cancelled it
+    public void releaseIgnored() {
+        inFlight.decrementAndGet();
+    }
+
+    private synchronized void update(long latencyNanos, int inFlightAtRelease, boolean overloaded) {
+        windowMinNanos = Math.min(windowMinNanos, latencyNanos);
+        if (baselineNanos == Long.MAX_VALUE) {
+            baselineNanos = latencyNanos;
+        }
+        if (++windowSamples >= windowSize) {
+            baselineNanos = windowMinNanos;
+            windowMinNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+
+        boolean coolingDown = backoffCooldown > 0;
+        if (coolingDown) {
+            backoffCooldown--;
+        }
+
+        boolean slow = latencyNanos > baselineNanos * latencyTolerance;
+        if (overloaded || slow) {
+            if (!coolingDown) {
+                limit = Math.max(minLimit, (int) (limit * backoffRatio));
+                backoffCooldown = inFlightAtRelease - 1;
+                backoffs.increment();
+            }
+            return;
+        }
+
+        // only grow a limit that is actually used
+        if (inFlightAtRelease * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getBackoffCount() {
+        return backoffs.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "limit: " + getLimit() + " in flight: " + getInFlight()
+                + " accepted: " + getAcceptedCount() + " rejected: " + getRejectedCount();
+    }
+}
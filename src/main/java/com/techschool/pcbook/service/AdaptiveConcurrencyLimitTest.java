@@ -0,0 +1,95 @@
+package com.techschool.pcbook.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveConcurrencyLimitTest {
+    private static final long fast = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long slow = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void rejectsOverLimit() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10);
+
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        assertEquals(2, limit.getInFlight());
+        assertEquals(1, limit.getRejectedCount());
+
+        limit.releaseIgnored();
+        assertTrue(limit.tryAcquire());
+        assertEquals(3, limit.getAcceptedCount());
+    }
+
+    @Test
+    public void growsWhenBusyAndFast() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 10);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+        for (int i = 0; i < 4; i++) {
+            limit.release(fast, false);
+        }
+        assertTrue(limit.getLimit() > 4);
+        assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    public void doesNotGrowWhenIdle() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limit.tryAcquire());
+            limit.release(fast, false);
+        }
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void backsOffWhenSlow() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+        limit.tryAcquire();
+        limit.release(fast, false);
+
+        limit.tryAcquire();
+        limit.release(slow, false);
+        assertEquals(9, limit.getLimit());
+
+        limit.tryAcquire();
+        limit.release(fast, true);
+        assertEquals(8, limit.getLimit());
+        assertEquals(2, limit.getBackoffCount());
+    }
+
+    @Test
+    public void backsOffOncePerBurst() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 100);
+        limit.tryAcquire();
+        limit.release(fast, false);
+
+        for (int i = 0; i < 3; i++) {
+            limit.tryAcquire();
+        }
+        for (int i = 0; i < 3; i++) {
+            limit.release(slow, false);
+        }
+        assertEquals(9, limit.getLimit());
+
+        limit.tryAcquire();
+        limit.release(slow, false);
+        assertEquals(8, limit.getLimit());
+    }
+
+    @Test
+    public void neverBelowMinLimit() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 2, 10);
+        for (int i = 0; i < 10; i++) {
+            limit.tryAcquire();
+            limit.release(fast, true);
+        }
+        assertEquals(2, limit.getLimit());
+    }
+}
@@ -0,0 +1,206 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.LaptopFilter;
+import com.techschool.pcbook.pb.NameSuggestion;
+import io.grpc.Context;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// CachedLaptopStore keeps the results of recent searches in front of another store.
+// Entries are keyed by the normalized filter and evicted by count (LRU) and by age.
+public class CachedLaptopStore implements LaptopStore {
+    private static final Logger logger = Logger.getLogger(CachedLaptopStore.class.getName());
+
+    private final LaptopStore store;
+    private final int maxEntries;
+    private final int maxResultsPerEntry;
+    private final long ttlNanos;
+    private final Map<LaptopFilter, Entry> cache;
+
+    // version is bumped on every save, so a search that overlaps a save doesn't cache stale results
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private long cachedBytes;
+
+    public CachedLaptopStore(LaptopStore store, int maxEntries, int maxResultsPerEntry, long ttl, TimeUnit unit) {
+        this.store = store;
+        this.maxEntries = maxEntries;
+        this.maxResultsPerEntry = maxResultsPerEntry;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.cache = new LinkedHashMap<LaptopFilter, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LaptopFilter, CachedLaptopStore.Entry> eldest) {
+                if (size() > CachedLaptopStore.this.maxEntries) {
+                    cachedBytes -= eldest.getValue().bytes;
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        store.Save(laptop);
+        version.incrementAndGet();
+
+        // drop only the entries whose filter the new laptop satisfies
+        synchronized (cache) {
+            Iterator<Map.Entry<LaptopFilter, Entry>> it = cache.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<LaptopFilter, Entry> entry = it.next();
+                if (entry.getValue().matcher.matches(laptop)) {
+                    cachedBytes -= entry.getValue().bytes;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        return store.Find(id);
+    }
+
+    @Override
+    public void Search(Context ctx, LaptopFilter filter, LaptopStream stream) {
+        LaptopFilter key = LaptopFilterUtil.normalize(filter);
+
+        Entry entry = lookup(key);
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            for (Laptop laptop : entry.laptops) {
+                if (ctx.isCancelled()) {
+                    logger.info("context is cancelled");
+                    return;
+                }
+                stream.Send(laptop);
+            }
+            return;
+        }
+        missCount.incrementAndGet();
+
+        long startVersion = version.get();
+        List<Laptop> found = new ArrayList<>();
+        boolean[] cacheable = {true};
+
+        store.Search(ctx, filter, new LaptopStream() {
+            @Override
+            public void Send(Laptop laptop) {
+                if (cacheable[0]) {
+                    if (found.size() < maxResultsPerEntry) {
+                        found.add(laptop);
+                    } else {
+                        cacheable[0] = false;
+                        found.clear();
+                    }
+                }
+                stream.Send(laptop);
+            }
+        });
+
+        if (!cacheable[0] || ctx.isCancelled() || version.get() != startVersion) {
+            return;
+        }
+
+        Entry created = new Entry(LaptopMatcher.compile(key), found, System.nanoTime());
+        synchronized (cache) {
+            if (version.get() != startVersion) {
+                return;
+            }
+            Entry old = cache.put(key, created);
+            if (old != null) {
+                cachedBytes -= old.bytes;
+            }
+            cachedBytes += created.bytes;
+        }
+    }
+
+    @Override
+    public LaptopAggregation Aggregate(Context ctx, LaptopFilter filter, LaptopAggregation aggregation) {
+        return store.Aggregate(ctx, filter, aggregation);
+    }
+
+    @Override
+    public List<NameSuggestion> Suggest(String prefix, int limit) {
+        return store.Suggest(prefix, limit);
+    }
+
+    private Entry lookup(LaptopFilter key) {
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.createdAt > ttlNanos) {
+                cache.remove(key);
+                cachedBytes -= entry.bytes;
+                evictionCount.incrementAndGet();
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public int getEntryCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    // getCachedBytes returns the serialized size of all cached laptops,
+    // a lower bound of the heap used by the cache.
+    public long getCachedBytes() {
+        synchronized (cache) {
+            return cachedBytes;
+        }
+    }
+
+    private static class Entry {
+        private final LaptopMatcher matcher;
+        private final List<Laptop> laptops;
+        private final long createdAt;
+        private final long bytes;
+
+        private Entry(LaptopMatcher matcher, List<Laptop> laptops, long createdAt) {
+            this.matcher = matcher;
+            this.laptops = laptops;
+            this.createdAt = createdAt;
+
+            long bytes = 0;
+            for (Laptop laptop : laptops) {
+                bytes += laptop.getSerializedSize();
+            }
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.LaptopFilter;
+import com.techschool.pcbook.pb.Memory;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.Context;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CachedLaptopStoreTest {
+
+    @Test
+    public void searchHitsNormalizedFilter() throws Exception {
+        CachedLaptopStore store = new CachedLaptopStore(new InMemoryLaptopStore(), 10, 100, 1, TimeUnit.MINUTES);
+        Generator generator = new Generator();
+        for (int i = 0; i < 5; i++) {
+            store.Save(generator.NewLaptop());
+        }
+
+        List<Laptop> first = search(store, filterWithRam(8, Memory.Unit.GIGABYTE));
+        List<Laptop> second = search(store, filterWithRam(8192, Memory.Unit.MEGABYTE));
+
+        assertEquals(first.size(), second.size());
+        assertEquals(1, store.getMissCount());
+        assertEquals(1, store.getHitCount());
+        assertEquals(1, store.getEntryCount());
+    }
+
+    @Test
+    public void saveInvalidatesMatchingEntries() throws Exception {
+        CachedLaptopStore store = new CachedLaptopStore(new InMemoryLaptopStore(), 10, 100, 1, TimeUnit.MINUTES);
+        Generator generator = new Generator();
+
+        LaptopFilter filter = filterWithRam(1, Memory.Unit.GIGABYTE);
+        assertEquals(0, search(store, filter).size());
+        assertEquals(1, store.getEntryCount());
+
+        Laptop laptop = generator.NewLaptop().toBuilder().setPriceUsd(1000).build();
+        store.Save(laptop);
+        assertEquals(0, store.getEntryCount());
+
+        List<Laptop> found = search(store, filter);
+        assertEquals(1, found.size());
+        assertEquals(laptop.getId(), found.get(0).getId());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        CachedLaptopStore store = new CachedLaptopStore(new InMemoryLaptopStore(), 2, 100, 1, TimeUnit.MINUTES);
+        for (int i = 1; i <= 3; i++) {
+            search(store, filterWithRam(i, Memory.Unit.GIGABYTE));
+        }
+
+        assertEquals(2, store.getEntryCount());
+        assertEquals(1, store.getEvictionCount());
+    }
+
+    private LaptopFilter filterWithRam(long value, Memory.Unit unit) {
+        return LaptopFilter.newBuilder()
+                .setMaxPriceUsd(5000)
+                .setMinRam(Memory.newBuilder().setValue(value).setUnit(unit).build())
+                .build();
+    }
+
+    private List<Laptop> search(LaptopStore store, LaptopFilter filter) {
+        List<Laptop> found = new LinkedList<>();
+        store.Search(Context.current(), filter, found::add);
+        return found;
+    }
+}
@@ -0,0 +1,294 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.LaptopServiceGrpc;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+// ClientRateLimitInterceptor gives each client its own share of each method, so one busy client
+// can't starve the others. A client is the subject of the certificate it presented in the mutual
+// TLS handshake: subjects are issued by our CA, so a client can't make up new ones. Each
+// (client, method) pair has a token bucket for the call rate and a cap on the calls it has open
+// at the same time.
+//
+// A client gets the policies listed for it, and the per-method policies otherwise. TLS
+// connections whose peer certificate can't be read share one limiter per method.
+// Limiters left idle long enough for their bucket to refill are dropped, so they don't grow
+// with every subject that ever called. Calls that didn't come over TLS at all, like the
+// in-process transport, are not limited.
+public class ClientRateLimitInterceptor implements ServerInterceptor {
+    private static final Logger logger = Logger.getLogger(ClientRateLimitInterceptor.class.getName());
+
+    public static final String unknownClient = "<unknown>";
+    private static final String identityKey = "pcbook.client.identity";
+    // longer than any bucket takes to refill
+    private static final long idleNanos = TimeUnit.MINUTES.toNanos(10);
+
+    private final Map<String, Policy> methodPolicies;
+    private final Policy defaultPolicy;
+    private final Map<String, Map<String, Policy>> identityPolicies;
+    private final ConcurrentMap<Key, ClientLimiter> limiters = new ConcurrentHashMap<>();
+    private final AtomicLong lastEviction = new AtomicLong(System.nanoTime());
+
+    public ClientRateLimitInterceptor(Map<String, Policy> methodPolicies, Policy defaultPolicy) {
+        this(methodPolicies, defaultPolicy, new HashMap<>());
+    }
+
+    // identityPolicies gives the clients it lists policies of their own. The policies of a client are
+    // by method, a method it has no policy for falls back to methodPolicies and then to defaultPolicy.
+    public ClientRateLimitInterceptor(Map<String, Policy> methodPolicies, Policy defaultPolicy,
+                                      Map<String, Map<String, Policy>> identityPolicies) {
+        this.methodPolicies = new HashMap<>(methodPolicies);
+        this.defaultPolicy = defaultPolicy;
+        this.identityPolicies = new HashMap<>();
+        for (Map.Entry<String, Map<String, Policy>> entry : identityPolicies.entrySet()) {
+            this.identityPolicies.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+    }
+
+    public static ClientRateLimitInterceptor forServer() {
+        Map<String, Policy> methodPolicies = new HashMap<>();
+        methodPolicies.put(LaptopServiceGrpc.getSearchLaptopMethod().getFullMethodName(), new Policy(20, 40, 4));
+        methodPolicies.put(LaptopServiceGrpc.getAggregateLaptopsMethod().getFullMethodName(), new Policy(10, 20, 2));
+        methodPolicies.put(LaptopServiceGrpc.getUploadImageMethod().getFullMethodName(), new Policy(5, 10, 2));
+        methodPolicies.put(LaptopServiceGrpc.getWatchLaptopsMethod().getFullMethodName(), new Policy(1, 4, 4));
+        methodPolicies.put(LaptopServiceGrpc.getWatchTopRatedLaptopsMethod().getFullMethodName(), new Policy(1, 4, 4));
+        return new ClientRateLimitInterceptor(methodPolicies, new Policy(200, 400, 64));
+    }
+
+    public Map<Key, ClientLimiter> getLimiters() {
+        return limiters;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        SSLSession session = call.getAttributes().get(Grpc.TRANSPORT_ATTR_SSL_SESSION);
+        if (session == null) {
+            return next.startCall(call, headers);
+        }
+
+        String method = call.getMethodDescriptor().getFullMethodName();
+        String identity = identityOf(session);
+        ClientLimiter limiter = limiterFor(identity, method, System.nanoTime());
+
+        Status rejection = limiter.tryAcquire();
+        if (rejection != null) {
+            logger.info("rejected " + method + " from " + identity + ": " + rejection.getDescription());
+            call.close(rejection, new Metadata());
+            return new ServerCall.Listener<ReqT>() {
+            };
+        }
+
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(call, headers);
+        } catch (RuntimeException e) {
+            limiter.release();
+            throw e;
+        }
+
+        ClientLimiter acquired = limiter;
+        AtomicBoolean released = new AtomicBoolean();
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+            @Override
+            public void onComplete() {
+                try {
+                    super.onComplete();
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        acquired.release();
+                    }
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                try {
+                    super.onCancel();
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        acquired.release();
+                    }
+                }
+            }
+        };
+    }
+
+    // limiterFor returns the limiter of a call from identity to method at now
+    ClientLimiter limiterFor(String identity, String method, long now) {
+        Map<String, Policy> policies = identityPolicies.get(identity);
+        Key key = new Key(identity, method);
+        ClientLimiter limiter = limiters.get(key);
+        if (limiter == null) {
+            Policy policy = policies != null && policies.containsKey(method)
+                    ? policies.get(method)
+                    : methodPolicies.getOrDefault(method, defaultPolicy);
+            limiter = limiters.computeIfAbsent(key, k -> new ClientLimiter(policy, now));
+        }
+        limiter.lastUsed = now;
+        evictIdle(now);
+        return limiter;
+    }
+
+    // evictIdle drops the limiters with no open call that no call used for idleNanos. It runs at
+    // most once every idleNanos, on the thread of the call that finds it due. The bucket of a
+    // dropped limiter had refilled, so a new one starts where the old one would have been.
+    private void evictIdle(long now) {
+        long last = lastEviction.get();
+        if (now - last < idleNanos || !lastEviction.compareAndSet(last, now)) {
+            return;
+        }
+        limiters.values().removeIf(limiter -> limiter.getOpenCalls() == 0 && now - limiter.lastUsed >= idleNanos);
+    }
+
+    // identityOf returns the subject of the peer certificate, cached on the session
+    // so it is parsed once per connection rather than once per call
+    static String identityOf(SSLSession session) {
+        Object cached = session.getValue(identityKey);
+        if (cached instanceof String) {
+            return (String) cached;
+        }
+
+        String identity = unknownClient;
+        try {
+            Certificate[] certificates = session.getPeerCertificates();
+            if (certificates.length > 0 && certificates[0] instanceof X509Certificate) {
+                identity = ((X509Certificate) certificates[0]).getSubjectX500Principal().getName();
+            }
+        } catch (SSLPeerUnverifiedException e) {
+            logger.fine("peer is not verified: " + e.getMessage());
+        }
+
+        try {
+            session.putValue(identityKey, identity);
+        } catch (UnsupportedOperationException e) {
+            // some providers don't support session values, parse again next time
+        }
+        return identity;
+    }
+
+    // Policy is the share of one method each client gets
+    public static class Policy {
+        private final double permitsPerSecond;
+        private final int burst;
+        private final int maxConcurrentCalls;
+
+        public Policy(double permitsPerSecond, int burst, int maxConcurrentCalls) {
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+            this.maxConcurrentCalls = maxConcurrentCalls;
+        }
+    }
+
+    public static class Key {
+        private final String identity;
+        private final String method;
+
+        private Key(String identity, String method) {
+            this.identity = identity;
+            this.method = method;
+        }
+
+        public String getIdentity() {
+            return identity;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return identity.equals(other.identity) && method.equals(other.method);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * identity.hashCode() + method.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return identity + " " + method;
+        }
+    }
+
+    public static class ClientLimiter {
+        private final TokenBucket bucket;
+        private final int maxConcurrentCalls;
+        private final AtomicInteger open = new AtomicInteger();
+        private final LongAdder rateRejected = new LongAdder();
+        private final LongAdder concurrencyRejected = new LongAdder();
+        private volatile long lastUsed;
+
+        private ClientLimiter(Policy policy, long now) {
+            this.bucket = new TokenBucket(policy.permitsPerSecond, policy.burst, now);
+            this.maxConcurrentCalls = policy.maxConcurrentCalls;
+            this.lastUsed = now;
+        }
+
+        // tryAcquire returns null if the call may start, or the status to reject it with
+        Status tryAcquire() {
+            if (open.incrementAndGet() > maxConcurrentCalls) {
+                open.decrementAndGet();
+                concurrencyRejected.increment();
+                return Status.RESOURCE_EXHAUSTED.withDescription("too many open calls, limit: " + maxConcurrentCalls);
+            }
+            if (!bucket.tryAcquire()) {
+                open.decrementAndGet();
+                rateRejected.increment();
+                return Status.RESOURCE_EXHAUSTED.withDescription("rate limit exceeded");
+            }
+            return null;
+        }
+
+        void release() {
+            open.decrementAndGet();
+        }
+
+        public int getOpenCalls() {
+            return open.get();
+        }
+
+        public long getRateRejectedCount() {
+            return rateRejected.sum();
+        }
+
+        public long getConcurrencyRejectedCount() {
+            return concurrencyRejected.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "open: " + getOpenCalls() + " rate rejected: " + getRateRejectedCount()
+                    + " concurrency rejected: " + getConcurrencyRejectedCount();
+        }
+    }
+}
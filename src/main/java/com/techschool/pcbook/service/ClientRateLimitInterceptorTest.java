@@ -0,0 +1,112 @@
+package com.techschool.pcbook.service;
+
+import io.grpc.Status;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ClientRateLimitInterceptorTest {
+    private static final String search = "pcbook.LaptopService/SearchLaptop";
+    private static final String create = "pcbook.LaptopService/CreateLaptop";
+
+    private static ClientRateLimitInterceptor interceptor() {
+        Map<String, ClientRateLimitInterceptor.Policy> methodPolicies = new HashMap<>();
+        methodPolicies.put(search, new ClientRateLimitInterceptor.Policy(100, 100, 1));
+        Map<String, Map<String, ClientRateLimitInterceptor.Policy>> identityPolicies = new HashMap<>();
+        identityPolicies.put("CN=known", Collections.singletonMap(search, new ClientRateLimitInterceptor.Policy(100, 100, 3)));
+        return new ClientRateLimitInterceptor(methodPolicies, new ClientRateLimitInterceptor.Policy(100, 100, 100),
+                identityPolicies);
+    }
+
+    @Test
+    public void eachSubjectHasItsOwnLimiter() {
+        ClientRateLimitInterceptor interceptor = interceptor();
+        long now = System.nanoTime();
+
+        ClientRateLimitInterceptor.ClientLimiter first = interceptor.limiterFor("CN=first", search, now);
+        assertSame(first, interceptor.limiterFor("CN=first", search, now));
+        assertNotSame(first, interceptor.limiterFor("CN=second", search, now));
+        assertNotSame(first, interceptor.limiterFor("CN=first", create, now));
+        assertEquals(3, interceptor.getLimiters().size());
+    }
+
+    @Test
+    public void busyClientDoesntStarveOthers() {
+        ClientRateLimitInterceptor interceptor = interceptor();
+        long now = System.nanoTime();
+
+        // the first client takes the open call of the method's policy and runs its bucket dry
+        ClientRateLimitInterceptor.ClientLimiter first = interceptor.limiterFor("CN=first", search, now);
+        assertNull(first.tryAcquire());
+        assertEquals("too many open calls, limit: 1", first.tryAcquire().getDescription());
+        first.release();
+        Status rejection = null;
+        for (int i = 1; i < 1000 && rejection == null; i++) {
+            rejection = first.tryAcquire();
+            if (rejection == null) {
+                first.release();
+            }
+        }
+        assertEquals("rate limit exceeded", rejection.getDescription());
+
+        // the second client still has its full share
+        ClientRateLimitInterceptor.ClientLimiter second = interceptor.limiterFor("CN=second", search, now);
+        assertNull(second.tryAcquire());
+        assertEquals(1, second.getOpenCalls());
+    }
+
+    @Test
+    public void unreadableCertificatesShareOneLimiter() {
+        ClientRateLimitInterceptor interceptor = interceptor();
+        long now = System.nanoTime();
+
+        ClientRateLimitInterceptor.ClientLimiter unknown =
+                interceptor.limiterFor(ClientRateLimitInterceptor.unknownClient, search, now);
+        assertSame(unknown, interceptor.limiterFor(ClientRateLimitInterceptor.unknownClient, search, now));
+        assertNull(unknown.tryAcquire());
+        assertNotNull(interceptor.limiterFor(ClientRateLimitInterceptor.unknownClient, search, now).tryAcquire());
+    }
+
+    @Test
+    public void knownClientPolicies() {
+        ClientRateLimitInterceptor interceptor = interceptor();
+        long now = System.nanoTime();
+
+        // the client's own policy allows three open calls where the method's allows one
+        ClientRateLimitInterceptor.ClientLimiter known = interceptor.limiterFor("CN=known", search, now);
+        for (int i = 0; i < 3; i++) {
+            assertNull(known.tryAcquire());
+        }
+        assertEquals("too many open calls, limit: 3", known.tryAcquire().getDescription());
+        assertEquals(3, known.getOpenCalls());
+
+        // a method the client has no policy for falls back to the default
+        ClientRateLimitInterceptor.ClientLimiter other = interceptor.limiterFor("CN=known", create, now);
+        for (int i = 0; i < 100; i++) {
+            assertNull(other.tryAcquire());
+        }
+        assertNotNull(other.tryAcquire());
+    }
+
+    @Test
+    public void evictsIdleLimiters() {
+        ClientRateLimitInterceptor interceptor = interceptor();
+        long now = System.nanoTime();
+        long idle = TimeUnit.MINUTES.toNanos(10);
+
+        ClientRateLimitInterceptor.ClientLimiter first = interceptor.limiterFor("CN=first", search, now);
+        ClientRateLimitInterceptor.ClientLimiter known = interceptor.limiterFor("CN=known", search, now);
+        assertNull(known.tryAcquire());
+
+        // the first client's limiter is idle, the known one still has an open call
+        interceptor.limiterFor("CN=first", create, now + idle);
+        assertEquals(2, interceptor.getLimiters().size());
+        assertNotSame(first, interceptor.limiterFor("CN=first", search, now + idle));
+        assertSame(known, interceptor.limiterFor("CN=known", search, now + idle));
+    }
+}
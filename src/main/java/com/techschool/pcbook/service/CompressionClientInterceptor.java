@@ -0,0 +1,41 @@
+package com.techschool.pcbook.service;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.MethodDescriptor;
+
+// CompressionClientInterceptor picks the request codec per method and records
+// compressed versus uncompressed sizes of every call.
+public class CompressionClientInterceptor implements ClientInterceptor {
+    private final CompressionConfig config;
+    private final CompressionStats stats;
+
+    public CompressionClientInterceptor(CompressionConfig config, CompressionStats stats) {
+        this.config = config;
+        this.stats = stats;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                               CallOptions callOptions, Channel next) {
+        String fullMethodName = method.getFullMethodName();
+        CallOptions options = callOptions.withStreamTracerFactory(stats.clientTracerFactory(fullMethodName));
+
+        String codec = config.getCodec(fullMethodName);
+        if (codec == null) {
+            return next.newCall(method, options);
+        }
+
+        return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(
+                next.newCall(method, options.withCompression(codec))) {
+            @Override
+            public void sendMessage(ReqT message) {
+                setMessageCompression(config.shouldCompress(message));
+                super.sendMessage(message);
+            }
+        };
+    }
+}
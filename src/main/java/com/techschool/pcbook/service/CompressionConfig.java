@@ -0,0 +1,72 @@
+package com.techschool.pcbook.service;
+
+import com.google.protobuf.MessageLite;
+import com.techschool.pcbook.pb.LaptopServiceGrpc;
+import io.grpc.Codec;
+import io.grpc.CompressorRegistry;
+import io.grpc.DecompressorRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// CompressionConfig maps full method names to the codec used for the messages we send.
+// Messages smaller than minMessageSize are sent uncompressed.
+public class CompressionConfig {
+    private final Map<String, String> methodCodecs;
+    private final int minMessageSize;
+
+    public CompressionConfig(Map<String, String> methodCodecs, int minMessageSize) {
+        this.methodCodecs = new HashMap<>(methodCodecs);
+        this.minMessageSize = minMessageSize;
+    }
+
+    // forServer compresses the streams that carry laptops back to the client.
+    public static CompressionConfig forServer() {
+        Map<String, String> methodCodecs = new HashMap<>();
+        methodCodecs.put(LaptopServiceGrpc.getSearchLaptopMethod().getFullMethodName(), FastDeflateCodec.encoding);
+        methodCodecs.put(LaptopServiceGrpc.getWatchLaptopsMethod().getFullMethodName(), FastDeflateCodec.encoding);
+        return new CompressionConfig(methodCodecs, 256);
+    }
+
+    // forClient sends every request uncompressed, but still accepts compressed responses.
+    // A client can't tell which codecs a server knows before its first response, so a request
+    // compressed with a codec the server lacks fails with UNIMPLEMENTED. The images it uploads
+    // are mostly JPEG and PNG, which hardly compress anyway.
+    public static CompressionConfig forClient() {
+        return new CompressionConfig(new HashMap<>(), 256);
+    }
+
+    // forClient compresses image chunks with uploadCodec, for a client that knows its server
+    // supports it: "gzip" is known to every gRPC server, FastDeflateCodec.encoding only to ours.
+    public static CompressionConfig forClient(String uploadCodec) {
+        Map<String, String> methodCodecs = new HashMap<>();
+        methodCodecs.put(LaptopServiceGrpc.getUploadImageMethod().getFullMethodName(), uploadCodec);
+        return new CompressionConfig(methodCodecs, 256);
+    }
+
+    public static CompressionConfig disabled() {
+        return new CompressionConfig(new HashMap<>(), Integer.MAX_VALUE);
+    }
+
+    public String getCodec(String fullMethodName) {
+        return methodCodecs.get(fullMethodName);
+    }
+
+    public boolean shouldCompress(Object message) {
+        if (message instanceof MessageLite) {
+            return ((MessageLite) message).getSerializedSize() >= minMessageSize;
+        }
+        return true;
+    }
+
+    public static CompressorRegistry compressorRegistry() {
+        CompressorRegistry registry = CompressorRegistry.newEmptyInstance();
+        registry.register(new Codec.Gzip());
+        registry.register(new FastDeflateCodec());
+        return registry;
+    }
+
+    public static DecompressorRegistry decompressorRegistry() {
+        return DecompressorRegistry.getDefaultInstance().with(new FastDeflateCodec(), true);
+    }
+}
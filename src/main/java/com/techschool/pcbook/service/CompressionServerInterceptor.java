@@ -0,0 +1,35 @@
+package com.techschool.pcbook.service;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+// CompressionServerInterceptor picks the response codec per method.
+// The codec is only used when the client advertised it in grpc-accept-encoding.
+public class CompressionServerInterceptor implements ServerInterceptor {
+    private final CompressionConfig config;
+
+    public CompressionServerInterceptor(CompressionConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        String codec = config.getCodec(call.getMethodDescriptor().getFullMethodName());
+        if (codec == null) {
+            return next.startCall(call, headers);
+        }
+
+        call.setCompression(codec);
+        return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                setMessageCompression(config.shouldCompress(message));
+                super.sendMessage(message);
+            }
+        }, headers);
+    }
+}
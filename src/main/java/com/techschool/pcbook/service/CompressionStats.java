@@ -0,0 +1,120 @@
+package com.techschool.pcbook.service;
+
+import io.grpc.ClientStreamTracer;
+import io.grpc.Metadata;
+import io.grpc.ServerStreamTracer;
+import io.grpc.StreamTracer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// CompressionStats counts, per method, the bytes of messages before and after compression
+// in both directions, as reported by the gRPC stream tracers.
+public class CompressionStats {
+    private final ConcurrentMap<String, MethodStats> data = new ConcurrentHashMap<>();
+
+    public MethodStats get(String fullMethodName) {
+        return data.computeIfAbsent(fullMethodName, name -> new MethodStats());
+    }
+
+    public Map<String, MethodStats> getAll() {
+        return data;
+    }
+
+    public ServerStreamTracer.Factory serverTracerFactory() {
+        return new ServerStreamTracer.Factory() {
+            @Override
+            public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+                MethodStats stats = get(fullMethodName);
+                return new ServerStreamTracer() {
+                    @Override
+                    public void outboundWireSize(long bytes) {
+                        stats.outboundWire.add(bytes);
+                    }
+
+                    @Override
+                    public void outboundUncompressedSize(long bytes) {
+                        stats.outboundUncompressed.add(bytes);
+                    }
+
+                    @Override
+                    public void inboundWireSize(long bytes) {
+                        stats.inboundWire.add(bytes);
+                    }
+
+                    @Override
+                    public void inboundUncompressedSize(long bytes) {
+                        stats.inboundUncompressed.add(bytes);
+                    }
+                };
+            }
+        };
+    }
+
+    public ClientStreamTracer.Factory clientTracerFactory(String fullMethodName) {
+        MethodStats stats = get(fullMethodName);
+        return new ClientStreamTracer.Factory() {
+            @Override
+            public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+                return new ClientStreamTracer() {
+                    @Override
+                    public void outboundWireSize(long bytes) {
+                        stats.outboundWire.add(bytes);
+                    }
+
+                    @Override
+                    public void outboundUncompressedSize(long bytes) {
+                        stats.outboundUncompressed.add(bytes);
+                    }
+
+                    @Override
+                    public void inboundWireSize(long bytes) {
+                        stats.inboundWire.add(bytes);
+                    }
+
+                    @Override
+                    public void inboundUncompressedSize(long bytes) {
+                        stats.inboundUncompressed.add(bytes);
+                    }
+                };
+            }
+        };
+    }
+
+    public static class MethodStats {
+        private final LongAdder outboundWire = new LongAdder();
+        private final LongAdder outboundUncompressed = new LongAdder();
+        private final LongAdder inboundWire = new LongAdder();
+        private final LongAdder inboundUncompressed = new LongAdder();
+
+        public long getOutboundWireBytes() {
+            return outboundWire.sum();
+        }
+
+        public long getOutboundUncompressedBytes() {
+            return outboundUncompressed.sum();
+        }
+
+        public long getInboundWireBytes() {
+            return inboundWire.sum();
+        }
+
+        public long getInboundUncompressedBytes() {
+            return inboundUncompressed.sum();
+        }
+
+        // getOutboundRatio returns wire bytes per uncompressed byte, lower is better.
+        public double getOutboundRatio() {
+            long uncompressed = outboundUncompressed.sum();
+            return uncompressed == 0 ? 1 : (double) outboundWire.sum() / uncompressed;
+        }
+
+        @Override
+        public String toString() {
+            return "out: " + getOutboundWireBytes() + "/" + getOutboundUncompressedBytes()
+                    + " in: " + getInboundWireBytes() + "/" + getInboundUncompressedBytes();
+        }
+    }
+}
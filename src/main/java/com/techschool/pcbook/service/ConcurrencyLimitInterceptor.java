@@ -0,0 +1,178 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.LaptopServiceGrpc;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+// ConcurrencyLimitInterceptor sheds load before it reaches the service. Every method has its own
+// AdaptiveConcurrencyLimit, and a call over the limit fails fast with RESOURCE_EXHAUSTED instead
+// of queueing behind the calls already running.
+//
+// Heavy methods start with a small limit so a burst of broad searches or uploads can't take the
+// capacity the cheap methods need. The Watch streams are not limited: they stay open for as long
+// as the client watches, which says nothing about how loaded the server is.
+//
+// A call is timed by the work the server does for it, not by the client's pace. A call with a
+// client stream, like UploadImage or UploadChunks, is timed from the end of the client's stream:
+// how fast a client sends its chunks depends on its link. A server streaming call, like
+// SearchLaptop, is timed until its handler returns: the responses are queued by then, and how fast
+// the client reads them doesn't tell how loaded the server is.
+public class ConcurrencyLimitInterceptor implements ServerInterceptor {
+    private static final Logger logger = Logger.getLogger(ConcurrencyLimitInterceptor.class.getName());
+
+    private final Set<String> heavyMethods;
+    private final Set<String> exemptMethods;
+    private final ConcurrentMap<String, AdaptiveConcurrencyLimit> limits = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimitInterceptor(Set<String> heavyMethods, Set<String> exemptMethods) {
+        this.heavyMethods = new HashSet<>(heavyMethods);
+        this.exemptMethods = new HashSet<>(exemptMethods);
+    }
+
+    public static ConcurrencyLimitInterceptor forServer() {
+        Set<String> heavyMethods = new HashSet<>();
+        heavyMethods.add(LaptopServiceGrpc.getSearchLaptopMethod().getFullMethodName());
+        heavyMethods.add(LaptopServiceGrpc.getAggregateLaptopsMethod().getFullMethodName());
+        heavyMethods.add(LaptopServiceGrpc.getUploadImageMethod().getFullMethodName());
+        heavyMethods.add(LaptopServiceGrpc.getUploadChunksMethod().getFullMethodName());
+
+        Set<String> exemptMethods = new HashSet<>();
+        exemptMethods.add(LaptopServiceGrpc.getWatchLaptopsMethod().getFullMethodName());
+        exemptMethods.add(LaptopServiceGrpc.getWatchTopRatedLaptopsMethod().getFullMethodName());
+        return new ConcurrencyLimitInterceptor(heavyMethods, exemptMethods);
+    }
+
+    // getLimit returns the limit of a method, created on its first call
+    public AdaptiveConcurrencyLimit getLimit(String fullMethodName) {
+        return limits.computeIfAbsent(fullMethodName, name -> heavyMethods.contains(name)
+                ? new AdaptiveConcurrencyLimit(16, 2, 256)
+                : new AdaptiveConcurrencyLimit(128, 8, 2048));
+    }
+
+    public Map<String, AdaptiveConcurrencyLimit> getLimits() {
+        return limits;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        MethodDescriptor<ReqT, RespT> method = call.getMethodDescriptor();
+        if (exemptMethods.contains(method.getFullMethodName())) {
+            return next.startCall(call, headers);
+        }
+
+        AdaptiveConcurrencyLimit limit = getLimit(method.getFullMethodName());
+        if (!limit.tryAcquire()) {
+            logger.info("rejected " + method.getFullMethodName() + ", limit: " + limit.getLimit());
+            call.close(Status.RESOURCE_EXHAUSTED
+                    .withDescription("too many concurrent calls, limit: " + limit.getLimit()), new Metadata());
+            return new ServerCall.Listener<ReqT>() {
+            };
+        }
+
+        boolean clientStreaming = method.getType() == MethodDescriptor.MethodType.CLIENT_STREAMING
+                || method.getType() == MethodDescriptor.MethodType.BIDI_STREAMING;
+        boolean serverStreaming = method.getType() == MethodDescriptor.MethodType.SERVER_STREAMING;
+        long callStart = System.nanoTime();
+        TrackedCall<ReqT, RespT> tracked = new TrackedCall<>(call);
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(tracked, headers);
+        } catch (RuntimeException e) {
+            limit.releaseIgnored();
+            throw e;
+        }
+
+        AtomicBoolean released = new AtomicBoolean();
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+            // a call with a client stream is timed from its half close, 0 until then
+            private volatile long start = clientStreaming ? 0 : callStart;
+            // a server streaming call is timed until its handler returns, 0 until then
+            private volatile long end;
+
+            @Override
+            public void onHalfClose() {
+                if (clientStreaming) {
+                    start = System.nanoTime();
+                }
+                // the handler of a server streaming call runs in the half close
+                super.onHalfClose();
+                if (serverStreaming) {
+                    end = System.nanoTime();
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                try {
+                    super.onComplete();
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        sample(tracked.overloaded());
+                    }
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                try {
+                    super.onCancel();
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        // a call cut by its deadline is a sign of overload, other cancels are the client's choice
+                        Deadline deadline = Context.current().getDeadline();
+                        if (deadline != null && deadline.isExpired()) {
+                            sample(true);
+                        } else {
+                            limit.releaseIgnored();
+                        }
+                    }
+                }
+            }
+
+            // sample feeds the call's server-side time into the limit. A call with a client stream
+            // that ends before the client is done sending has none, so it is not a sample.
+            private void sample(boolean overloaded) {
+                if (start == 0) {
+                    limit.releaseIgnored();
+                } else {
+                    limit.release((end != 0 ? end : System.nanoTime()) - start, overloaded);
+                }
+            }
+        };
+    }
+
+    private static class TrackedCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private volatile Status.Code code = Status.Code.OK;
+
+        private TrackedCall(ServerCall<ReqT, RespT> call) {
+            super(call);
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            code = status.getCode();
+            super.close(status, trailers);
+        }
+
+        private boolean overloaded() {
+            return code == Status.Code.DEADLINE_EXCEEDED || code == Status.Code.RESOURCE_EXHAUSTED;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.LaptopServiceGrpc;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.Status;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimitInterceptorTest {
+
+    @Test
+    public void slowReaderIsNotOverload() throws Exception {
+        ConcurrencyLimitInterceptor interceptor = ConcurrencyLimitInterceptor.forServer();
+        MethodDescriptor<?, ?> search = LaptopServiceGrpc.getSearchLaptopMethod();
+
+        // both handlers take 20 ms, the second client then takes 200 ms to read the responses
+        ServerCall.Listener<?> fast = start(interceptor, search, 20);
+        fast.onHalfClose();
+        fast.onComplete();
+        ServerCall.Listener<?> slow = start(interceptor, search, 20);
+        slow.onHalfClose();
+        Thread.sleep(200);
+        slow.onComplete();
+
+        AdaptiveConcurrencyLimit limit = interceptor.getLimit(search.getFullMethodName());
+        assertEquals(0, limit.getInFlight());
+        assertEquals(0, limit.getBackoffCount());
+    }
+
+    @Test
+    public void slowUploadIsNotOverload() throws Exception {
+        ConcurrencyLimitInterceptor interceptor = ConcurrencyLimitInterceptor.forServer();
+        MethodDescriptor<?, ?> uploadChunks = LaptopServiceGrpc.getUploadChunksMethod();
+
+        // the second client takes 200 ms to send its chunks, the server's work is the same
+        ServerCall.Listener<?> fast = start(interceptor, uploadChunks, 20);
+        fast.onHalfClose();
+        fast.onComplete();
+        ServerCall.Listener<?> slow = start(interceptor, uploadChunks, 20);
+        Thread.sleep(200);
+        slow.onHalfClose();
+        slow.onComplete();
+
+        // the bidi upload is limited, with the small limit of the heavy methods
+        AdaptiveConcurrencyLimit limit = interceptor.getLimit(uploadChunks.getFullMethodName());
+        assertEquals(2, limit.getAcceptedCount());
+        assertEquals(0, limit.getInFlight());
+        assertEquals(0, limit.getBackoffCount());
+        assertEquals(interceptor.getLimit(LaptopServiceGrpc.getSearchLaptopMethod().getFullMethodName()).getLimit(),
+                limit.getLimit());
+    }
+
+    @Test
+    public void onlyWatchStreamsAreExempt() {
+        ConcurrencyLimitInterceptor interceptor = ConcurrencyLimitInterceptor.forServer();
+
+        start(interceptor, LaptopServiceGrpc.getRateLaptopMethod(), 0);
+        start(interceptor, LaptopServiceGrpc.getWatchLaptopsMethod(), 0);
+        start(interceptor, LaptopServiceGrpc.getWatchTopRatedLaptopsMethod(), 0);
+
+        assertEquals(1, interceptor.getLimits().size());
+        assertEquals(1, interceptor.getLimit(LaptopServiceGrpc.getRateLaptopMethod().getFullMethodName()).getInFlight());
+    }
+
+    // start starts a call to method whose handler runs for handlerMillis in the half close,
+    // as the handler of a unary or server streaming call does
+    private static <ReqT, RespT> ServerCall.Listener<ReqT> start(ConcurrencyLimitInterceptor interceptor,
+                                                                 MethodDescriptor<ReqT, RespT> method,
+                                                                 long handlerMillis) {
+        ServerCallHandler<ReqT, RespT> handler = (call, headers) -> new ServerCall.Listener<ReqT>() {
+            @Override
+            public void onHalfClose() {
+                try {
+                    Thread.sleep(handlerMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        return interceptor.interceptCall(new FakeCall<>(method), new Metadata(), handler);
+    }
+
+    private static class FakeCall<ReqT, RespT> extends ServerCall<ReqT, RespT> {
+        private final MethodDescriptor<ReqT, RespT> method;
+
+        private FakeCall(MethodDescriptor<ReqT, RespT> method) {
+            this.method = method;
+        }
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+        }
+
+        @Override
+        public void sendMessage(RespT message) {
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public MethodDescriptor<ReqT, RespT> getMethodDescriptor() {
+            return method;
+        }
+    }
+}
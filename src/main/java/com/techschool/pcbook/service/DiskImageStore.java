@@ -4,26 +4,63 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 
+// DiskImageStore writes each image to its own file. In the sharded layout an image lives in
+// <folder>/ab/cd/<id><type>, where abcd are the first characters of its ID, so no directory holds
+// more than a few thousand files even with hundreds of millions of images.
 public class DiskImageStore implements ImageStore {
     private String imageFolder;
     private ConcurrentMap<String, ImageMetaData> data;
+    // runs the writes of SaveAsync, null for the JVM's default pools
+    private ExecutorService ioExecutor;
+    private boolean sharded;
+    // directories known to exist, so a save doesn't stat its directory every time
+    private Set<String> createdDirs;
 
     public DiskImageStore(String folder) {
+        this(folder, null);
+    }
+
+    public DiskImageStore(String folder, ExecutorService ioExecutor) {
+        this(folder, ioExecutor, true);
+    }
+
+    public DiskImageStore(String folder, ExecutorService ioExecutor, boolean sharded) {
         this.imageFolder = folder;
         this.data = new ConcurrentHashMap<>(0);
+        this.ioExecutor = ioExecutor;
+        this.sharded = sharded;
+        this.createdDirs = ConcurrentHashMap.newKeySet();
     }
 
 
     @Override
     public String Save(String laptopID, String imageType, ByteArrayOutputStream imageData) throws IOException {
         String imageID = UUID.randomUUID().toString();
-        String imagePath = String.format("%s/%s%s", imageFolder, imageID, imageType);
+        String imageDir = imageDir(imageID);
+        String imagePath = String.format("%s/%s%s", imageDir, imageID, imageType);
 
-        createDirIfNotExists(imageFolder);
+        createDirIfNotExists(imageDir);
 
         FileOutputStream fileOutputStream = new FileOutputStream(imagePath);
         imageData.writeTo(fileOutputStream);
@@ -35,11 +72,146 @@ public class DiskImageStore implements ImageStore {
         return imageID;
     }
 
+    // SaveAsync writes through an AsynchronousFileChannel, so the caller's thread never waits for
+    // the disk. Copying the data, creating the directory and opening the file run on the I/O
+    // executor too.
+    @Override
+    public CompletableFuture<String> SaveAsync(String laptopID, String imageType, ByteArrayOutputStream imageData) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Executor executor = ioExecutor != null ? ioExecutor : ForkJoinPool.commonPool();
+        try {
+            executor.execute(() -> startWrite(laptopID, imageType, imageData, future));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void startWrite(String laptopID, String imageType, ByteArrayOutputStream imageData,
+                            CompletableFuture<String> future) {
+        String imageID = UUID.randomUUID().toString();
+        String imageDir = imageDir(imageID);
+        String imagePath = String.format("%s/%s%s", imageDir, imageID, imageType);
+
+        AsynchronousFileChannel channel;
+        try {
+            createDirIfNotExists(imageDir);
+            Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+            channel = AsynchronousFileChannel.open(Paths.get(imagePath), options, ioExecutor);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(imageData.toByteArray());
+        channel.write(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer written, Void attachment) {
+                // a write may stop short, continue from where it did
+                if (buffer.hasRemaining()) {
+                    channel.write(buffer, buffer.position(), null, this);
+                    return;
+                }
+
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                data.put(imageID, new ImageMetaData(laptopID, imageType, imagePath));
+                future.complete(imageID);
+            }
+
+            @Override
+            public void failed(Throwable t, Void attachment) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    t.addSuppressed(e);
+                }
+                future.completeExceptionally(t);
+            }
+        });
+    }
+
+    // SaveFile moves the file into the store without reading it
+    @Override
+    public String SaveFile(String laptopID, String imageType, Path file) throws IOException {
+        String imageID = UUID.randomUUID().toString();
+        String imageDir = imageDir(imageID);
+        String imagePath = String.format("%s/%s%s", imageDir, imageID, imageType);
+
+        createDirIfNotExists(imageDir);
+
+        try {
+            Files.move(file, Paths.get(imagePath), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // the file is on another file system, fall back to copy and delete
+            Files.move(file, Paths.get(imagePath));
+        }
+
+        ImageMetaData metaData = new ImageMetaData(laptopID, imageType, imagePath);
+        data.put(imageID, metaData);
+
+        return imageID;
+    }
+
+    public ImageMetaData Find(String imageID) {
+        return data.get(imageID);
+    }
+
+    public String getImageFolder() {
+        return imageFolder;
+    }
+
+    // migrateFlatLayout moves the files of a flat image folder into their shard directories and
+    // returns how many it moved. Run it before the store takes saves; an interrupted run can be
+    // started again and picks up the files left behind.
+    public int migrateFlatLayout() throws IOException {
+        if (!sharded || !Files.isDirectory(Paths.get(imageFolder))) {
+            return 0;
+        }
+
+        int moved = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(imageFolder))) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!Files.isRegularFile(file) || name.length() < 4) {
+                    continue;
+                }
+
+                // variants are named <id>-<size>, so they land next to their original
+                String dir = imageDir(name);
+                createDirIfNotExists(dir);
+                Files.move(file, Paths.get(dir, name), StandardCopyOption.ATOMIC_MOVE);
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    private String imageDir(String imageID) {
+        if (!sharded || imageID.length() < 4) {
+            return imageFolder;
+        }
+        return String.format("%s/%s/%s", imageFolder, imageID.substring(0, 2), imageID.substring(2, 4));
+    }
+
     private void createDirIfNotExists(String folder) throws IOException {
+        if (createdDirs.contains(folder)) {
+            return;
+        }
+
         File dir = new File(folder);
         if (!dir.exists()) {
             // mkdirs in case there are multiple parents. e.g. tmp/a/b
             dir.mkdirs();
         }
+        // mkdirs fails if another save created the directory first, so check the result instead
+        if (!dir.isDirectory()) {
+            throw new IOException("cannot create directory: " + folder);
+        }
+        createdDirs.add(folder);
     }
 }
@@ -0,0 +1,72 @@
+package com.techschool.pcbook.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class DiskImageStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void savesInShardDirectories() throws Exception {
+        DiskImageStore store = new DiskImageStore(folder.getRoot().getPath());
+
+        String imageID = store.Save("laptop", ".jpg", data(100));
+        File file = new File(store.Find(imageID).getPath());
+
+        assertTrue(file.isFile());
+        assertEquals(100, file.length());
+        assertEquals(imageID.substring(2, 4), file.getParentFile().getName());
+        assertEquals(imageID.substring(0, 2), file.getParentFile().getParentFile().getName());
+    }
+
+    @Test
+    public void saveAsyncUsesSameLayout() throws Exception {
+        DiskImageStore store = new DiskImageStore(folder.getRoot().getPath());
+
+        String imageID = store.SaveAsync("laptop", ".png", data(50)).get();
+        File file = new File(store.Find(imageID).getPath());
+
+        assertTrue(file.isFile());
+        assertEquals(imageID.substring(2, 4), file.getParentFile().getName());
+    }
+
+    @Test
+    public void flatLayout() throws Exception {
+        DiskImageStore store = new DiskImageStore(folder.getRoot().getPath(), null, false);
+
+        String imageID = store.Save("laptop", ".jpg", data(10));
+        assertEquals(folder.getRoot(), new File(store.Find(imageID).getPath()).getParentFile());
+    }
+
+    @Test
+    public void migrateFlatLayout() throws Exception {
+        DiskImageStore flat = new DiskImageStore(folder.getRoot().getPath(), null, false);
+        String first = flat.Save("laptop", ".jpg", data(10));
+        String second = flat.Save("laptop", ".jpg", data(20));
+
+        DiskImageStore sharded = new DiskImageStore(folder.getRoot().getPath());
+        assertEquals(2, sharded.migrateFlatLayout());
+        assertEquals(0, sharded.migrateFlatLayout());
+
+        for (String imageID : new String[]{first, second}) {
+            File moved = new File(folder.getRoot(),
+                    imageID.substring(0, 2) + "/" + imageID.substring(2, 4) + "/" + imageID + ".jpg");
+            assertTrue(moved.isFile());
+            assertFalse(Files.exists(new File(folder.getRoot(), imageID + ".jpg").toPath()));
+        }
+    }
+
+    private static ByteArrayOutputStream data(int size) throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(new byte[size]);
+        return data;
+    }
+}
@@ -0,0 +1,410 @@
+package com.techschool.pcbook.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+// DurableRatingStore keeps ratings in memory like InMemoryRatingStore and writes them behind:
+// Add only merges the rating into a per-laptop delta, and a background thread appends all deltas
+// as one batch to a log every flush interval. A crash loses at most the ratings of the last interval.
+//
+// Every checkpointEvery flushes, the flushed totals are written to a checkpoint and a new log is
+// started, so recovery reads one checkpoint and replays the logs written after it. Each batch ends
+// with a CRC, replay stops at the first torn or corrupt batch.
+public class DurableRatingStore implements RatingStore {
+    private static final Logger logger = Logger.getLogger(DurableRatingStore.class.getName());
+
+    private static final String checkpointFile = "ratings.checkpoint";
+    private static final String logPrefix = "ratings-";
+    private static final String logSuffix = ".log";
+
+    public enum FsyncPolicy {
+        // force the log after every batch: a crash of the machine loses one interval at most
+        EVERY_FLUSH,
+        // leave the log to the OS and only force checkpoints: a process crash still loses one
+        // interval at most, a crash of the machine may lose everything since the last checkpoint
+        CHECKPOINT_ONLY
+    }
+
+    private final Path folder;
+    private final FsyncPolicy fsyncPolicy;
+    private final int checkpointEvery;
+    private final InMemoryRatingStore memory = new InMemoryRatingStore();
+    private final ConcurrentMap<String, Rating> pending = new ConcurrentHashMap<>();
+    private final AtomicLong oldestPendingNanos = new AtomicLong();
+    private final ScheduledExecutorService flusher;
+
+    // only touched by the flusher, or by the constructor before it starts
+    private final Map<String, Rating> flushed = new HashMap<>();
+    private FileChannel log;
+    private long logGeneration;
+    private int flushesSinceCheckpoint;
+
+    private final LongAdder flushCount = new LongAdder();
+    private final LongAdder flushedRecords = new LongAdder();
+    private final LongAdder flushedBytes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final LongAdder checkpointCount = new LongAdder();
+    private volatile long lastFlushLagNanos;
+
+    public DurableRatingStore(String folder, long flushInterval, TimeUnit unit, FsyncPolicy fsyncPolicy,
+                              int checkpointEvery) throws IOException {
+        if (flushInterval <= 0 || checkpointEvery < 1) {
+            throw new IllegalArgumentException("flush interval and checkpoint period must be positive");
+        }
+        this.folder = Paths.get(folder);
+        this.fsyncPolicy = fsyncPolicy;
+        this.checkpointEvery = checkpointEvery;
+
+        Files.createDirectories(this.folder);
+        recover();
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rating-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, unit);
+    }
+
+    @Override
+    public Rating Add(String laptopID, double score) {
+        Rating rating = memory.Add(laptopID, score);
+        oldestPendingNanos.compareAndSet(0, System.nanoTime());
+        pending.merge(laptopID, new Rating(1, score), Rating::add);
+        return rating;
+    }
+
+    @Override
+    public RatingLeaderboard Leaderboard() {
+        return memory.Leaderboard();
+    }
+
+    // close flushes the last deltas, writes a checkpoint and stops the flusher
+    public void close() throws IOException, InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(30, TimeUnit.SECONDS);
+        synchronized (this) {
+            flush();
+            checkpoint();
+            log.close();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            synchronized (this) {
+                flush();
+                if (flushesSinceCheckpoint >= checkpointEvery) {
+                    checkpoint();
+                }
+            }
+        } catch (IOException e) {
+            // the deltas stay in memory and are retried with the next batch
+            logger.warning("cannot flush ratings: " + e.getMessage());
+        }
+    }
+
+    // flush appends the pending deltas as one batch
+    synchronized void flush() throws IOException {
+        long since = oldestPendingNanos.getAndSet(0);
+        if (pending.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+
+        // remove takes a laptop's delta atomically, a rating that comes after starts a new delta
+        Map<String, Rating> batch = new HashMap<>();
+        for (String laptopID : pending.keySet()) {
+            Rating delta = pending.remove(laptopID);
+            if (delta != null) {
+                batch.put(laptopID, delta);
+            }
+        }
+
+        ByteBuffer record = encode(batch);
+        int size = record.remaining();
+        try {
+            long position = log.position();
+            try {
+                while (record.hasRemaining()) {
+                    log.write(record);
+                }
+                if (fsyncPolicy == FsyncPolicy.EVERY_FLUSH) {
+                    log.force(false);
+                }
+            } catch (IOException e) {
+                // drop the partial batch so the next one starts on a record boundary
+                log.truncate(position);
+                throw e;
+            }
+        } catch (IOException e) {
+            for (Map.Entry<String, Rating> delta : batch.entrySet()) {
+                pending.merge(delta.getKey(), delta.getValue(), Rating::add);
+            }
+            oldestPendingNanos.compareAndSet(0, since == 0 ? start : since);
+            throw e;
+        }
+
+        for (Map.Entry<String, Rating> delta : batch.entrySet()) {
+            flushed.merge(delta.getKey(), delta.getValue(), Rating::add);
+        }
+        flushesSinceCheckpoint++;
+
+        long end = System.nanoTime();
+        flushCount.increment();
+        flushedRecords.add(batch.size());
+        flushedBytes.add(size);
+        flushNanos.add(end - start);
+        lastFlushLagNanos = since == 0 ? 0 : end - since;
+    }
+
+    // checkpoint writes the flushed totals, then switches to a new log. Logs older than the
+    // checkpoint are deleted once it is in place; if that never happens they are replayed again.
+    synchronized void checkpoint() throws IOException {
+        long nextGeneration = logGeneration + 1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(nextGeneration);
+        out.writeInt(flushed.size());
+        for (Map.Entry<String, Rating> entry : flushed.entrySet()) {
+            writeRating(out, entry.getKey(), entry.getValue());
+        }
+        out.flush();
+
+        Path tmp = folder.resolve(checkpointFile + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = withChecksum(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        FileChannel nextLog = openLog(nextGeneration);
+        Files.move(tmp, folder.resolve(checkpointFile), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        if (log != null) {
+            log.close();
+        }
+        log = nextLog;
+        for (long generation : logGenerations()) {
+            if (generation < nextGeneration) {
+                Files.deleteIfExists(logPath(generation));
+            }
+        }
+        logGeneration = nextGeneration;
+        flushesSinceCheckpoint = 0;
+        checkpointCount.increment();
+    }
+
+    private void recover() throws IOException {
+        long firstGeneration = 0;
+        Path checkpoint = folder.resolve(checkpointFile);
+        if (Files.exists(checkpoint)) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    readChecked(Files.readAllBytes(checkpoint))));
+            firstGeneration = in.readLong();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String laptopID = in.readUTF();
+                flushed.put(laptopID, new Rating(in.readInt(), in.readDouble()));
+            }
+        }
+
+        int batches = 0;
+        for (long generation : logGenerations()) {
+            if (generation < firstGeneration) {
+                continue;
+            }
+            batches += replay(logPath(generation));
+            logGeneration = Math.max(logGeneration, generation);
+        }
+        logGeneration = Math.max(logGeneration, firstGeneration);
+
+        for (Map.Entry<String, Rating> entry : flushed.entrySet()) {
+            memory.Restore(entry.getKey(), entry.getValue());
+        }
+        logger.info("recovered ratings of " + flushed.size() + " laptops, replayed " + batches + " batches");
+
+        // start from a clean checkpoint, which also drops a torn batch at the end of the last log
+        checkpoint();
+    }
+
+    private int replay(Path path) throws IOException {
+        int batches = 0;
+        try (InputStream file = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    long crc = in.readLong();
+                    if (length < 0) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    if (checksum(payload) != crc) {
+                        logger.warning("corrupt batch in " + path + ", stop replay");
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+
+                DataInputStream batch = new DataInputStream(new ByteArrayInputStream(payload));
+                int n = batch.readInt();
+                for (int i = 0; i < n; i++) {
+                    String laptopID = batch.readUTF();
+                    flushed.merge(laptopID, new Rating(batch.readInt(), batch.readDouble()), Rating::add);
+                }
+                batches++;
+            }
+        }
+        return batches;
+    }
+
+    private static ByteBuffer encode(Map<String, Rating> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(batch.size());
+        for (Map.Entry<String, Rating> entry : batch.entrySet()) {
+            writeRating(out, entry.getKey(), entry.getValue());
+        }
+        out.flush();
+        return withChecksum(bytes.toByteArray());
+    }
+
+    private static void writeRating(DataOutputStream out, String laptopID, Rating rating) throws IOException {
+        out.writeUTF(laptopID);
+        out.writeInt(rating.getCount());
+        out.writeDouble(rating.getSum());
+    }
+
+    // withChecksum frames a payload as length, CRC32, payload
+    private static ByteBuffer withChecksum(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putLong(checksum(payload));
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] readChecked(byte[] framed) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(framed);
+        if (buffer.remaining() < 12) {
+            throw new IOException("checkpoint is truncated");
+        }
+        int length = buffer.getInt();
+        long crc = buffer.getLong();
+        if (length != buffer.remaining()) {
+            throw new IOException("checkpoint is truncated");
+        }
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        if (checksum(payload) != crc) {
+            throw new IOException("checkpoint is corrupt");
+        }
+        return payload;
+    }
+
+    private static long checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return crc.getValue();
+    }
+
+    private FileChannel openLog(long generation) throws IOException {
+        return FileChannel.open(logPath(generation), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private Path logPath(long generation) {
+        return folder.resolve(logPrefix + generation + logSuffix);
+    }
+
+    private List<Long> logGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, logPrefix + "*" + logSuffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(
+                            name.substring(logPrefix.length(), name.length() - logSuffix.length())));
+                } catch (NumberFormatException e) {
+                    logger.warning("ignore unknown file " + file);
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // getDurabilityLagMillis returns how long the oldest rating not yet written has waited
+    public long getDurabilityLagMillis() {
+        long since = oldestPendingNanos.get();
+        return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    // getLastFlushLagMillis returns how long the oldest rating of the last batch waited to be written
+    public long getLastFlushLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastFlushLagNanos);
+    }
+
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+
+    public long getFlushedRecordCount() {
+        return flushedRecords.sum();
+    }
+
+    public long getFlushedBytes() {
+        return flushedBytes.sum();
+    }
+
+    // getFlushThroughput returns the records written per second of flushing
+    public double getFlushThroughput() {
+        long nanos = flushNanos.sum();
+        return nanos == 0 ? 0 : flushedRecords.sum() * 1e9 / nanos;
+    }
+
+    public long getCheckpointCount() {
+        return checkpointCount.sum();
+    }
+}
@@ -0,0 +1,126 @@
+package com.techschool.pcbook.service;
+
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DurableRatingStoreTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // flushes only happen when a test asks for them
+    private DurableRatingStore open(DurableRatingStore.FsyncPolicy fsyncPolicy) throws Exception {
+        return new DurableRatingStore(folder.getRoot().getPath(), 1, TimeUnit.HOURS, fsyncPolicy, 3);
+    }
+
+    private static RatingLeaderboard.Entry find(RatingStore store, String laptopID) {
+        List<RatingLeaderboard.Entry> top = store.Leaderboard().Top(1, laptopID::equals);
+        return top.isEmpty() ? null : top.get(0);
+    }
+
+    @Test
+    public void recoversFlushedRatings() throws Exception {
+        DurableRatingStore store = open(DurableRatingStore.FsyncPolicy.EVERY_FLUSH);
+        store.Add("a", 8);
+        store.Add("a", 6);
+        store.Add("b", 5);
+        assertEquals(2, store.getPendingCount());
+
+        store.flush();
+        assertEquals(0, store.getPendingCount());
+        assertEquals(1, store.getFlushCount());
+        assertEquals(2, store.getFlushedRecordCount());
+        assertTrue(store.getFlushedBytes() > 0);
+
+        // not flushed before the crash
+        store.Add("b", 10);
+
+        DurableRatingStore recovered = open(DurableRatingStore.FsyncPolicy.EVERY_FLUSH);
+        assertEquals(2, find(recovered, "a").getCount());
+        assertEquals(7, find(recovered, "a").getAverage(), 1e-9);
+        assertEquals(1, find(recovered, "b").getCount());
+
+        // ratings continue from the recovered totals
+        Rating rating = recovered.Add("a", 10);
+        assertEquals(3, rating.getCount());
+        assertEquals(24, rating.getSum(), 1e-9);
+    }
+
+    @Test
+    public void replaysLogsAfterCheckpoint() throws Exception {
+        DurableRatingStore store = open(DurableRatingStore.FsyncPolicy.CHECKPOINT_ONLY);
+        store.Add("a", 4);
+        store.flush();
+        store.checkpoint();
+        store.Add("a", 6);
+        store.flush();
+        store.Add("c", 9);
+        store.flush();
+
+        DurableRatingStore recovered = open(DurableRatingStore.FsyncPolicy.CHECKPOINT_ONLY);
+        assertEquals(2, find(recovered, "a").getCount());
+        assertEquals(5, find(recovered, "a").getAverage(), 1e-9);
+        assertEquals(1, find(recovered, "c").getCount());
+
+        // recovery leaves one checkpoint and one empty log
+        File[] logs = folder.getRoot().listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, logs.length);
+        assertEquals(0, logs[0].length());
+    }
+
+    @Test
+    public void stopsReplayAtTornBatch() throws Exception {
+        DurableRatingStore store = open(DurableRatingStore.FsyncPolicy.EVERY_FLUSH);
+        store.Add("a", 4);
+        store.flush();
+        store.Add("a", 8);
+        store.flush();
+
+        // cut the last batch in half, as a crash in the middle of a write would
+        File log = folder.getRoot().listFiles((dir, name) -> name.endsWith(".log"))[0];
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        DurableRatingStore recovered = open(DurableRatingStore.FsyncPolicy.EVERY_FLUSH);
+        assertEquals(1, find(recovered, "a").getCount());
+        assertEquals(4, find(recovered, "a").getAverage(), 1e-9);
+    }
+
+    @Test
+    public void closeFlushesPendingRatings() throws Exception {
+        DurableRatingStore store = open(DurableRatingStore.FsyncPolicy.EVERY_FLUSH);
+        store.Add("a", 9);
+        assertTrue(store.getDurabilityLagMillis() >= 0);
+        store.close();
+        assertEquals(0, store.getDurabilityLagMillis());
+
+        DurableRatingStore recovered = open(DurableRatingStore.FsyncPolicy.EVERY_FLUSH);
+        assertEquals(1, find(recovered, "a").getCount());
+    }
+
+    @Test
+    public void serverStopClosesStore() throws Exception {
+        DurableRatingStore store = open(DurableRatingStore.FsyncPolicy.EVERY_FLUSH);
+        LaptopServer server = LaptopServer.inProcess(InProcessServerBuilder.generateName(), false,
+                new InMemoryLaptopStore(), new DiskImageStore(folder.newFolder().getPath()), store);
+        server.start();
+        store.Add("a", 9);
+
+        server.stop();
+        // a second stop, as from the shutdown hook, leaves the closed store alone
+        server.stop();
+        assertEquals(0, store.getDurabilityLagMillis());
+
+        DurableRatingStore recovered = open(DurableRatingStore.FsyncPolicy.EVERY_FLUSH);
+        assertEquals(1, find(recovered, "a").getCount());
+    }
+}
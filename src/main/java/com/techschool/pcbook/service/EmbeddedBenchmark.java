@@ -0,0 +1,101 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.GetLaptopRequest;
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.LaptopServiceGrpc;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// EmbeddedBenchmark calls GetLaptop over Netty on loopback, in process, and in process with
+// direct executors on both sides. It prints the latency of calls made one at a time and the
+// throughput of several threads calling at once.
+public class EmbeddedBenchmark {
+    private static final int port = 50076;
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        Logger.getLogger(LaptopService.class.getName()).setLevel(Level.WARNING);
+
+        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+        LaptopService service = new LaptopService(laptopStore, new DiskImageStore("tmp"), new InMemoryRatingStore());
+        GetLaptopRequest request = GetLaptopRequest.newBuilder().setId(laptop.getId()).build();
+
+        for (String mode : new String[]{"netty", "in-process", "in-process direct"}) {
+            Server server;
+            ManagedChannel channel;
+            if (mode.equals("netty")) {
+                server = NettyServerBuilder.forPort(port).addService(service).build().start();
+                channel = NettyChannelBuilder.forAddress("localhost", port).usePlaintext().build();
+            } else {
+                String name = InProcessServerBuilder.generateName();
+                InProcessServerBuilder serverBuilder = InProcessServerBuilder.forName(name).addService(service);
+                InProcessChannelBuilder channelBuilder = InProcessChannelBuilder.forName(name);
+                if (mode.endsWith("direct")) {
+                    serverBuilder.directExecutor();
+                    channelBuilder.directExecutor();
+                }
+                server = serverBuilder.build().start();
+                channel = channelBuilder.build();
+            }
+
+            try {
+                run(mode, LaptopServiceGrpc.newBlockingStub(channel), request, calls, threads);
+            } finally {
+                channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+                server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private static void run(String mode, LaptopServiceGrpc.LaptopServiceBlockingStub stub, GetLaptopRequest request,
+                            int calls, int threads) throws Exception {
+        // warm up
+        for (int i = 0; i < calls / 10; i++) {
+            stub.getLaptop(request);
+        }
+
+        long[] latencies = new long[calls];
+        for (int i = 0; i < calls; i++) {
+            long start = System.nanoTime();
+            stub.getLaptop(request);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        Future<?>[] futures = new Future<?>[threads];
+        for (int t = 0; t < threads; t++) {
+            futures[t] = executor.submit(() -> {
+                for (int i = 0; i < calls / threads; i++) {
+                    stub.getLaptop(request);
+                }
+            });
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        System.out.printf("%-18s p50: %7.1f us  p99: %7.1f us  %d threads: %9.0f calls/s%n", mode,
+                latencies[calls / 2] / 1e3, latencies[(int) (calls * 0.99)] / 1e3,
+                threads, (calls / threads) * threads / seconds);
+    }
+}
@@ -0,0 +1,52 @@
+package com.techschool.pcbook.service;
+
+import io.grpc.Codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// FastDeflateCodec is raw deflate at the fastest level. It compresses repetitive laptop
+// messages nearly as well as gzip for a fraction of the CPU.
+public class FastDeflateCodec implements Codec {
+    public static final String encoding = "deflate-fast";
+
+    @Override
+    public String getMessageEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream os) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        return new DeflaterOutputStream(os, deflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream is) throws IOException {
+        Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(is, inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,49 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.LaptopServiceGrpc;
+import com.techschool.pcbook.pb.SearchLaptopResponse;
+import com.techschool.pcbook.sample.Generator;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class FastDeflateCodecTest {
+
+    @Test
+    public void compressAndDecompress() throws Exception {
+        Generator generator = new Generator();
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            Laptop laptop = generator.NewLaptop();
+            SearchLaptopResponse.newBuilder().setLaptop(laptop).build().writeDelimitedTo(raw);
+        }
+
+        FastDeflateCodec codec = new FastDeflateCodec();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream os = codec.compress(compressed)) {
+            raw.writeTo(os);
+        }
+        assertTrue(compressed.size() < raw.size());
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try (InputStream is = codec.decompress(new ByteArrayInputStream(compressed.toByteArray()))) {
+            is.transferTo(decompressed);
+        }
+        assertArrayEquals(raw.toByteArray(), decompressed.toByteArray());
+    }
+
+    @Test
+    public void clientCompressionIsOptIn() {
+        String upload = LaptopServiceGrpc.getUploadImageMethod().getFullMethodName();
+        // a server may not know our codec, so requests are only compressed when asked for
+        assertNull(CompressionConfig.forClient().getCodec(upload));
+        assertEquals("gzip", CompressionConfig.forClient("gzip").getCodec(upload));
+        assertEquals(FastDeflateCodec.encoding, CompressionConfig.forClient(FastDeflateCodec.encoding).getCodec(upload));
+    }
+}
@@ -0,0 +1,89 @@
+package com.techschool.pcbook.service;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+// IdIndexBenchmark stores a rating for each of n random UUIDs, in a ConcurrentHashMap with String
+// keys and in a LaptopIdIndex, and reports the heap each takes and the lookups per second.
+// Every lookup uses a new copy of the ID, as a request parsed off the wire does, so
+// String.hashCode isn't cached. Run it in a fresh JVM with a fixed heap, e.g. -Xms4g -Xmx4g.
+public class IdIndexBenchmark {
+    private static final int rounds = 5;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+
+        String[] ids = new String[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = UUID.randomUUID().toString();
+        }
+        Rating rating = new Rating(1, 5);
+
+        // the keys are copies with their own bytes, the map owns them as the rating store does
+        long before = usedHeap();
+        ConcurrentMap<String, Rating> map = new ConcurrentHashMap<>();
+        for (String id : ids) {
+            map.put(new String(id.toCharArray()), rating);
+        }
+        long mapBytes = usedHeap() - before;
+        double mapRate = lookupRate(map::get, ids, lookups);
+        map = null;
+
+        before = usedHeap();
+        LaptopIdIndex<Rating> index = new LaptopIdIndex<>();
+        for (String id : ids) {
+            index.putIfAbsent(id, rating);
+        }
+        long indexBytes = usedHeap() - before;
+        double indexRate = lookupRate(index::get, ids, lookups);
+
+        System.out.printf("%d IDs%n", n);
+        System.out.printf("  ConcurrentHashMap: %7.1f MB %6.1f bytes/ID %12.0f lookups/s%n",
+                mapBytes / 1e6, (double) mapBytes / n, mapRate);
+        System.out.printf("  LaptopIdIndex:     %7.1f MB %6.1f bytes/ID %12.0f lookups/s (table: %.1f MB)%n",
+                indexBytes / 1e6, (double) indexBytes / n, indexRate, index.getTableBytes() / 1e6);
+        System.out.printf("  saved per million: %.1f MB%n", (mapBytes - indexBytes) / 1e6 * 1000000 / n);
+    }
+
+    // lookupRate times rounds of lookups after a warm up round. The IDs of a round are fresh copies
+    // made in the order they are looked up, so reading them is cheap and the cost measured is
+    // hashing or parsing them and probing the map or the index.
+    private static double lookupRate(Function<String, Rating> get, String[] ids, int lookups) {
+        Random random = new Random(42);
+        String[] requests = new String[lookups];
+        double seconds = 0;
+        for (int round = 0; round <= rounds; round++) {
+            for (int i = 0; i < lookups; i++) {
+                requests[i] = new String(ids[random.nextInt(ids.length)].toCharArray());
+            }
+
+            long start = System.nanoTime();
+            long found = 0;
+            for (String id : requests) {
+                if (get.apply(id) != null) {
+                    found++;
+                }
+            }
+            if (round > 0) {
+                seconds += (System.nanoTime() - start) / 1e9;
+            }
+            if (found != lookups) {
+                throw new IllegalStateException("found " + found + " of " + lookups);
+            }
+        }
+        return (double) lookups * rounds / seconds;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,48 @@
+package com.techschool.pcbook.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+// ImageLayoutBenchmark saves n tiny images with the flat and the sharded layout of DiskImageStore,
+// printing the save latency as the folder fills up, then the latency of opening random images.
+// The first argument is n, the second the folder to write to (a fresh temp folder by default).
+public class ImageLayoutBenchmark {
+    private static final int reportEvery = 100000;
+    private static final int lookups = 100000;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String root = args.length > 1 ? args[1] : Files.createTempDirectory("pcbook-layout").toString();
+
+        for (boolean sharded : new boolean[]{false, true}) {
+            String folder = root + (sharded ? "/sharded" : "/flat");
+            run(new DiskImageStore(folder, null, sharded), sharded ? "sharded" : "flat", n);
+        }
+    }
+
+    private static void run(DiskImageStore store, String layout, int n) throws Exception {
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        image.write(new byte[16]);
+
+        String[] ids = new String[n];
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            ids[i] = store.Save("laptop", ".jpg", image);
+            if ((i + 1) % reportEvery == 0) {
+                long now = System.nanoTime();
+                System.out.printf("%-8s files: %8d save: %7.1f us%n", layout, i + 1, (now - start) / 1e3 / reportEvery);
+                start = now;
+            }
+        }
+
+        Random random = new Random(42);
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            String path = store.Find(ids[random.nextInt(n)]).getPath();
+            Files.readAllBytes(Paths.get(path));
+        }
+        System.out.printf("%-8s files: %8d open and read: %7.1f us%n", layout, n, (System.nanoTime() - start) / 1e3 / lookups);
+    }
+}
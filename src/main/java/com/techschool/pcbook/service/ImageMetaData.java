@@ -1,9 +1,14 @@
 package com.techschool.pcbook.service;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public class ImageMetaData {
     private String laptopID;
     private String type;
     private String path;
+    // resized copies, added by ThumbnailPipeline after the image is saved
+    private List<ImageVariant> variants = new CopyOnWriteArrayList<>();
 
     public ImageMetaData(String laptopID, String type, String path) {
         this.laptopID = laptopID;
@@ -22,4 +27,12 @@ public class ImageMetaData {
     public String getType() {
         return type;
     }
+
+    public List<ImageVariant> getVariants() {
+        return variants;
+    }
+
+    public void addVariant(ImageVariant variant) {
+        variants.add(variant);
+    }
 }
@@ -2,7 +2,27 @@ package com.techschool.pcbook.service;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 public interface ImageStore {
     String Save(String laptopID, String imageType, ByteArrayOutputStream imageData) throws IOException;
+
+    // SaveAsync completes with the image ID once the image is stored. Stores that can't write
+    // without blocking keep this default, which saves on the calling thread.
+    default CompletableFuture<String> SaveAsync(String laptopID, String imageType, ByteArrayOutputStream imageData) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            future.complete(Save(laptopID, imageType, imageData));
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // SaveFile takes over a file already on disk, like a finished resumable upload.
+    // Files can be far larger than memory, so stores that can't move them refuse.
+    default String SaveFile(String laptopID, String imageType, Path file) throws IOException {
+        throw new IOException("this image store cannot save files");
+    }
 }
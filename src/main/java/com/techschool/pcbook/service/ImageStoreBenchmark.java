@@ -0,0 +1,165 @@
+package com.techschool.pcbook.service;
+
+import com.google.protobuf.ByteString;
+import com.techschool.pcbook.pb.*;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ImageStoreBenchmark uploads images concurrently to a server with a throttled disk, once saving
+// on the gRPC thread and once with DiskImageStore.SaveAsync. It reports the upload throughput and
+// the latency of GetLaptop calls made during the uploads, which is where a blocked thread shows.
+//
+// The disk is throttled by delaying every task of the store's I/O executor by diskDelayMillis.
+public class ImageStoreBenchmark {
+    private static final int port = 50072;
+    private static final int imageSize = 256 * 1024;
+    private static final int chunkSize = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int uploads = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        long diskDelayMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+
+        for (boolean async : new boolean[]{false, true}) {
+            run(async, uploads, concurrency, diskDelayMillis);
+        }
+    }
+
+    private static void run(boolean async, int uploads, int concurrency, long diskDelayMillis) throws Exception {
+        ExecutorService disk = throttledExecutor(2, diskDelayMillis);
+        DiskImageStore diskStore = new DiskImageStore(
+                Files.createTempDirectory("pcbook-images").toString(), disk);
+        // a store without SaveAsync of its own gets the default, which saves on the calling thread
+        ImageStore blockingStore = (laptopID, imageType, imageData) -> {
+            try {
+                return diskStore.SaveAsync(laptopID, imageType, imageData).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        };
+
+        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+
+        ExecutorService serverExecutor = Executors.newFixedThreadPool(4);
+        Server server = NettyServerBuilder.forPort(port)
+                .executor(serverExecutor)
+                .addService(new LaptopService(laptopStore, async ? diskStore : blockingStore, new InMemoryRatingStore()))
+                .build()
+                .start();
+        ManagedChannel channel = NettyChannelBuilder.forAddress("localhost", port).usePlaintext().build();
+
+        try {
+            byte[] image = new byte[imageSize];
+            ThreadLocalRandom.current().nextBytes(image);
+
+            CountDownLatch done = new CountDownLatch(uploads);
+            AtomicLong failures = new AtomicLong();
+            Semaphore inFlight = new Semaphore(concurrency);
+            LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(channel);
+
+            // probe the cheap RPC while the uploads run
+            long[] probes = new long[100000];
+            int[] probeCount = new int[1];
+            Thread prober = new Thread(() -> {
+                LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+                GetLaptopRequest request = GetLaptopRequest.newBuilder().setId(laptop.getId()).build();
+                while (done.getCount() > 0 && probeCount[0] < probes.length) {
+                    long start = System.nanoTime();
+                    blockingStub.getLaptop(request);
+                    probes[probeCount[0]++] = System.nanoTime() - start;
+                }
+            });
+
+            long start = System.nanoTime();
+            prober.start();
+            for (int i = 0; i < uploads; i++) {
+                inFlight.acquire();
+                upload(stub, laptop.getId(), image, () -> {
+                    inFlight.release();
+                    done.countDown();
+                }, failures);
+            }
+            done.await();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            prober.join();
+
+            long[] latencies = Arrays.copyOf(probes, probeCount[0]);
+            Arrays.sort(latencies);
+            System.out.printf("%s save: %6.1f uploads/s %6.1f MB/s failed: %d  GetLaptop p50: %6.2f ms p99: %7.2f ms max: %7.2f ms%n",
+                    async ? "async   " : "blocking",
+                    uploads / seconds, uploads * (double) imageSize / (1 << 20) / seconds, failures.get(),
+                    percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 1));
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            serverExecutor.shutdownNow();
+            disk.shutdownNow();
+        }
+    }
+
+    private static void upload(LaptopServiceGrpc.LaptopServiceStub stub, String laptopID, byte[] image,
+                               Runnable onDone, AtomicLong failures) {
+        StreamObserver<UploadImageRequest> requestObserver = stub.uploadImage(new StreamObserver<UploadImageResponse>() {
+            @Override
+            public void onNext(UploadImageResponse response) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                failures.incrementAndGet();
+                onDone.run();
+            }
+
+            @Override
+            public void onCompleted() {
+                onDone.run();
+            }
+        });
+
+        requestObserver.onNext(UploadImageRequest.newBuilder()
+                .setInfo(ImageInfo.newBuilder().setLaptopId(laptopID).setImageType(".bin"))
+                .build());
+        for (int offset = 0; offset < image.length; offset += chunkSize) {
+            requestObserver.onNext(UploadImageRequest.newBuilder()
+                    .setChunkData(ByteString.copyFrom(image, offset, Math.min(chunkSize, image.length - offset)))
+                    .build());
+        }
+        requestObserver.onCompleted();
+    }
+
+    private static ExecutorService throttledExecutor(int threads, long delayMillis) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    t.interrupt();
+                }
+            }
+        };
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int idx = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, idx)] / 1e6;
+    }
+}
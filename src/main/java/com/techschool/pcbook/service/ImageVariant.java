@@ -0,0 +1,31 @@
+package com.techschool.pcbook.service;
+
+public class ImageVariant {
+    private String name;
+    private int width;
+    private int height;
+    private String path;
+
+    public ImageVariant(String name, int width, int height, String path) {
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.path = path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public String getPath() {
+        return path;
+    }
+}
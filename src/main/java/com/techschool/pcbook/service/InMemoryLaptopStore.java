@@ -2,45 +2,39 @@ package com.techschool.pcbook.service;
 
 import com.techschool.pcbook.pb.Laptop;
 import com.techschool.pcbook.pb.LaptopFilter;
-import com.techschool.pcbook.pb.Memory;
+import com.techschool.pcbook.pb.NameSuggestion;
 
 import io.grpc.Context;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 public class InMemoryLaptopStore  implements  LaptopStore {
     private static final Logger logger = Logger.getLogger(InMemoryLaptopStore.class.getName());
-    private ConcurrentMap<String, Laptop> data;
+    private LaptopIdIndex<Laptop> data;
 
     public InMemoryLaptopStore() {
-        data = new ConcurrentHashMap<>(0);
+        data = new LaptopIdIndex<>();
     }
 
     @Override
     public void Save(Laptop laptop) throws Exception {
-        if (data.containsKey(laptop.getId())) {
+        // messages are immutable, no copy is needed
+        if (data.putIfAbsent(laptop.getId(), laptop) != null) {
             throw new AlreadyExistException("laptop already exists.");
         }
-
-        // deep copy
-        Laptop other = laptop.toBuilder().build();
-        data.put(other.getId(), other);
     }
 
     @Override
     public Laptop Find(String id) {
-        if (!data.containsKey(id)) {
-            return null;
-        }
         return data.get(id);
     }
 
     @Override
     public void Search(Context ctx, LaptopFilter filter, LaptopStream stream) {
-        for (Map.Entry<String, Laptop> entry: data.entrySet()) {
+        LaptopMatcher matcher = LaptopMatcher.compile(filter);
+        for (Iterator<Laptop> it = data.values().iterator(); it.hasNext(); ) {
             if (ctx.isCancelled()) {
                 logger.info("context is cancelled");
                 return;
@@ -51,47 +45,28 @@ public class InMemoryLaptopStore  implements  LaptopStore {
 //            } catch (InterruptedException e)  {
 //                e.printStackTrace();
 //            }
-            Laptop laptop = entry.getValue();
-            if (isQualified(filter, laptop)) {
-                stream.Send(laptop.toBuilder().build());
+            Laptop laptop = it.next();
+            if (matcher.matches(laptop)) {
+                stream.Send(laptop);
             }
         }
     }
 
-    private boolean isQualified(LaptopFilter filter, Laptop laptop) {
-        if (laptop.getPriceUsd() > filter.getMaxPriceUsd()) {
-            return false;
-        }
-        if (laptop.getCpu().getNumCores() < filter.getMinCpuCores()) {
-            return false;
-        }
-        if (laptop.getCpu().getMinGhz() < filter.getMinCpuGhz()) {
-            return false;
-        }
-        if (toBit(laptop.getRam()) < toBit(filter.getMinRam())) {
-            return false;
-        }
-
-        return true;
+    @Override
+    public List<NameSuggestion> Suggest(String prefix, int limit) {
+        return LaptopNameIndex.scanSuggest(this, prefix, limit);
     }
 
-    private long toBit(Memory ram) {
-        long value = ram.getValue();
-        switch (ram.getUnit()) {
-            case BIT:
-                return  value;
-            case BYTE:
-                return value << 3; // 8 bits = 2^3 BIT
-            case KILLOBYTE:
-                return value << 13; // 8 * 1024 = 2^13 BIT
-            case MEGABYTE:
-                return value << 23; // 8 * 1024 * 1024 = 2^23 BIT
-            case GIGABYTE:
-                return value << 33; // 8 * 1024 * 1024 * 1024 = 2^33 BIT
-            case TERABYTE:
-                return value << 43; // 8 * 1024 * 1024 * 1024 * 1024 = 2^43 BIT
-            default:
-                return 0;
-        }
+    @Override
+    public LaptopAggregation Aggregate(Context ctx, LaptopFilter filter, LaptopAggregation aggregation) {
+        LaptopMatcher matcher = LaptopMatcher.compile(filter);
+
+        // every fork-join worker fills its own partial, the partials are merged at the end
+        LaptopAggregation result = data.values().parallel()
+                .filter(laptop -> !ctx.isCancelled() && matcher.matches(laptop))
+                .collect(aggregation::empty, LaptopAggregation::add, LaptopAggregation::merge);
+
+        aggregation.merge(result);
+        return aggregation;
     }
 }
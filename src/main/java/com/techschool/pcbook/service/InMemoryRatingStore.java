@@ -1,17 +1,38 @@
 package com.techschool.pcbook.service;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-
 public class InMemoryRatingStore implements RatingStore {
-    private ConcurrentMap<String, Rating> data;
+    private LaptopIdIndex<Rating> data;
+    private RatingLeaderboard leaderboard;
 
     public InMemoryRatingStore() {
-        data = new ConcurrentHashMap<>();
+        data = new LaptopIdIndex<>();
+        leaderboard = new RatingLeaderboard();
     }
 
     @Override
     public Rating Add(String laptopID, double score) {
-        return data.merge(laptopID, new Rating(1, score), Rating::add);
+        // compute holds the laptop's segment, so its leaderboard updates don't interleave
+        Rating rating = data.compute(laptopID, (id, previous) -> {
+            Rating current = previous == null ? new Rating(1, score) : Rating.add(previous, new Rating(1, score));
+            leaderboard.Update(id, previous, current);
+            return current;
+        });
+        // the watches run outside the entry's lock
+        leaderboard.Publish(laptopID, rating);
+        return rating;
+    }
+
+    // Restore sets the total rating of a laptop, used to load ratings kept elsewhere
+    void Restore(String laptopID, Rating rating) {
+        data.compute(laptopID, (id, previous) -> {
+            leaderboard.Update(id, previous, rating);
+            return rating;
+        });
+        leaderboard.Publish(laptopID, rating);
+    }
+
+    @Override
+    public RatingLeaderboard Leaderboard() {
+        return leaderboard;
     }
 }
@@ -0,0 +1,270 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.*;
+import io.grpc.Context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+// IndexedLaptopStore gives every laptop a dense ordinal and keeps a bitmap of ordinals
+// per value of the low-cardinality attributes. Set and equality predicates are answered
+// by bitmap OR/AND, and the full matcher only runs on the ordinals that survive.
+//
+// Saves are serialized. Searches and finds never lock: a laptop becomes visible once
+// the volatile size is bumped, after its slot and index bits are written.
+public class IndexedLaptopStore implements LaptopStore {
+    private static final Logger logger = Logger.getLogger(IndexedLaptopStore.class.getName());
+
+    private final ConcurrentMap<String, Integer> ordinals;
+    private volatile Laptop[] laptops;
+    private volatile int size;
+
+    private final BitmapIndex<String> brandIndex = new BitmapIndex<>();
+    private final BitmapIndex<String> cpuBrandIndex = new BitmapIndex<>();
+    private final BitmapIndex<String> gpuBrandIndex = new BitmapIndex<>();
+    private final BitmapIndex<Storage.Driver> storageDriverIndex = new BitmapIndex<>();
+    private final BitmapIndex<Keyboard.Layout> keyboardLayoutIndex = new BitmapIndex<>();
+    private final BitmapIndex<Screen.Panel> panelIndex = new BitmapIndex<>();
+    private final BitmapIndex<Boolean> backlitIndex = new BitmapIndex<>();
+    private final BitmapIndex<Boolean> multiTouchIndex = new BitmapIndex<>();
+    private final BitmapIndex<Integer> releaseYearIndex = new BitmapIndex<>();
+    private final LaptopNameIndex nameIndex = new LaptopNameIndex();
+
+    public IndexedLaptopStore() {
+        ordinals = new ConcurrentHashMap<>();
+        laptops = new Laptop[1024];
+    }
+
+    @Override
+    public synchronized void Save(Laptop laptop) throws Exception {
+        if (ordinals.containsKey(laptop.getId())) {
+            throw new AlreadyExistException("laptop already exists.");
+        }
+
+        int ordinal = size;
+        Laptop[] current = laptops;
+        if (ordinal == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            laptops = current;
+        }
+        // messages are immutable, the laptop is kept without a copy
+        current[ordinal] = laptop;
+
+        brandIndex.add(laptop.getBrand(), ordinal);
+        cpuBrandIndex.add(laptop.getCpu().getBrand(), ordinal);
+        for (GPU gpu : laptop.getGpuList()) {
+            gpuBrandIndex.add(gpu.getBrand(), ordinal);
+        }
+        for (Storage storage : laptop.getStorageList()) {
+            storageDriverIndex.add(storage.getDriver(), ordinal);
+        }
+        keyboardLayoutIndex.add(laptop.getKeyboard().getLayout(), ordinal);
+        panelIndex.add(laptop.getScreen().getPanel(), ordinal);
+        backlitIndex.add(laptop.getKeyboard().getBacklit(), ordinal);
+        multiTouchIndex.add(laptop.getScreen().getMultiTouch(), ordinal);
+        releaseYearIndex.add(laptop.getReleaseYear(), ordinal);
+        nameIndex.add(laptop, ordinal);
+
+        ordinals.put(laptop.getId(), ordinal);
+        size = ordinal + 1;
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        Integer ordinal = ordinals.get(id);
+        if (ordinal == null) {
+            return null;
+        }
+        return laptops[ordinal];
+    }
+
+    @Override
+    public void Search(Context ctx, LaptopFilter filter, LaptopStream stream) {
+        int n = size;
+        Laptop[] current = laptops;
+        LaptopMatcher matcher = LaptopMatcher.compile(filter);
+
+        RoaringBitmap candidates = candidates(filter);
+        if (candidates == null) {
+            for (int ordinal = 0; ordinal < n; ordinal++) {
+                if (ctx.isCancelled()) {
+                    logger.info("context is cancelled");
+                    return;
+                }
+                if (matcher.matches(current[ordinal])) {
+                    stream.Send(current[ordinal]);
+                }
+            }
+            return;
+        }
+
+        candidates.forEachWhile(ordinal -> {
+            // ordinals at or past the snapshot belong to laptops saved during this search
+            if (ordinal >= n) {
+                return false;
+            }
+            if (ctx.isCancelled()) {
+                logger.info("context is cancelled");
+                return false;
+            }
+            if (matcher.matches(current[ordinal])) {
+                stream.Send(current[ordinal]);
+            }
+            return true;
+        });
+    }
+
+    // candidates intersects the bitmaps of every indexed predicate in the filter,
+    // or returns null if the filter has none and every laptop must be checked.
+    private RoaringBitmap candidates(LaptopFilter filter) {
+        List<RoaringBitmap> bitmaps = new ArrayList<>();
+
+        if (filter.getBrandsCount() > 0) {
+            bitmaps.add(brandIndex.union(filter.getBrandsList()));
+        }
+        if (filter.getCpuBrandsCount() > 0) {
+            bitmaps.add(cpuBrandIndex.union(filter.getCpuBrandsList()));
+        }
+        if (filter.getGpuBrandsCount() > 0) {
+            bitmaps.add(gpuBrandIndex.union(filter.getGpuBrandsList()));
+        }
+        if (filter.getStorageDriversCount() > 0) {
+            bitmaps.add(storageDriverIndex.union(filter.getStorageDriversList()));
+        }
+        if (filter.getKeyboardLayoutsCount() > 0) {
+            bitmaps.add(keyboardLayoutIndex.union(filter.getKeyboardLayoutsList()));
+        }
+        if (filter.getPanelsCount() > 0) {
+            bitmaps.add(panelIndex.union(filter.getPanelsList()));
+        }
+        if (filter.hasBacklit()) {
+            bitmaps.add(backlitIndex.get(filter.getBacklit()));
+        }
+        if (filter.hasMultiTouch()) {
+            bitmaps.add(multiTouchIndex.get(filter.getMultiTouch()));
+        }
+        if (filter.getMinReleaseYear() > 0 || filter.getMaxReleaseYear() > 0) {
+            int minYear = filter.getMinReleaseYear();
+            int maxYear = filter.getMaxReleaseYear() > 0 ? filter.getMaxReleaseYear() : Integer.MAX_VALUE;
+            List<Integer> years = new ArrayList<>();
+            for (Integer year : releaseYearIndex.keys()) {
+                if (year >= minYear && year <= maxYear) {
+                    years.add(year);
+                }
+            }
+            bitmaps.add(releaseYearIndex.union(years));
+        }
+
+        RoaringBitmap names = nameIndex.match(filter.getNameQuery());
+        if (names != null) {
+            bitmaps.add(names);
+        }
+
+        if (bitmaps.isEmpty()) {
+            return null;
+        }
+
+        // intersect the smallest bitmaps first so intermediate results stay small
+        bitmaps.sort((a, b) -> Integer.compare(a.cardinality(), b.cardinality()));
+        RoaringBitmap result = bitmaps.get(0);
+        for (int i = 1; i < bitmaps.size(); i++) {
+            result = RoaringBitmap.and(result, bitmaps.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    public LaptopAggregation Aggregate(Context ctx, LaptopFilter filter, LaptopAggregation aggregation) {
+        int n = size;
+        Laptop[] current = laptops;
+        LaptopMatcher matcher = LaptopMatcher.compile(filter);
+
+        IntStream ordinals;
+        RoaringBitmap candidates = candidates(filter);
+        if (candidates == null) {
+            ordinals = IntStream.range(0, n);
+        } else {
+            IntStream.Builder builder = IntStream.builder();
+            candidates.forEachWhile(ordinal -> {
+                if (ordinal >= n) {
+                    return false;
+                }
+                builder.add(ordinal);
+                return true;
+            });
+            ordinals = builder.build();
+        }
+
+        // every fork-join worker fills its own partial, the partials are merged at the end
+        LaptopAggregation result = ordinals.parallel()
+                .filter(ordinal -> !ctx.isCancelled() && matcher.matches(current[ordinal]))
+                .collect(aggregation::empty, (partial, ordinal) -> partial.add(current[ordinal]), LaptopAggregation::merge);
+
+        aggregation.merge(result);
+        return aggregation;
+    }
+
+    @Override
+    public List<NameSuggestion> Suggest(String prefix, int limit) {
+        return nameIndex.suggest(prefix, limit);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // getIndexSizeInBytes estimates the heap used by all bitmap indexes
+    public long getIndexSizeInBytes() {
+        return brandIndex.getSizeInBytes()
+                + cpuBrandIndex.getSizeInBytes()
+                + gpuBrandIndex.getSizeInBytes()
+                + storageDriverIndex.getSizeInBytes()
+                + keyboardLayoutIndex.getSizeInBytes()
+                + panelIndex.getSizeInBytes()
+                + backlitIndex.getSizeInBytes()
+                + multiTouchIndex.getSizeInBytes()
+                + releaseYearIndex.getSizeInBytes();
+    }
+
+    private static class BitmapIndex<K> {
+        private final ConcurrentMap<K, RoaringBitmap> bitmaps = new ConcurrentHashMap<>();
+
+        private void add(K key, int ordinal) {
+            bitmaps.computeIfAbsent(key, k -> new RoaringBitmap()).add(ordinal);
+        }
+
+        private RoaringBitmap get(K key) {
+            RoaringBitmap bitmap = bitmaps.get(key);
+            return bitmap == null ? new RoaringBitmap() : bitmap;
+        }
+
+        private RoaringBitmap union(Iterable<K> keys) {
+            RoaringBitmap result = new RoaringBitmap();
+            for (K key : keys) {
+                RoaringBitmap bitmap = bitmaps.get(key);
+                if (bitmap != null) {
+                    result = RoaringBitmap.or(result, bitmap);
+                }
+            }
+            return result;
+        }
+
+        private Iterable<K> keys() {
+            return bitmaps.keySet();
+        }
+
+        private long getSizeInBytes() {
+            long size = 0;
+            for (Map.Entry<K, RoaringBitmap> entry : bitmaps.entrySet()) {
+                size += entry.getValue().getSizeInBytes();
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.*;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.Context;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class IndexedLaptopStoreTest {
+
+    @Test
+    public void searchMatchesFullScan() throws Exception {
+        IndexedLaptopStore indexedStore = new IndexedLaptopStore();
+        InMemoryLaptopStore scanStore = new InMemoryLaptopStore();
+
+        // enough laptops for the common values to switch to bitmap containers
+        Generator generator = new Generator();
+        for (int i = 0; i < 20000; i++) {
+            Laptop laptop = generator.NewLaptop();
+            indexedStore.Save(laptop);
+            scanStore.Save(laptop);
+        }
+
+        LaptopFilter[] filters = {
+                LaptopFilter.newBuilder().setMaxPriceUsd(3000).build(),
+                LaptopFilter.newBuilder().setMaxPriceUsd(3000).addBrands("Apple").addBrands("Dell").build(),
+                LaptopFilter.newBuilder().setMaxPriceUsd(3500)
+                        .addPanels(Screen.Panel.OLED)
+                        .addKeyboardLayouts(Keyboard.Layout.QWERTY)
+                        .setBacklit(true)
+                        .build(),
+                LaptopFilter.newBuilder().setMaxPriceUsd(3500)
+                        .addCpuBrands("AMD")
+                        .addGpuBrands("NVIDIA")
+                        .addStorageDrivers(Storage.Driver.SSD)
+                        .setMultiTouch(false)
+                        .setMinReleaseYear(2017)
+                        .setMaxReleaseYear(2019)
+                        .setMinCpuCores(4)
+                        .build(),
+                LaptopFilter.newBuilder().setMaxPriceUsd(3500).addBrands("Unknown").build(),
+                LaptopFilter.newBuilder().setMaxPriceUsd(3500).setNameQuery("macbook pro").build(),
+                LaptopFilter.newBuilder().setMaxPriceUsd(3500).setNameQuery("XPS 1").addGpuBrands("NVIDIA").build(),
+                LaptopFilter.newBuilder().setMaxPriceUsd(3500).setNameQuery("ryz").build(),
+        };
+
+        for (LaptopFilter filter : filters) {
+            Set<String> indexed = new HashSet<>();
+            indexedStore.Search(Context.current(), filter, laptop -> indexed.add(laptop.getId()));
+
+            Set<String> scanned = new HashSet<>();
+            scanStore.Search(Context.current(), filter, laptop -> scanned.add(laptop.getId()));
+
+            assertEquals(scanned, indexed);
+        }
+    }
+
+    @Test
+    public void suggest() throws Exception {
+        IndexedLaptopStore store = new IndexedLaptopStore();
+        Generator generator = new Generator();
+        for (int i = 0; i < 1000; i++) {
+            store.Save(generator.NewLaptop());
+        }
+
+        List<NameSuggestion> suggestions = store.Suggest("Thinkpad X1 Ca", 5);
+        assertEquals(1, suggestions.size());
+        assertEquals("carbon", suggestions.get(0).getTerm());
+
+        suggestions = store.Suggest("macbook", 5);
+        assertEquals(1, suggestions.size());
+        assertTrue(suggestions.get(0).getCount() > 0);
+
+        suggestions = store.Suggest("GTX 10", 3);
+        assertEquals(3, suggestions.size());
+        for (int i = 1; i < suggestions.size(); i++) {
+            assertTrue(suggestions.get(i - 1).getCount() >= suggestions.get(i).getCount());
+        }
+    }
+
+    @Test
+    public void find() throws Exception {
+        IndexedLaptopStore store = new IndexedLaptopStore();
+        Laptop laptop = new Generator().NewLaptop();
+        store.Save(laptop);
+
+        assertEquals(laptop, store.Find(laptop.getId()));
+        assertNull(store.Find("unknown"));
+    }
+}
@@ -0,0 +1,159 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.AggregateLaptopsRequest.Facet;
+import com.techschool.pcbook.pb.AggregateLaptopsResponse;
+import com.techschool.pcbook.pb.Laptop;
+
+import java.util.*;
+
+// LaptopAggregation accumulates counts, price stats, facet counts and a price histogram.
+// It is not thread-safe: each worker fills its own partial and the partials are merged.
+public class LaptopAggregation {
+    private static final double defaultBucketUsd = 250;
+    // a histogram has a bucket per width of the price range, so the width is chosen by the client
+    // but bounded: 10 USD keeps a laptop catalog to a few thousand buckets
+    static final double minBucketUsd = 10;
+
+    private final List<Facet> facets;
+    private final double bucketUsd;
+
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private final Map<Facet, Map<String, Long>> facetCounts = new EnumMap<>(Facet.class);
+    private final Map<Long, Long> histogram = new HashMap<>();
+
+    // bucketUsd is the width of the price histogram buckets, 0 for the default
+    public LaptopAggregation(List<Facet> facets, double bucketUsd) {
+        if (bucketUsd != 0 && !(bucketUsd >= minBucketUsd && bucketUsd < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("price bucket must be at least " + minBucketUsd + " USD");
+        }
+        this.facets = facets;
+        this.bucketUsd = bucketUsd > 0 ? bucketUsd : defaultBucketUsd;
+        for (Facet facet : facets) {
+            if (facet != Facet.UNKNOWN && facet != Facet.UNRECOGNIZED) {
+                facetCounts.put(facet, new HashMap<>());
+            }
+        }
+    }
+
+    // empty returns a new partial with the same facets and bucket width
+    public LaptopAggregation empty() {
+        return new LaptopAggregation(facets, bucketUsd);
+    }
+
+    public void add(Laptop laptop) {
+        double price = laptop.getPriceUsd();
+        count++;
+        sum += price;
+        min = Math.min(min, price);
+        max = Math.max(max, price);
+        histogram.merge((long) Math.floor(price / bucketUsd), 1L, Long::sum);
+
+        for (Map.Entry<Facet, Map<String, Long>> entry : facetCounts.entrySet()) {
+            entry.getValue().merge(facetKey(entry.getKey(), laptop), 1L, Long::sum);
+        }
+    }
+
+    public void merge(LaptopAggregation other) {
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        for (Map.Entry<Long, Long> entry : other.histogram.entrySet()) {
+            histogram.merge(entry.getKey(), entry.getValue(), Long::sum);
+        }
+        for (Map.Entry<Facet, Map<String, Long>> entry : other.facetCounts.entrySet()) {
+            Map<String, Long> counts = facetCounts.computeIfAbsent(entry.getKey(), k -> new HashMap<>());
+            for (Map.Entry<String, Long> bucket : entry.getValue().entrySet()) {
+                counts.merge(bucket.getKey(), bucket.getValue(), Long::sum);
+            }
+        }
+    }
+
+    public List<Facet> getFacets() {
+        return facets;
+    }
+
+    public double getBucketUsd() {
+        return bucketUsd;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public AggregateLaptopsResponse toResponse() {
+        AggregateLaptopsResponse.Builder builder = AggregateLaptopsResponse.newBuilder().setCount(count);
+        if (count > 0) {
+            builder.setMinPriceUsd(min)
+                    .setMaxPriceUsd(max)
+                    .setAvgPriceUsd(sum / count);
+        }
+
+        for (Map.Entry<Facet, Map<String, Long>> entry : facetCounts.entrySet()) {
+            AggregateLaptopsResponse.FacetCounts.Builder facet = AggregateLaptopsResponse.FacetCounts.newBuilder()
+                    .setFacet(entry.getKey());
+            List<Map.Entry<String, Long>> buckets = new ArrayList<>(entry.getValue().entrySet());
+            buckets.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+            for (Map.Entry<String, Long> bucket : buckets) {
+                facet.addBuckets(AggregateLaptopsResponse.Bucket.newBuilder()
+                        .setKey(bucket.getKey())
+                        .setCount(bucket.getValue()));
+            }
+            builder.addFacets(facet);
+        }
+
+        for (Map.Entry<Long, Long> entry : new TreeMap<>(histogram).entrySet()) {
+            builder.addPriceHistogram(AggregateLaptopsResponse.PriceBucket.newBuilder()
+                    .setLowerBoundUsd(entry.getKey() * bucketUsd)
+                    .setCount(entry.getValue()));
+        }
+        return builder.build();
+    }
+
+    // fromResponse turns the response of a remote store back into a partial to merge
+    public static LaptopAggregation fromResponse(AggregateLaptopsResponse response, List<Facet> facets, double bucketUsd) {
+        LaptopAggregation aggregation = new LaptopAggregation(facets, bucketUsd);
+        aggregation.count = response.getCount();
+        if (response.getCount() > 0) {
+            aggregation.sum = response.getAvgPriceUsd() * response.getCount();
+            aggregation.min = response.getMinPriceUsd();
+            aggregation.max = response.getMaxPriceUsd();
+        }
+        for (AggregateLaptopsResponse.FacetCounts facet : response.getFacetsList()) {
+            Map<String, Long> counts = aggregation.facetCounts.computeIfAbsent(facet.getFacet(), k -> new HashMap<>());
+            for (AggregateLaptopsResponse.Bucket bucket : facet.getBucketsList()) {
+                counts.merge(bucket.getKey(), bucket.getCount(), Long::sum);
+            }
+        }
+        for (AggregateLaptopsResponse.PriceBucket bucket : response.getPriceHistogramList()) {
+            aggregation.histogram.merge(Math.round(bucket.getLowerBoundUsd() / aggregation.bucketUsd), bucket.getCount(), Long::sum);
+        }
+        return aggregation;
+    }
+
+    private static String facetKey(Facet facet, Laptop laptop) {
+        switch (facet) {
+            case BRAND:
+                return laptop.getBrand();
+            case RAM:
+                return ramBucket(laptop);
+            case CPU_CORES:
+                return String.valueOf(laptop.getCpu().getNumCores());
+            default:
+                return "";
+        }
+    }
+
+    // ramBucket groups RAM sizes by power of two, e.g. 12 GB falls in "8-16 GB"
+    private static String ramBucket(Laptop laptop) {
+        long gb = LaptopFilterUtil.toBit(laptop.getRam()) >>> 33;
+        if (gb < 4) {
+            return "<4 GB";
+        }
+        long lower = Long.highestOneBit(gb);
+        return lower + "-" + (lower * 2) + " GB";
+    }
+}
@@ -0,0 +1,286 @@
+package com.techschool.pcbook.service;
+
+import io.grpc.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+// LaptopChannelPool spreads calls over several channels to several servers.
+// Each call goes to the endpoint with the fewest outstanding calls, ties are broken round-robin,
+// and within an endpoint to the next channel whose connection isn't failing.
+//
+// An endpoint that keeps failing with UNAVAILABLE is ejected for a while. When the ejection ends
+// the endpoint is half-open: it gets one trial call at a time until a call succeeds, which
+// reinstates it. A failed trial ejects it again, for twice as long each time up to maxBackoffShift
+// doublings. Calls that were already in flight when the endpoint was ejected don't eject it again.
+public class LaptopChannelPool extends ManagedChannel {
+    private static final Logger logger = Logger.getLogger(LaptopChannelPool.class.getName());
+    private static final int maxBackoffShift = 5;
+
+    private final List<Endpoint> endpoints;
+    private final int maxFailures;
+    private final long ejectionNanos;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public LaptopChannelPool(List<String> targets, int channelsPerTarget,
+                             Function<String, ManagedChannel> channelFactory,
+                             int maxFailures, long ejectionTime, TimeUnit unit) {
+        if (targets.isEmpty() || channelsPerTarget <= 0) {
+            throw new IllegalArgumentException("pool needs at least one target and one channel per target");
+        }
+
+        this.endpoints = new ArrayList<>(targets.size());
+        this.maxFailures = maxFailures;
+        this.ejectionNanos = unit.toNanos(ejectionTime);
+
+        for (String target : targets) {
+            ManagedChannel[] channels = new ManagedChannel[channelsPerTarget];
+            for (int i = 0; i < channelsPerTarget; i++) {
+                channels[i] = channelFactory.apply(target);
+            }
+            endpoints.add(new Endpoint(target, channels));
+        }
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+        Pick pick = pick();
+        Endpoint endpoint = pick.endpoint;
+        ClientCall<ReqT, RespT> call = endpoint.nextChannel().newCall(method, callOptions);
+
+        return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(call) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                endpoint.outstanding.incrementAndGet();
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        endpoint.outstanding.decrementAndGet();
+                        endpoint.record(status, pick.trial);
+                        if (pick.trial) {
+                            endpoint.trialStart.set(0);
+                        }
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            }
+        };
+    }
+
+    // pick claims the trial of a half-open endpoint as it picks it, so concurrent picks can't
+    // all send their call to it
+    private Pick pick() {
+        long now = System.nanoTime();
+        int n = endpoints.size();
+        int start = Math.floorMod(next.getAndIncrement(), n);
+
+        Endpoint best = null;
+        Endpoint fallback = null;
+        for (int i = 0; i < n; i++) {
+            Endpoint endpoint = endpoints.get((start + i) % n);
+            if (fallback == null || endpoint.ejectedUntil - fallback.ejectedUntil < 0) {
+                fallback = endpoint;
+            }
+            if (!endpoint.isHealthy(now)) {
+                continue;
+            }
+            if (endpoint.isHalfOpen()) {
+                if (endpoint.tryStartTrial(now)) {
+                    return new Pick(endpoint, true);
+                }
+                continue;
+            }
+            if (best == null || endpoint.outstanding.get() < best.outstanding.get()) {
+                best = endpoint;
+            }
+        }
+
+        // every endpoint is ejected, try the one coming back first rather than failing locally
+        return new Pick(best != null ? best : fallback, false);
+    }
+
+    public int getHealthyCount() {
+        long now = System.nanoTime();
+        int count = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isHealthy(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String authority() {
+        return endpoints.get(0).channels[0].authority();
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+        for (Endpoint endpoint : endpoints) {
+            for (ManagedChannel channel : endpoint.channels) {
+                channel.shutdown();
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public ManagedChannel shutdownNow() {
+        for (Endpoint endpoint : endpoints) {
+            for (ManagedChannel channel : endpoint.channels) {
+                channel.shutdownNow();
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        for (Endpoint endpoint : endpoints) {
+            for (ManagedChannel channel : endpoint.channels) {
+                if (!channel.isShutdown()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        for (Endpoint endpoint : endpoints) {
+            for (ManagedChannel channel : endpoint.channels) {
+                if (!channel.isTerminated()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Endpoint endpoint : endpoints) {
+            for (ManagedChannel channel : endpoint.channels) {
+                long remaining = deadline - System.nanoTime();
+                if (!channel.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static class Pick {
+        private final Endpoint endpoint;
+        // the call is the trial of a half-open endpoint
+        private final boolean trial;
+
+        private Pick(Endpoint endpoint, boolean trial) {
+            this.endpoint = endpoint;
+            this.trial = trial;
+        }
+    }
+
+    private class Endpoint {
+        private final String target;
+        private final ManagedChannel[] channels;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger nextChannel = new AtomicInteger();
+        // the ejections since the endpoint last succeeded, 0 when it is reinstated
+        private final AtomicInteger ejections = new AtomicInteger();
+        // when the running trial started, 0 when there is none
+        private final AtomicLong trialStart = new AtomicLong();
+        private final AtomicBoolean reconnected = new AtomicBoolean();
+        private volatile long ejectedUntil;
+
+        private Endpoint(String target, ManagedChannel[] channels) {
+            this.target = target;
+            this.channels = channels;
+            this.ejectedUntil = System.nanoTime();
+        }
+
+        // nextChannel returns the next channel round-robin that isn't failing,
+        // or the next one if they all are
+        private ManagedChannel nextChannel() {
+            int start = nextChannel.getAndIncrement();
+            for (int i = 0; i < channels.length; i++) {
+                ManagedChannel channel = channels[Math.floorMod(start + i, channels.length)];
+                if (channel.getState(false) != ConnectivityState.TRANSIENT_FAILURE) {
+                    return channel;
+                }
+            }
+            return channels[Math.floorMod(start, channels.length)];
+        }
+
+        private boolean isHealthy(long now) {
+            if (now - ejectedUntil < 0) {
+                return false;
+            }
+            if (isHalfOpen() && reconnected.compareAndSet(false, true)) {
+                // the channels may be waiting out a long reconnect backoff, the trial needs one now
+                for (ManagedChannel channel : channels) {
+                    channel.resetConnectBackoff();
+                }
+            }
+            // don't wait for the ejection to learn that every connection is already broken
+            for (ManagedChannel channel : channels) {
+                if (channel.getState(false) != ConnectivityState.TRANSIENT_FAILURE) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isHalfOpen() {
+            return ejections.get() > 0;
+        }
+
+        // tryStartTrial claims the one trial of a half-open endpoint. A trial that hasn't ended after
+        // an ejection period, such as a call that was never started, gives its place to another.
+        private boolean tryStartTrial(long now) {
+            long started = trialStart.get();
+            if (started != 0 && now - started < ejectionNanos) {
+                return false;
+            }
+            return trialStart.compareAndSet(started, now == 0 ? 1 : now);
+        }
+
+        private void record(Status status, boolean trial) {
+            if (status.getCode() != Status.Code.UNAVAILABLE) {
+                failures.set(0);
+                if (ejections.getAndSet(0) > 0) {
+                    logger.info("reinstate endpoint " + target);
+                }
+                return;
+            }
+            // a failed trial ejects again at once
+            if (trial) {
+                eject(ejections.getAndIncrement());
+                return;
+            }
+            // only the first call over maxFailures ejects, the calls in flight with it don't
+            if (failures.incrementAndGet() >= maxFailures && ejections.compareAndSet(0, 1)) {
+                eject(0);
+            }
+        }
+
+        // eject takes the endpoint out for the ejection period doubled once per earlier ejection
+        private void eject(int earlier) {
+            int shift = Math.min(earlier, maxBackoffShift);
+            reconnected.set(false);
+            ejectedUntil = System.nanoTime() + (ejectionNanos << shift);
+            logger.warning("eject endpoint " + target + " for " + TimeUnit.NANOSECONDS.toMillis(ejectionNanos << shift)
+                    + " ms after " + failures.get() + " failures");
+        }
+    }
+}
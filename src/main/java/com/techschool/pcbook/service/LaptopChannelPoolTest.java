@@ -0,0 +1,316 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.*;
+import com.techschool.pcbook.sample.Generator;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LaptopChannelPoolTest {
+    private static final int serverCount = 3;
+    private static final int maxFailures = 2;
+
+    private List<String> serverNames;
+    private List<LaptopServer> servers;
+    private List<InMemoryLaptopStore> laptopStores;
+    private LaptopChannelPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        serverNames = new LinkedList<>();
+        servers = new LinkedList<>();
+        laptopStores = new LinkedList<>();
+
+        for (int i = 0; i < serverCount; i++) {
+            String serverName = InProcessServerBuilder.generateName();
+            InProcessServerBuilder serverBuilder = InProcessServerBuilder.forName(serverName).directExecutor();
+            InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+
+            LaptopServer server = new LaptopServer(serverBuilder, 0, laptopStore,
+                    new DiskImageStore("tmp"), new InMemoryRatingStore());
+            server.start();
+
+            serverNames.add(serverName);
+            servers.add(server);
+            laptopStores.add(laptopStore);
+        }
+
+        pool = new LaptopChannelPool(serverNames, 2,
+                name -> InProcessChannelBuilder.forName(name).directExecutor().build(),
+                maxFailures, 1, TimeUnit.MINUTES);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+        for (LaptopServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void spreadsCallsOverServers() {
+        LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(pool);
+        Generator generator = new Generator();
+
+        List<String> ids = new LinkedList<>();
+        for (int i = 0; i < 3 * serverCount; i++) {
+            Laptop laptop = generator.NewLaptop();
+            stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+            ids.add(laptop.getId());
+        }
+
+        for (InMemoryLaptopStore laptopStore : laptopStores) {
+            int count = 0;
+            for (String id : ids) {
+                if (laptopStore.Find(id) != null) {
+                    count++;
+                }
+            }
+            assertEquals(3, count);
+        }
+    }
+
+    @Test
+    public void ejectsUnavailableServer() throws Exception {
+        servers.get(0).stop();
+
+        LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(pool);
+        Generator generator = new Generator();
+
+        int failures = 0;
+        for (int i = 0; i < 10 * serverCount; i++) {
+            try {
+                stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+            } catch (StatusRuntimeException e) {
+                failures++;
+            }
+        }
+
+        assertTrue(failures <= 2);
+        assertEquals(serverCount - 1, pool.getHealthyCount());
+    }
+
+    @Test
+    public void reinstatesServerAfterEjection() throws Exception {
+        pool.shutdownNow();
+        pool = new LaptopChannelPool(serverNames, 2,
+                name -> InProcessChannelBuilder.forName(name).directExecutor().build(),
+                maxFailures, 100, TimeUnit.MILLISECONDS);
+        servers.get(0).stop();
+
+        LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(pool);
+        Generator generator = new Generator();
+        for (int i = 0; i < 3 * serverCount; i++) {
+            try {
+                stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+            } catch (StatusRuntimeException e) {
+                // the calls that eject the stopped server
+            }
+        }
+        assertEquals(serverCount - 1, pool.getHealthyCount());
+
+        // the server comes back under the same name
+        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+        LaptopServer server = new LaptopServer(InProcessServerBuilder.forName(serverNames.get(0)).directExecutor(), 0,
+                laptopStore, new DiskImageStore("tmp"), new InMemoryRatingStore());
+        server.start();
+        servers.set(0, server);
+        Thread.sleep(200);
+
+        List<String> ids = new LinkedList<>();
+        for (int i = 0; i < 3 * serverCount; i++) {
+            Laptop laptop = generator.NewLaptop();
+            stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+            ids.add(laptop.getId());
+        }
+        assertEquals(serverCount, pool.getHealthyCount());
+        assertTrue(countFound(laptopStore, ids) > 0);
+    }
+
+    @Test
+    public void checksEveryChannelOfServer() {
+        pool.shutdownNow();
+        // the first channel to the first server points at nothing, its second channel works
+        AtomicInteger created = new AtomicInteger();
+        pool = new LaptopChannelPool(serverNames, 2,
+                name -> InProcessChannelBuilder.forName(created.getAndIncrement() == 0 ? "missing" : name)
+                        .directExecutor().build(),
+                maxFailures, 1, TimeUnit.MINUTES);
+
+        LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(pool);
+        Generator generator = new Generator();
+        List<String> ids = new LinkedList<>();
+        int failures = 0;
+        for (int i = 0; i < 10 * serverCount; i++) {
+            Laptop laptop = generator.NewLaptop();
+            try {
+                stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(laptop).build());
+                ids.add(laptop.getId());
+            } catch (StatusRuntimeException e) {
+                failures++;
+            }
+        }
+
+        // the broken channel fails once, then calls to the first server take the other one
+        assertEquals(1, failures);
+        assertEquals(serverCount, pool.getHealthyCount());
+        assertTrue(countFound(laptopStores.get(0), ids) > 0);
+    }
+
+    @Test
+    public void callsInFlightDontEjectAgain() throws Exception {
+        pool.shutdownNow();
+        // a pool of the first server alone, so every call is in flight to it
+        pool = new LaptopChannelPool(serverNames.subList(0, 1), 2,
+                name -> InProcessChannelBuilder.forName(name).directExecutor().build(),
+                maxFailures, 100, TimeUnit.MILLISECONDS);
+        // the server holds its calls, then fails them all at once
+        AtomicBoolean failing = new AtomicBoolean(true);
+        CountDownLatch release = new CountDownLatch(1);
+        Server unavailable = replaceWithUnavailable(0, failing, release);
+        try {
+            LaptopServiceGrpc.LaptopServiceFutureStub stub = LaptopServiceGrpc.newFutureStub(pool);
+            Generator generator = new Generator();
+            List<ListenableFuture<CreateLaptopResponse>> futures = new LinkedList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build()));
+            }
+            release.countDown();
+            int failures = 0;
+            for (ListenableFuture<CreateLaptopResponse> future : futures) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    failures++;
+                }
+            }
+            assertEquals(10, failures);
+            assertEquals(0, pool.getHealthyCount());
+
+            // the server is back within a second: it was ejected once for 100 ms,
+            // not for 3.2 s after doubling its ejection for every failed call
+            failing.set(false);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (pool.getHealthyCount() == 0 && System.nanoTime() - deadline < 0) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, pool.getHealthyCount());
+        } finally {
+            unavailable.shutdownNow();
+        }
+    }
+
+    @Test
+    public void halfOpenServerGetsOneTrial() throws Exception {
+        pool.shutdownNow();
+        pool = new LaptopChannelPool(serverNames, 2,
+                name -> InProcessChannelBuilder.forName(name).directExecutor().build(),
+                maxFailures, 100, TimeUnit.MILLISECONDS);
+        // the first server is reachable, but answers every call with UNAVAILABLE
+        Server unavailable = replaceWithUnavailable(0, new AtomicBoolean(true), new CountDownLatch(0));
+        try {
+            LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(pool);
+            Generator generator = new Generator();
+            for (int i = 0; i < 3 * serverCount; i++) {
+                try {
+                    stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+                } catch (StatusRuntimeException e) {
+                    // the calls that eject the unavailable server
+                }
+            }
+            assertEquals(serverCount - 1, pool.getHealthyCount());
+            Thread.sleep(150);
+
+            // the ejection is over: of the calls racing to the server, one is its trial
+            int threads = 8;
+            CountDownLatch ready = new CountDownLatch(threads);
+            AtomicInteger failures = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new LinkedList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    ready.countDown();
+                    try {
+                        ready.await();
+                        stub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(generator.NewLaptop()).build());
+                    } catch (StatusRuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+
+            assertEquals(1, failures.get());
+            assertEquals(serverCount - 1, pool.getHealthyCount());
+        } finally {
+            unavailable.shutdownNow();
+        }
+    }
+
+    // replaceWithUnavailable stops a server and serves its name with one that, while failing is
+    // set, waits for release and then answers UNAVAILABLE
+    private Server replaceWithUnavailable(int index, AtomicBoolean failing, CountDownLatch release) throws Exception {
+        servers.get(index).stop();
+        return InProcessServerBuilder.forName(serverNames.get(index))
+                .addService(ServerInterceptors.intercept(
+                        new LaptopService(laptopStores.get(index), new DiskImageStore("tmp"), new InMemoryRatingStore()),
+                        new ServerInterceptor() {
+                            @Override
+                            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                                    ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                                if (!failing.get()) {
+                                    return next.startCall(call, headers);
+                                }
+                                try {
+                                    release.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                call.close(Status.UNAVAILABLE, new Metadata());
+                                return new ServerCall.Listener<ReqT>() {
+                                };
+                            }
+                        }))
+                .build()
+                .start();
+    }
+
+    private static int countFound(LaptopStore laptopStore, List<String> ids) {
+        int count = 0;
+        for (String id : ids) {
+            if (laptopStore.Find(id) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -9,19 +9,30 @@ import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
-import io.grpc.netty.GrpcSslContexts;
+import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
 
 import javax.net.ssl.SSLException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,25 +42,88 @@ public class LaptopClient {
     private final ManagedChannel channel;
     private final LaptopServiceBlockingStub blockingStub;
     private final LaptopServiceStub asyncStub;
+    private final CompressionStats compressionStats = new CompressionStats();
 
     public LaptopClient(String host, int port) {
-        channel = ManagedChannelBuilder.forAddress(host, port)
-                .usePlaintext()
-                .build();
+        ManagedChannelBuilder<?> builder = ManagedChannelBuilder.forAddress(host, port)
+                .usePlaintext();
+        configureCompression(builder, CompressionConfig.forClient());
+        channel = builder.build();
 
         blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
         asyncStub = LaptopServiceGrpc.newStub(channel);
     }
 
     public LaptopClient(String host, int port, SslContext sslContext) {
-        channel = NettyChannelBuilder.forAddress(host, port)
-                .sslContext(sslContext)
-                .build();
+        this(host, port, sslContext, CompressionConfig.forClient());
+    }
+
+    public LaptopClient(String host, int port, SslContext sslContext, CompressionConfig compressionConfig) {
+        this(host, port, sslContext, compressionConfig, TransportProfile.defaults());
+    }
+
+    // sslContext may be null for plaintext
+    public LaptopClient(String host, int port, SslContext sslContext, CompressionConfig compressionConfig,
+                        TransportProfile transportProfile) {
+        NettyChannelBuilder builder = transportProfile.configure(NettyChannelBuilder.forAddress(host, port));
+        if (sslContext == null) {
+            builder.usePlaintext();
+        } else {
+            builder.sslContext(sslContext);
+        }
+        configureCompression(builder, compressionConfig);
+        channel = builder.build();
 
         blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
         asyncStub = LaptopServiceGrpc.newStub(channel);
     }
 
+    // LaptopClient balances calls over a pool of channels to several servers,
+    // each target is a "host:port" address. sslContext may be null for plaintext.
+    public LaptopClient(List<String> targets, int channelsPerTarget, SslContext sslContext) {
+        channel = new LaptopChannelPool(targets, channelsPerTarget, target -> {
+            int idx = target.lastIndexOf(':');
+            NettyChannelBuilder builder = NettyChannelBuilder.forAddress(
+                    target.substring(0, idx), Integer.parseInt(target.substring(idx + 1)));
+            configureCompression(builder, CompressionConfig.forClient());
+            if (sslContext == null) {
+                builder.usePlaintext();
+            } else {
+                builder.sslContext(sslContext);
+            }
+            return builder.build();
+        }, 3, 10, TimeUnit.SECONDS);
+
+        blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+        asyncStub = LaptopServiceGrpc.newStub(channel);
+    }
+
+    private LaptopClient(ManagedChannel channel) {
+        this.channel = channel;
+        blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+        asyncStub = LaptopServiceGrpc.newStub(channel);
+    }
+
+    // inProcess connects to a server started with LaptopServer.inProcess in the same JVM.
+    // directExecutor delivers responses on the thread that receives them instead of a pool.
+    public static LaptopClient inProcess(String name, boolean directExecutor) {
+        InProcessChannelBuilder builder = InProcessChannelBuilder.forName(name);
+        if (directExecutor) {
+            builder.directExecutor();
+        }
+        return new LaptopClient(builder.build());
+    }
+
+    private void configureCompression(ManagedChannelBuilder<?> builder, CompressionConfig config) {
+        builder.compressorRegistry(CompressionConfig.compressorRegistry())
+                .decompressorRegistry(CompressionConfig.decompressorRegistry())
+                .intercept(new CompressionClientInterceptor(config, compressionStats));
+    }
+
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
     public void shutdown() throws InterruptedException {
         channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
     }
@@ -80,15 +154,22 @@ public class LaptopClient {
     public void searchLaptop(LaptopFilter filter) {
         logger.info("search started");
 
-        SearchLaptopRequest request = SearchLaptopRequest.newBuilder().setFilter(filter).build();
+        SearchLaptopRequest request = SearchLaptopRequest.newBuilder()
+                .setFilter(filter)
+                .setBatching(SearchBatching.getDefaultInstance())
+                .build();
         try {
             Iterator<SearchLaptopResponse> responseIterator = blockingStub
                     .withDeadlineAfter(5, TimeUnit.SECONDS)
                     .searchLaptop(request);
             while (responseIterator.hasNext()) {
                 SearchLaptopResponse response = responseIterator.next();
-                Laptop laptop = response.getLaptop();
-                logger.info("_ found: " + laptop.getId());
+                if (response.hasLaptop()) {
+                    logger.info("_ found: " + response.getLaptop().getId());
+                }
+                for (Laptop laptop : response.getLaptopsList()) {
+                    logger.info("_ found: " + laptop.getId());
+                }
             }
         } catch (Exception e) {
             logger.log(Level.SEVERE, "request failed: " + e.getMessage());
@@ -97,6 +178,30 @@ public class LaptopClient {
         logger.info("search completed");
     }
 
+    public void watchLaptops(LaptopFilter filter, long seconds) {
+        logger.info("watch started");
+
+        WatchLaptopsRequest request = WatchLaptopsRequest.newBuilder().setFilter(filter).build();
+        try {
+            Iterator<WatchLaptopsResponse> responseIterator = blockingStub
+                    .withDeadlineAfter(seconds, TimeUnit.SECONDS)
+                    .watchLaptops(request);
+            while (responseIterator.hasNext()) {
+                WatchLaptopsResponse response = responseIterator.next();
+                Laptop laptop = response.getLaptop();
+                logger.info("_ new laptop: " + laptop.getId());
+            }
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.DEADLINE_EXCEEDED) {
+                logger.info("watch completed");
+                return;
+            }
+            logger.log(Level.SEVERE, "request failed: " + e.getMessage());
+            return;
+        }
+        logger.info("watch completed");
+    }
+
     public void uploadImage(String laptopID, String imagePath) {
         final CountDownLatch finishLatch = new CountDownLatch(1);
 
@@ -165,6 +270,117 @@ public class LaptopClient {
         awaitCountDownLatch(finishLatch);
     }
 
+    // uploadResumable uploads a file of any size through an upload session. When a stream breaks it
+    // asks for the committed offset and sends the rest from there, up to maxAttempts streams.
+    // It returns the image ID, or null if the upload didn't finish.
+    public String uploadResumable(String laptopID, String filePath, int maxAttempts) {
+        Path path = Paths.get(filePath);
+        String imageType = filePath.substring(filePath.lastIndexOf("."));
+
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            ImageInfo info = ImageInfo.newBuilder().setLaptopId(laptopID).setImageType(imageType).build();
+            String uploadID = blockingStub.startUpload(StartUploadRequest.newBuilder()
+                    .setInfo(info)
+                    .setSize(file.size())
+                    .build()).getUploadId();
+            logger.info("started upload " + uploadID + " of " + file.size() + " bytes");
+
+            long offset = 0;
+            for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+                UploadStatus status = sendChunks(uploadID, file, offset);
+                if (status != null && !status.getImageId().isEmpty()) {
+                    logger.info("upload " + uploadID + " saved as image " + status.getImageId());
+                    return status.getImageId();
+                }
+
+                offset = blockingStub.getUploadStatus(GetUploadStatusRequest.newBuilder()
+                        .setUploadId(uploadID)
+                        .build()).getCommittedOffset();
+                logger.info("upload " + uploadID + " broke, resume from offset " + offset);
+            }
+        } catch (IOException | StatusRuntimeException e) {
+            logger.log(Level.SEVERE, "upload failed: " + e.getMessage());
+        }
+        return null;
+    }
+
+    // sendChunks streams the file from offset on one UploadChunks call and returns the last status
+    // received. Chunks are only read from the file when the stream is ready, so the file is never
+    // buffered in memory.
+    private UploadStatus sendChunks(String uploadID, FileChannel file, long offset) throws IOException {
+        CountDownLatch finishLatch = new CountDownLatch(1);
+        AtomicReference<UploadStatus> lastStatus = new AtomicReference<>();
+        long size = file.size();
+
+        asyncStub.uploadChunks(new ClientResponseObserver<UploadChunkRequest, UploadStatus>() {
+            private long position = offset;
+            private boolean started;
+            private boolean halfClosed;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<UploadChunkRequest> requestStream) {
+                requestStream.setOnReadyHandler(() -> sendMore(requestStream));
+            }
+
+            private void sendMore(ClientCallStreamObserver<UploadChunkRequest> requestStream) {
+                if (!started) {
+                    started = true;
+                    requestStream.onNext(UploadChunkRequest.newBuilder()
+                            .setPosition(UploadPosition.newBuilder().setUploadId(uploadID).setOffset(position))
+                            .build());
+                }
+
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                while (requestStream.isReady() && position < size) {
+                    buffer.clear();
+                    try {
+                        int n = file.read(buffer, position);
+                        if (n < 0) {
+                            throw new IOException("file is shorter than " + size + " bytes");
+                        }
+                        position += n;
+                    } catch (IOException e) {
+                        requestStream.onError(e);
+                        return;
+                    }
+                    buffer.flip();
+                    requestStream.onNext(UploadChunkRequest.newBuilder()
+                            .setChunkData(ByteString.copyFrom(buffer))
+                            .build());
+                }
+
+                if (position == size && !halfClosed) {
+                    halfClosed = true;
+                    requestStream.onCompleted();
+                }
+            }
+
+            @Override
+            public void onNext(UploadStatus status) {
+                lastStatus.set(status);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                logger.log(Level.WARNING, "upload stream failed: " + t.getMessage());
+                finishLatch.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                finishLatch.countDown();
+            }
+        });
+
+        try {
+            finishLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("upload is interrupted", e);
+        }
+        return lastStatus.get();
+    }
+
     public void rateLaptop(String[] laptopIDs, double[] scores) {
         final CountDownLatch finishLatch = new CountDownLatch(1);
 
@@ -283,25 +499,31 @@ public class LaptopClient {
     }
 
     public static SslContext loadTLSCredentials() throws SSLException {
+        return loadTLSCredentials(TlsConfig.defaults());
+    }
+
+    public static SslContext loadTLSCredentials(TlsConfig tlsConfig) throws SSLException {
         File serverCACertFile = new File("cert/ca-cert.pem");
         File clientCertFile = new File("cert/client-cert.pem");
         File clientKeyFile = new File("cert/client-key.pem");
 
-        return GrpcSslContexts.forClient()
+        SslContextBuilder ctxBuilder = SslContextBuilder.forClient()
                 .keyManager(clientCertFile, clientKeyFile)
-                .trustManager(serverCACertFile)
-                .build();
+                .trustManager(serverCACertFile);
+
+        return tlsConfig.build(ctxBuilder);
     }
 
     public static void main(String[] args) {
         SslContext sslContext;
         try {
-             sslContext = LaptopClient.loadTLSCredentials();
+             sslContext = LaptopClient.loadTLSCredentials(TlsConfig.performance());
         } catch (SSLException e) {
             logger.warning("Cannot load TLS credentials: " + e.getMessage());
             return;
         }
-        LaptopClient client = new LaptopClient("localhost", 50051, sslContext);
+        LaptopClient client = new LaptopClient("localhost", 50051, sslContext,
+                CompressionConfig.forClient(), TransportProfile.bulkTransfer());
 
         Generator generator = new Generator();
 
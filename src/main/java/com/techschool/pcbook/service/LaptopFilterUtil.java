@@ -0,0 +1,61 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.LaptopFilter;
+import com.techschool.pcbook.pb.Memory;
+
+import java.util.TreeSet;
+
+public final class LaptopFilterUtil {
+    private LaptopFilterUtil() {
+    }
+
+    // normalize returns a filter where memory sizes are expressed in bits and sets are sorted,
+    // so equivalent filters (e.g. 8 GB and 8192 MB) compare as equal.
+    public static LaptopFilter normalize(LaptopFilter filter) {
+        LaptopFilter.Builder builder = filter.toBuilder()
+                .setMinRam(toBitMemory(filter.getMinRam()))
+                .setMinGpuMemory(toBitMemory(filter.getMinGpuMemory()))
+                .setMinSsdCapacity(toBitMemory(filter.getMinSsdCapacity()))
+                .clearBrands()
+                .addAllBrands(new TreeSet<>(filter.getBrandsList()))
+                .clearPanels()
+                .addAllPanels(new TreeSet<>(filter.getPanelsList()))
+                .clearKeyboardLayouts()
+                .addAllKeyboardLayouts(new TreeSet<>(filter.getKeyboardLayoutsList()))
+                .clearCpuBrands()
+                .addAllCpuBrands(new TreeSet<>(filter.getCpuBrandsList()))
+                .clearGpuBrands()
+                .addAllGpuBrands(new TreeSet<>(filter.getGpuBrandsList()))
+                .clearStorageDrivers()
+                .addAllStorageDrivers(new TreeSet<>(filter.getStorageDriversList()));
+
+        return builder.build();
+    }
+
+    private static Memory toBitMemory(Memory memory) {
+        return Memory.newBuilder()
+                .setValue(toBit(memory))
+                .setUnit(Memory.Unit.BIT)
+                .build();
+    }
+
+    public static long toBit(Memory ram) {
+        long value = ram.getValue();
+        switch (ram.getUnit()) {
+            case BIT:
+                return  value;
+            case BYTE:
+                return value << 3; // 8 bits = 2^3 BIT
+            case KILLOBYTE:
+                return value << 13; // 8 * 1024 = 2^13 BIT
+            case MEGABYTE:
+                return value << 23; // 8 * 1024 * 1024 = 2^23 BIT
+            case GIGABYTE:
+                return value << 33; // 8 * 1024 * 1024 * 1024 = 2^33 BIT
+            case TERABYTE:
+                return value << 43; // 8 * 1024 * 1024 * 1024 * 1024 = 2^43 BIT
+            default:
+                return 0;
+        }
+    }
+}
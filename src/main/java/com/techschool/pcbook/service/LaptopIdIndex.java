@@ -0,0 +1,267 @@
+package com.techschool.pcbook.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// LaptopIdIndex maps laptop IDs to values. An ID in the canonical UUID form that createLaptop
+// generates is kept as two longs in an open-addressed table, with no String, boxed key or map
+// node per entry. Other IDs go to a ConcurrentHashMap, so a UUID written in upper case stays
+// a different ID than its lower case form, as it was with a String key.
+//
+// The UUIDs are spread over segments by hash, each a table with its own lock, so writers of
+// different segments don't wait for each other. Readers take no lock: a slot's key is written
+// before its value, and a reader checks the key only after it has read a value. Entries are
+// never removed.
+public class LaptopIdIndex<V> {
+    private static final double maxLoad = 0.7;
+    private static final int segmentBits = 6;
+    // the value of each lower case hex digit, -1 for the other ASCII characters
+    private static final byte[] hexValues = new byte[128];
+
+    static {
+        Arrays.fill(hexValues, (byte) -1);
+        for (int i = 0; i < 16; i++) {
+            hexValues["0123456789abcdef".charAt(i)] = (byte) i;
+        }
+    }
+
+    private final ConcurrentMap<String, V> others = new ConcurrentHashMap<>();
+    private final List<Segment<V>> segments;
+
+    public LaptopIdIndex(int expected) {
+        int perSegment = expected >> segmentBits;
+        int capacity = 16;
+        while (capacity * maxLoad < perSegment) {
+            capacity <<= 1;
+        }
+
+        segments = new ArrayList<>(1 << segmentBits);
+        for (int i = 0; i < 1 << segmentBits; i++) {
+            segments.add(new Segment<>(capacity));
+        }
+    }
+
+    public LaptopIdIndex() {
+        this(0);
+    }
+
+    public V get(String id) {
+        if (!isCanonicalUuid(id)) {
+            return others.get(id);
+        }
+        long high = highBits(id);
+        long low = lowBits(id);
+        long hash = hash(high, low);
+        return segmentFor(hash).table.get(hash, high, low);
+    }
+
+    // putIfAbsent stores value unless id is already there, and returns the value already there or null
+    public V putIfAbsent(String id, V value) {
+        Objects.requireNonNull(value);
+        if (!isCanonicalUuid(id)) {
+            return others.putIfAbsent(id, value);
+        }
+
+        long high = highBits(id);
+        long low = lowBits(id);
+        long hash = hash(high, low);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            int slot = segment.table.find(hash, high, low);
+            if (slot >= 0) {
+                return segment.table.values.get(slot);
+            }
+            segment.insert(-slot - 1, hash, high, low, value);
+            return null;
+        }
+    }
+
+    // compute replaces the value of id by remapping(id, previous), previous is null for a new id.
+    // remapping runs while the ID's segment is locked, so it must be quick, and must not return null.
+    public V compute(String id, BiFunction<String, V, V> remapping) {
+        if (!isCanonicalUuid(id)) {
+            return others.compute(id, (key, previous) -> Objects.requireNonNull(remapping.apply(key, previous)));
+        }
+
+        long high = highBits(id);
+        long low = lowBits(id);
+        long hash = hash(high, low);
+        Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            int slot = segment.table.find(hash, high, low);
+            V previous = slot >= 0 ? segment.table.values.get(slot) : null;
+            V next = Objects.requireNonNull(remapping.apply(id, previous));
+            if (slot >= 0) {
+                segment.table.values.set(slot, next);
+            } else {
+                segment.insert(-slot - 1, hash, high, low, next);
+            }
+            return next;
+        }
+    }
+
+    // values returns the values in no particular order. Like the views of ConcurrentHashMap it is
+    // weakly consistent: it may or may not see the values stored while it runs.
+    public Stream<V> values() {
+        Stream<V> uuids = segments.stream().flatMap(segment -> {
+            AtomicReferenceArray<V> current = segment.table.values;
+            return IntStream.range(0, current.length()).mapToObj(current::get).filter(Objects::nonNull);
+        });
+        return Stream.concat(uuids, others.values().stream());
+    }
+
+    public int size() {
+        int size = others.size();
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.uuidCount;
+            }
+        }
+        return size;
+    }
+
+    // getTableBytes returns the heap taken by the UUID tables, with compressed references
+    public long getTableBytes() {
+        long slots = 0;
+        for (Segment<V> segment : segments) {
+            slots += segment.table.values.length();
+        }
+        return slots * (2 * Long.BYTES + 4);
+    }
+
+    private Segment<V> segmentFor(long hash) {
+        return segments.get((int) (hash >>> (Long.SIZE - segmentBits)));
+    }
+
+    // the version and variant bits of a UUID are fixed and time based UUIDs share most
+    // of their bits, so both halves are mixed. The top bits pick the segment, the bits
+    // from 32 up the slot.
+    private static long hash(long high, long low) {
+        return (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+    }
+
+    // isCanonicalUuid reports whether id is written the way UUID.toString writes it:
+    // 36 characters, lower case hex digits and dashes at 8, 13, 18 and 23
+    static boolean isCanonicalUuid(String id) {
+        if (id.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (c >= 128 || hexValues[c] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long highBits(String uuid) {
+        return hexBits(uuid, hexBits(uuid, hexBits(uuid, 0, 0, 8), 9, 13), 14, 18);
+    }
+
+    static long lowBits(String uuid) {
+        return hexBits(uuid, hexBits(uuid, 0, 19, 23), 24, 36);
+    }
+
+    // hexBits shifts the hex digits from to to into bits
+    private static long hexBits(String uuid, long bits, int from, int to) {
+        for (int i = from; i < to; i++) {
+            bits = bits << 4 | hexValues[uuid.charAt(i)];
+        }
+        return bits;
+    }
+
+    private static class Segment<V> {
+        // replaced as a whole when it grows
+        private volatile Table<V> table;
+        // guarded by this
+        private int uuidCount;
+
+        private Segment(int capacity) {
+            table = new Table<>(capacity);
+        }
+
+        // guarded by this
+        private void insert(int slot, long hash, long high, long low, V value) {
+            if (uuidCount + 1 > table.values.length() * maxLoad) {
+                table = table.grow();
+                slot = -table.find(hash, high, low) - 1;
+            }
+            table.put(slot, high, low, value);
+            uuidCount++;
+        }
+    }
+
+    private static class Table<V> {
+        // the key of slot i is keys[2 * i] and keys[2 * i + 1]
+        private final long[] keys;
+        private final AtomicReferenceArray<V> values;
+        private final int mask;
+
+        private Table(int capacity) {
+            keys = new long[2 * capacity];
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+
+        private V get(long hash, long high, long low) {
+            for (int slot = indexFor(hash); ; slot = (slot + 1) & mask) {
+                V value = values.get(slot);
+                if (value == null) {
+                    return null;
+                }
+                if (keys[2 * slot] == high && keys[2 * slot + 1] == low) {
+                    return value;
+                }
+            }
+        }
+
+        // find returns the slot holding the key, or -(the empty slot where it belongs) - 1
+        private int find(long hash, long high, long low) {
+            for (int slot = indexFor(hash); ; slot = (slot + 1) & mask) {
+                if (values.get(slot) == null) {
+                    return -slot - 1;
+                }
+                if (keys[2 * slot] == high && keys[2 * slot + 1] == low) {
+                    return slot;
+                }
+            }
+        }
+
+        private void put(int slot, long high, long low, V value) {
+            keys[2 * slot] = high;
+            keys[2 * slot + 1] = low;
+            // publishes the key
+            values.set(slot, value);
+        }
+
+        private Table<V> grow() {
+            Table<V> next = new Table<>(2 * values.length());
+            for (int slot = 0; slot < values.length(); slot++) {
+                V value = values.get(slot);
+                if (value != null) {
+                    long high = keys[2 * slot];
+                    long low = keys[2 * slot + 1];
+                    next.put(-next.find(hash(high, low), high, low) - 1, high, low, value);
+                }
+            }
+            return next;
+        }
+
+        private int indexFor(long hash) {
+            return (int) (hash >>> 32) & mask;
+        }
+    }
+}
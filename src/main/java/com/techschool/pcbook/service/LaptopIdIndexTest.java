@@ -0,0 +1,138 @@
+package com.techschool.pcbook.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class LaptopIdIndexTest {
+
+    @Test
+    public void uuidBits() {
+        UUID uuid = UUID.randomUUID();
+        String id = uuid.toString();
+
+        assertTrue(LaptopIdIndex.isCanonicalUuid(id));
+        assertEquals(uuid.getMostSignificantBits(), LaptopIdIndex.highBits(id));
+        assertEquals(uuid.getLeastSignificantBits(), LaptopIdIndex.lowBits(id));
+
+        assertFalse(LaptopIdIndex.isCanonicalUuid(id.toUpperCase()));
+        assertFalse(LaptopIdIndex.isCanonicalUuid(id.replace('-', '_')));
+        assertFalse(LaptopIdIndex.isCanonicalUuid("1-1-1-1-1"));
+        assertFalse(LaptopIdIndex.isCanonicalUuid(""));
+    }
+
+    @Test
+    public void putAndGet() {
+        LaptopIdIndex<String> index = new LaptopIdIndex<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            String id = UUID.randomUUID().toString();
+            ids.add(id);
+            assertNull(index.putIfAbsent(id, "value-" + i));
+        }
+        index.putIfAbsent("laptop-1", "other");
+
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals("value-" + i, index.get(ids.get(i)));
+        }
+        assertEquals("value-0", index.putIfAbsent(ids.get(0), "again"));
+        assertEquals("other", index.get("laptop-1"));
+        assertNull(index.get(UUID.randomUUID().toString()));
+
+        // an upper case UUID is another ID, as it is for a String key
+        assertNull(index.get(ids.get(0).toUpperCase()));
+
+        assertEquals(10001, index.size());
+        assertEquals(10001, index.values().count());
+        assertTrue(index.values().collect(Collectors.toSet()).contains("other"));
+    }
+
+    @Test
+    public void compute() {
+        LaptopIdIndex<Integer> index = new LaptopIdIndex<>();
+        String uuid = UUID.randomUUID().toString();
+
+        for (int i = 0; i < 3; i++) {
+            index.compute(uuid, (id, previous) -> previous == null ? 1 : previous + 1);
+            index.compute("laptop-1", (id, previous) -> previous == null ? 10 : previous + 10);
+        }
+
+        assertEquals(Integer.valueOf(3), index.get(uuid));
+        assertEquals(Integer.valueOf(30), index.get("laptop-1"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void concurrentCompute() throws Exception {
+        LaptopIdIndex<Integer> index = new LaptopIdIndex<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread writer = new Thread(() -> {
+                for (int round = 0; round < 100; round++) {
+                    for (String id : ids) {
+                        index.compute(id, (key, previous) -> previous == null ? 1 : previous + 1);
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        for (String id : ids) {
+            assertEquals(Integer.valueOf(400), index.get(id));
+        }
+        assertEquals(ids.size(), index.size());
+    }
+
+    @Test
+    public void readersDuringGrowth() throws Exception {
+        LaptopIdIndex<String> index = new LaptopIdIndex<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 50000; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                // an ID stored before the last one seen must be found, whatever the table is
+                for (int i = ids.size() - 1; i >= 0; i--) {
+                    if (index.get(ids.get(i)) != null) {
+                        for (int j = 0; j <= i; j++) {
+                            if (!ids.get(j).equals(index.get(ids.get(j)))) {
+                                failure.set("missing " + j + " after " + i);
+                            }
+                        }
+                        break;
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        for (String id : ids) {
+            index.putIfAbsent(id, id);
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(ids.size(), index.size());
+    }
+}
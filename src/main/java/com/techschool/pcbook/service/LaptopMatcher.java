@@ -0,0 +1,239 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// LaptopMatcher is a LaptopFilter compiled once per request.
+// Only the predicates the filter sets are kept, so a search pays nothing for the options it
+// doesn't use. They run in order of cost per rejected laptop: a cheap field comparison that
+// rejects half the laptops runs before a name match that rejects nine in ten but reads every
+// name of the laptop.
+public class LaptopMatcher {
+    private static final double kgPerLb = 0.45359237;
+
+    // relative costs of a check: one field, a loop over the GPUs or storages, the name words
+    private static final double fieldCost = 1;
+    private static final double repeatedCost = 3;
+    private static final double nameCost = 30;
+
+    private final Predicate[] predicates;
+
+    private LaptopMatcher(Predicate[] predicates) {
+        this.predicates = predicates;
+    }
+
+    public boolean matches(Laptop laptop) {
+        for (Predicate predicate : predicates) {
+            if (!predicate.test(laptop)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getPredicateCount() {
+        return predicates.length;
+    }
+
+    public static LaptopMatcher compile(LaptopFilter filter) {
+        List<Predicate> predicates = new ArrayList<>();
+
+        // the original four predicates are always checked, as before
+        double maxPrice = filter.getMaxPriceUsd();
+        predicates.add(new Predicate(0.5, laptop -> laptop.getPriceUsd() <= maxPrice));
+
+        int minCores = filter.getMinCpuCores();
+        if (minCores > 0) {
+            predicates.add(new Predicate(0.5, laptop -> laptop.getCpu().getNumCores() >= minCores));
+        }
+
+        double minGhz = filter.getMinCpuGhz();
+        if (minGhz > 0) {
+            predicates.add(new Predicate(0.5, laptop -> laptop.getCpu().getMinGhz() >= minGhz));
+        }
+
+        long minRam = LaptopFilterUtil.toBit(filter.getMinRam());
+        if (minRam > 0) {
+            predicates.add(new Predicate(0.5, laptop -> LaptopFilterUtil.toBit(laptop.getRam()) >= minRam));
+        }
+
+        if (filter.getBrandsCount() > 0) {
+            Set<String> brands = new HashSet<>(filter.getBrandsList());
+            predicates.add(new Predicate(Math.min(1, 0.2 * brands.size()), laptop -> brands.contains(laptop.getBrand())));
+        }
+
+        if (filter.getCpuBrandsCount() > 0) {
+            Set<String> cpuBrands = new HashSet<>(filter.getCpuBrandsList());
+            predicates.add(new Predicate(Math.min(1, 0.33 * cpuBrands.size()),
+                    laptop -> cpuBrands.contains(laptop.getCpu().getBrand())));
+        }
+
+        if (filter.getGpuBrandsCount() > 0) {
+            Set<String> gpuBrands = new HashSet<>(filter.getGpuBrandsList());
+            predicates.add(new Predicate(Math.min(1, 0.33 * gpuBrands.size()), repeatedCost, laptop -> {
+                for (GPU gpu : laptop.getGpuList()) {
+                    if (gpuBrands.contains(gpu.getBrand())) {
+                        return true;
+                    }
+                }
+                return false;
+            }));
+        }
+
+        if (filter.getStorageDriversCount() > 0) {
+            EnumSet<Storage.Driver> drivers = EnumSet.noneOf(Storage.Driver.class);
+            drivers.addAll(filter.getStorageDriversList());
+            predicates.add(new Predicate(0.9, repeatedCost, laptop -> {
+                for (Storage storage : laptop.getStorageList()) {
+                    if (drivers.contains(storage.getDriver())) {
+                        return true;
+                    }
+                }
+                return false;
+            }));
+        }
+
+        if (filter.hasBacklit()) {
+            boolean backlit = filter.getBacklit();
+            predicates.add(new Predicate(0.5, laptop -> laptop.getKeyboard().getBacklit() == backlit));
+        }
+
+        if (filter.hasMultiTouch()) {
+            boolean multiTouch = filter.getMultiTouch();
+            predicates.add(new Predicate(0.5, laptop -> laptop.getScreen().getMultiTouch() == multiTouch));
+        }
+
+        // the query is tokenized once here, the laptop's names are read in place
+        List<String> words = LaptopNameIndex.tokenize(filter.getNameQuery());
+        if (!words.isEmpty()) {
+            predicates.add(new Predicate(0.1, nameCost, laptop -> LaptopNameIndex.matches(words, laptop)));
+        }
+
+        long minGpuMemory = LaptopFilterUtil.toBit(filter.getMinGpuMemory());
+        if (minGpuMemory > 0) {
+            predicates.add(new Predicate(0.5, repeatedCost, laptop -> {
+                for (GPU gpu : laptop.getGpuList()) {
+                    if (LaptopFilterUtil.toBit(gpu.getMemory()) >= minGpuMemory) {
+                        return true;
+                    }
+                }
+                return false;
+            }));
+        }
+
+        long minSsd = LaptopFilterUtil.toBit(filter.getMinSsdCapacity());
+        if (minSsd > 0) {
+            predicates.add(new Predicate(0.5, repeatedCost, laptop -> {
+                long total = 0;
+                for (Storage storage : laptop.getStorageList()) {
+                    if (storage.getDriver() == Storage.Driver.SSD) {
+                        total += LaptopFilterUtil.toBit(storage.getMemory());
+                    }
+                }
+                return total >= minSsd;
+            }));
+        }
+
+        float minInch = filter.getMinScreenInch();
+        if (minInch > 0) {
+            predicates.add(new Predicate(0.5, laptop -> laptop.getScreen().getSizeInch() >= minInch));
+        }
+
+        float maxInch = filter.getMaxScreenInch();
+        if (maxInch > 0) {
+            predicates.add(new Predicate(0.5, laptop -> laptop.getScreen().getSizeInch() <= maxInch));
+        }
+
+        int minWidth = filter.getMinResolutionWidth();
+        int minHeight = filter.getMinResolutionHeight();
+        if (minWidth > 0 || minHeight > 0) {
+            predicates.add(new Predicate(0.5, laptop -> {
+                Screen.Resolution resolution = laptop.getScreen().getResolution();
+                return resolution.getWidth() >= minWidth && resolution.getHeight() >= minHeight;
+            }));
+        }
+
+        if (filter.getPanelsCount() > 0) {
+            EnumSet<Screen.Panel> panels = EnumSet.noneOf(Screen.Panel.class);
+            panels.addAll(filter.getPanelsList());
+            double selectivity = (double) panels.size() / (Screen.Panel.values().length - 2);
+            predicates.add(new Predicate(selectivity, laptop -> panels.contains(laptop.getScreen().getPanel())));
+        }
+
+        if (filter.getKeyboardLayoutsCount() > 0) {
+            EnumSet<Keyboard.Layout> layouts = EnumSet.noneOf(Keyboard.Layout.class);
+            layouts.addAll(filter.getKeyboardLayoutsList());
+            double selectivity = (double) layouts.size() / (Keyboard.Layout.values().length - 2);
+            predicates.add(new Predicate(selectivity, laptop -> layouts.contains(laptop.getKeyboard().getLayout())));
+        }
+
+        float minKg = filter.getMinWeightKg();
+        float maxKg = filter.getMaxWeightKg();
+        if (minKg > 0 || maxKg > 0) {
+            predicates.add(new Predicate(0.5, laptop -> {
+                double kg = weightKg(laptop);
+                return kg >= minKg && (maxKg <= 0 || kg <= maxKg);
+            }));
+        }
+
+        int minYear = filter.getMinReleaseYear();
+        int maxYear = filter.getMaxReleaseYear();
+        if (minYear > 0 || maxYear > 0) {
+            predicates.add(new Predicate(0.5, laptop -> {
+                int year = laptop.getReleaseYear();
+                return year >= minYear && (maxYear <= 0 || year <= maxYear);
+            }));
+        }
+
+        // stable sort: predicates with the same rank keep the order above
+        predicates.sort(Comparator.comparingDouble(Predicate::rank));
+        return new LaptopMatcher(predicates.toArray(new Predicate[0]));
+    }
+
+    private static double weightKg(Laptop laptop) {
+        switch (laptop.getWeightCase()) {
+            case WEIGHT_KG:
+                return laptop.getWeightKg();
+            case WEIGHT_LBS:
+                return laptop.getWeightLbs() * kgPerLb;
+            default:
+                return 0;
+        }
+    }
+
+    private interface Check {
+        boolean test(Laptop laptop);
+    }
+
+    private static class Predicate {
+        // selectivity is the estimated fraction of laptops that pass
+        private final double selectivity;
+        private final double cost;
+        private final Check check;
+
+        private Predicate(double selectivity, Check check) {
+            this(selectivity, fieldCost, check);
+        }
+
+        private Predicate(double selectivity, double cost, Check check) {
+            this.selectivity = selectivity;
+            this.cost = cost;
+            this.check = check;
+        }
+
+        // rank is the expected cost per laptop rejected, lowest runs first
+        private double rank() {
+            return selectivity >= 1 ? Double.MAX_VALUE : cost / (1 - selectivity);
+        }
+
+        private boolean test(Laptop laptop) {
+            return check.test(laptop);
+        }
+    }
+}
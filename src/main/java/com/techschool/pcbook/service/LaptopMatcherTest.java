@@ -0,0 +1,72 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.*;
+import com.techschool.pcbook.sample.Generator;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LaptopMatcherTest {
+
+    @Test
+    public void matchesExtendedPredicates() {
+        Laptop laptop = new Generator().NewLaptop().toBuilder()
+                .setBrand("Dell")
+                .setPriceUsd(2000)
+                .setWeightLbs(4)
+                .setReleaseYear(2020)
+                .build();
+
+        LaptopFilter filter = LaptopFilter.newBuilder()
+                .setMaxPriceUsd(3000)
+                .addBrands("Apple")
+                .addBrands("Dell")
+                .addPanels(laptop.getScreen().getPanel())
+                .addKeyboardLayouts(laptop.getKeyboard().getLayout())
+                .setMinSsdCapacity(Memory.newBuilder().setValue(128).setUnit(Memory.Unit.GIGABYTE))
+                .setMaxWeightKg(2)
+                .setMinReleaseYear(2019)
+                .build();
+        assertTrue(LaptopMatcher.compile(filter).matches(laptop));
+
+        assertFalse(LaptopMatcher.compile(filter.toBuilder().clearBrands().addBrands("Asus").build()).matches(laptop));
+        assertFalse(LaptopMatcher.compile(filter.toBuilder().setMaxWeightKg(1.5f).build()).matches(laptop));
+        assertFalse(LaptopMatcher.compile(filter.toBuilder().setMaxReleaseYear(2019).build()).matches(laptop));
+        assertFalse(LaptopMatcher.compile(filter.toBuilder().setMaxPriceUsd(1000).build()).matches(laptop));
+    }
+
+    @Test
+    public void skipsUnsetPredicates() {
+        LaptopFilter filter = LaptopFilter.newBuilder().setMaxPriceUsd(3000).build();
+        assertEquals(1, LaptopMatcher.compile(filter).getPredicateCount());
+    }
+
+    @Test
+    public void matchesNameWordsInPlace() {
+        assertTrue(LaptopNameIndex.startsWord("MacBook Pro", "pro"));
+        assertTrue(LaptopNameIndex.startsWord("ThinkPad X1-Carbon", "carbon"));
+        assertFalse(LaptopNameIndex.startsWord("MacBook Pro", "book"));
+        assertFalse(LaptopNameIndex.startsWord("Pro", "pros"));
+
+        // the in-place check agrees with the term set the index is built from
+        Generator generator = new Generator();
+        String[] queries = {"mac", "thinkpad x", "core i7", "gtx", "radeon rx", "dell xps", "u"};
+        for (int i = 0; i < 1000; i++) {
+            Laptop laptop = generator.NewLaptop();
+            for (String query : queries) {
+                List<String> words = LaptopNameIndex.tokenize(query);
+                boolean expected = true;
+                for (String word : words) {
+                    boolean found = false;
+                    for (String term : LaptopNameIndex.terms(laptop)) {
+                        found |= term.startsWith(word);
+                    }
+                    expected &= found;
+                }
+                assertEquals(query, expected, LaptopNameIndex.matches(words, laptop));
+            }
+        }
+    }
+}
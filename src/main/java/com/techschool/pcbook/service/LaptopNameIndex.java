@@ -0,0 +1,190 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.GPU;
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.LaptopFilter;
+import com.techschool.pcbook.pb.NameSuggestion;
+import io.grpc.Context;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// LaptopNameIndex is a sorted term dictionary over the brand, name, CPU name and GPU name
+// of every laptop. Each term maps to a bitmap of laptop ordinals, so a prefix is a range
+// of the dictionary and a query is the AND of the unions of its prefix ranges.
+//
+// Like RoaringBitmap, add must be called by a single writer and readers need no lock.
+public class LaptopNameIndex {
+    private final ConcurrentSkipListMap<String, RoaringBitmap> postings = new ConcurrentSkipListMap<>();
+
+    public void add(Laptop laptop, int ordinal) {
+        for (String term : terms(laptop)) {
+            postings.computeIfAbsent(term, k -> new RoaringBitmap()).add(ordinal);
+        }
+    }
+
+    // match returns the ordinals of laptops matching every word of the query,
+    // or null if the query has no words.
+    public RoaringBitmap match(String query) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return null;
+        }
+
+        RoaringBitmap result = null;
+        for (String word : words) {
+            RoaringBitmap union = new RoaringBitmap();
+            for (RoaringBitmap bitmap : prefixRange(word).values()) {
+                union = RoaringBitmap.or(union, bitmap);
+            }
+            result = result == null ? union : RoaringBitmap.and(result, union);
+        }
+        return result;
+    }
+
+    // suggest returns the terms starting with the last word of prefix, most common first
+    public List<NameSuggestion> suggest(String prefix, int limit) {
+        List<String> words = tokenize(prefix);
+        if (words.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        PriorityQueue<NameSuggestion> best = new PriorityQueue<>(limit + 1, byCount);
+        for (Map.Entry<String, RoaringBitmap> entry : prefixRange(words.get(words.size() - 1)).entrySet()) {
+            best.add(NameSuggestion.newBuilder()
+                    .setTerm(entry.getKey())
+                    .setCount(entry.getValue().cardinality())
+                    .build());
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        return sortByCount(best);
+    }
+
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    private ConcurrentNavigableMap<String, RoaringBitmap> prefixRange(String prefix) {
+        return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private static final Comparator<NameSuggestion> byCount = Comparator
+            .comparingInt(NameSuggestion::getCount)
+            .thenComparing(NameSuggestion::getTerm, Comparator.reverseOrder());
+
+    private static List<NameSuggestion> sortByCount(Collection<NameSuggestion> suggestions) {
+        List<NameSuggestion> sorted = new ArrayList<>(suggestions);
+        sorted.sort(byCount.reversed());
+        return sorted;
+    }
+
+    public static Set<String> terms(Laptop laptop) {
+        Set<String> terms = new HashSet<>();
+        terms.addAll(tokenize(laptop.getBrand()));
+        terms.addAll(tokenize(laptop.getName()));
+        terms.addAll(tokenize(laptop.getCpu().getName()));
+        for (GPU gpu : laptop.getGpuList()) {
+            terms.addAll(tokenize(gpu.getName()));
+        }
+        return terms;
+    }
+
+    // tokenize lower-cases text and splits it into words of letters and digits
+    public static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // matches is the index-free check of a query against one laptop. Every word must start
+    // a word of the brand, name, CPU name or a GPU name. The names are read in place, without
+    // tokenizing them or building the laptop's term set.
+    public static boolean matches(List<String> words, Laptop laptop) {
+        for (String word : words) {
+            if (!startsWord(laptop.getBrand(), word) && !startsWord(laptop.getName(), word)
+                    && !startsWord(laptop.getCpu().getName(), word) && !startsGpuWord(laptop, word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsGpuWord(Laptop laptop, String word) {
+        for (GPU gpu : laptop.getGpuList()) {
+            if (startsWord(gpu.getName(), word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // startsWord tells whether a word of text, as tokenize splits and lower-cases it, starts with prefix
+    static boolean startsWord(String text, String prefix) {
+        int last = text.length() - prefix.length();
+        for (int i = 0; i <= last; i++) {
+            if (i > 0 && Character.isLetterOrDigit(text.charAt(i - 1))) {
+                continue;
+            }
+            int k = 0;
+            while (k < prefix.length() && Character.toLowerCase(text.charAt(i + k)) == prefix.charAt(k)) {
+                k++;
+            }
+            if (k == prefix.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // scanSuggest builds suggestions by searching every laptop of a store without an index
+    public static List<NameSuggestion> scanSuggest(LaptopStore store, String prefix, int limit) {
+        List<String> words = tokenize(prefix);
+        if (words.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        String word = words.get(words.size() - 1);
+
+        Map<String, Integer> counts = new HashMap<>();
+        LaptopFilter all = LaptopFilter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+        store.Search(Context.current(), all, laptop -> {
+            for (String term : terms(laptop)) {
+                if (term.startsWith(word)) {
+                    counts.merge(term, 1, Integer::sum);
+                }
+            }
+        });
+
+        List<NameSuggestion> suggestions = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            suggestions.add(NameSuggestion.newBuilder().setTerm(entry.getKey()).setCount(entry.getValue()).build());
+        }
+        return top(suggestions, limit);
+    }
+
+    // top returns the limit most common suggestions, merging counts of the same term
+    public static List<NameSuggestion> top(Collection<NameSuggestion> suggestions, int limit) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (NameSuggestion suggestion : suggestions) {
+            counts.merge(suggestion.getTerm(), suggestion.getCount(), Integer::sum);
+        }
+
+        List<NameSuggestion> merged = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            merged.add(NameSuggestion.newBuilder().setTerm(entry.getKey()).setCount(entry.getValue()).build());
+        }
+        List<NameSuggestion> sorted = sortByCount(merged);
+        return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+    }
+}
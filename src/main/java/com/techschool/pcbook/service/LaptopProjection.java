@@ -0,0 +1,282 @@
+package com.techschool.pcbook.service;
+
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.util.FieldMaskUtil;
+import com.techschool.pcbook.pb.CPU;
+import com.techschool.pcbook.pb.Keyboard;
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.Memory;
+import com.techschool.pcbook.pb.Screen;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+// LaptopProjection copies only the fields listed in a FieldMask.
+// A mask is compiled once into a list of typed copies, one per selected field, that call the
+// generated getters and setters directly. Applying it parses no paths and goes through no
+// descriptors, so a projection costs less CPU than the full laptop it replaces.
+// A field selected as a whole is shared with the source, as protobuf messages are immutable.
+public class LaptopProjection {
+    private static final int maxCachedMasks = 1024;
+    private static final ConcurrentMap<FieldMask, LaptopProjection> cache = new ConcurrentHashMap<>();
+
+    private final Copier<Laptop, Laptop.Builder> copier;
+
+    private LaptopProjection(Copier<Laptop, Laptop.Builder> copier) {
+        this.copier = copier;
+    }
+
+    // of returns the projection for the mask, or null if the mask selects every field.
+    public static LaptopProjection of(FieldMask mask) {
+        if (mask.getPathsCount() == 0) {
+            return null;
+        }
+
+        LaptopProjection projection = cache.get(mask);
+        if (projection != null) {
+            return projection;
+        }
+
+        if (!FieldMaskUtil.isValid(Laptop.class, mask)) {
+            throw new IllegalArgumentException("invalid field mask: " + mask.getPathsList());
+        }
+
+        projection = compile(mask);
+        // masks come from clients, so stop caching rather than grow without bound
+        if (cache.size() < maxCachedMasks) {
+            cache.putIfAbsent(mask, projection);
+        }
+        return projection;
+    }
+
+    public Laptop apply(Laptop laptop) {
+        Laptop.Builder builder = Laptop.newBuilder();
+        copier.copy(laptop, builder);
+        return builder.build();
+    }
+
+    private static LaptopProjection compile(FieldMask mask) {
+        Map<String, Object> tree = new LinkedHashMap<>();
+        for (String path : FieldMaskUtil.normalize(mask).getPathsList()) {
+            Map<String, Object> current = tree;
+            String[] parts = path.split("\\.");
+            for (int i = 0; i < parts.length; i++) {
+                if (i == parts.length - 1) {
+                    current.put(parts[i], null);
+                    break;
+                }
+                if (current.containsKey(parts[i]) && current.get(parts[i]) == null) {
+                    // the whole parent field is already selected
+                    break;
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> child = (Map<String, Object>) current.computeIfAbsent(parts[i], k -> new LinkedHashMap<>());
+                current = child;
+            }
+        }
+
+        return new LaptopProjection(fields(tree, LaptopProjection::laptopField));
+    }
+
+    // fields compiles the selected fields of one message type, field returns the copy of one of
+    // them given the fields selected inside it. It returns null when tree is null: the whole
+    // message is selected.
+    @SuppressWarnings("unchecked")
+    private static <M, B> Copier<M, B> fields(Map<String, Object> tree,
+                                             BiFunction<String, Map<String, Object>, Copier<M, B>> field) {
+        if (tree == null) {
+            return null;
+        }
+        Copier<M, B>[] copiers = new Copier[tree.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : tree.entrySet()) {
+            copiers[i++] = field.apply(entry.getKey(), (Map<String, Object>) entry.getValue());
+        }
+        if (copiers.length == 1) {
+            return copiers[0];
+        }
+        return (source, target) -> {
+            for (Copier<M, B> copier : copiers) {
+                copier.copy(source, target);
+            }
+        };
+    }
+
+    private static Copier<Laptop, Laptop.Builder> laptopField(String name, Map<String, Object> selected) {
+        switch (name) {
+            case "id":
+                return (source, target) -> target.setId(source.getId());
+            case "brand":
+                return (source, target) -> target.setBrand(source.getBrand());
+            case "name":
+                return (source, target) -> target.setName(source.getName());
+            case "cpu": {
+                Copier<CPU, CPU.Builder> copier = fields(selected, LaptopProjection::cpuField);
+                return (source, target) -> {
+                    if (source.hasCpu()) {
+                        target.setCpu(copier == null ? source.getCpu() : copy(source.getCpu(), CPU.newBuilder(), copier).build());
+                    }
+                };
+            }
+            case "ram": {
+                Copier<Memory, Memory.Builder> copier = fields(selected, LaptopProjection::memoryField);
+                return (source, target) -> {
+                    if (source.hasRam()) {
+                        target.setRam(copier == null ? source.getRam() : copy(source.getRam(), Memory.newBuilder(), copier).build());
+                    }
+                };
+            }
+            // the mask was checked with FieldMaskUtil.isValid, which rejects subfields of repeated fields
+            case "gpu":
+                return (source, target) -> target.addAllGpu(source.getGpuList());
+            case "storage":
+                return (source, target) -> target.addAllStorage(source.getStorageList());
+            case "screen": {
+                Copier<Screen, Screen.Builder> copier = fields(selected, LaptopProjection::screenField);
+                return (source, target) -> {
+                    if (source.hasScreen()) {
+                        target.setScreen(copier == null ? source.getScreen() : copy(source.getScreen(), Screen.newBuilder(), copier).build());
+                    }
+                };
+            }
+            case "keyboard": {
+                Copier<Keyboard, Keyboard.Builder> copier = fields(selected, LaptopProjection::keyboardField);
+                return (source, target) -> {
+                    if (source.hasKeyboard()) {
+                        target.setKeyboard(copier == null ? source.getKeyboard() : copy(source.getKeyboard(), Keyboard.newBuilder(), copier).build());
+                    }
+                };
+            }
+            case "weight_kg":
+                return (source, target) -> {
+                    if (source.getWeightCase() == Laptop.WeightCase.WEIGHT_KG) {
+                        target.setWeightKg(source.getWeightKg());
+                    }
+                };
+            case "weight_lbs":
+                return (source, target) -> {
+                    if (source.getWeightCase() == Laptop.WeightCase.WEIGHT_LBS) {
+                        target.setWeightLbs(source.getWeightLbs());
+                    }
+                };
+            case "price_usd":
+                return (source, target) -> target.setPriceUsd(source.getPriceUsd());
+            case "release_year":
+                return (source, target) -> target.setReleaseYear(source.getReleaseYear());
+            case "updated_at": {
+                Copier<Timestamp, Timestamp.Builder> copier = fields(selected, LaptopProjection::timestampField);
+                return (source, target) -> {
+                    if (source.hasUpdatedAt()) {
+                        target.setUpdatedAt(copier == null ? source.getUpdatedAt() : copy(source.getUpdatedAt(), Timestamp.newBuilder(), copier).build());
+                    }
+                };
+            }
+            default:
+                throw unknownField("Laptop", name);
+        }
+    }
+
+    private static Copier<CPU, CPU.Builder> cpuField(String name, Map<String, Object> selected) {
+        switch (name) {
+            case "brand":
+                return (source, target) -> target.setBrand(source.getBrand());
+            case "name":
+                return (source, target) -> target.setName(source.getName());
+            case "num_cores":
+                return (source, target) -> target.setNumCores(source.getNumCores());
+            case "num_threads":
+                return (source, target) -> target.setNumThreads(source.getNumThreads());
+            case "min_ghz":
+                return (source, target) -> target.setMinGhz(source.getMinGhz());
+            case "max_ghz":
+                return (source, target) -> target.setMaxGhz(source.getMaxGhz());
+            default:
+                throw unknownField("CPU", name);
+        }
+    }
+
+    private static Copier<Memory, Memory.Builder> memoryField(String name, Map<String, Object> selected) {
+        switch (name) {
+            case "value":
+                return (source, target) -> target.setValue(source.getValue());
+            case "unit":
+                return (source, target) -> target.setUnitValue(source.getUnitValue());
+            default:
+                throw unknownField("Memory", name);
+        }
+    }
+
+    private static Copier<Screen, Screen.Builder> screenField(String name, Map<String, Object> selected) {
+        switch (name) {
+            case "size_inch":
+                return (source, target) -> target.setSizeInch(source.getSizeInch());
+            case "resolution": {
+                Copier<Screen.Resolution, Screen.Resolution.Builder> copier = fields(selected, LaptopProjection::resolutionField);
+                return (source, target) -> {
+                    if (source.hasResolution()) {
+                        target.setResolution(copier == null ? source.getResolution()
+                                : copy(source.getResolution(), Screen.Resolution.newBuilder(), copier).build());
+                    }
+                };
+            }
+            case "panel":
+                return (source, target) -> target.setPanelValue(source.getPanelValue());
+            case "multi_touch":
+                return (source, target) -> target.setMultiTouch(source.getMultiTouch());
+            default:
+                throw unknownField("Screen", name);
+        }
+    }
+
+    private static Copier<Screen.Resolution, Screen.Resolution.Builder> resolutionField(String name, Map<String, Object> selected) {
+        switch (name) {
+            case "width":
+                return (source, target) -> target.setWidth(source.getWidth());
+            case "height":
+                return (source, target) -> target.setHeight(source.getHeight());
+            default:
+                throw unknownField("Resolution", name);
+        }
+    }
+
+    private static Copier<Keyboard, Keyboard.Builder> keyboardField(String name, Map<String, Object> selected) {
+        switch (name) {
+            case "layout":
+                return (source, target) -> target.setLayoutValue(source.getLayoutValue());
+            case "backlit":
+                return (source, target) -> target.setBacklit(source.getBacklit());
+            default:
+                throw unknownField("Keyboard", name);
+        }
+    }
+
+    private static Copier<Timestamp, Timestamp.Builder> timestampField(String name, Map<String, Object> selected) {
+        switch (name) {
+            case "seconds":
+                return (source, target) -> target.setSeconds(source.getSeconds());
+            case "nanos":
+                return (source, target) -> target.setNanos(source.getNanos());
+            default:
+                throw unknownField("Timestamp", name);
+        }
+    }
+
+    private static <M, B> B copy(M source, B target, Copier<M, B> copier) {
+        copier.copy(source, target);
+        return target;
+    }
+
+    // a new field of these messages needs a case here, the mask was checked against the descriptors
+    private static IllegalArgumentException unknownField(String message, String name) {
+        return new IllegalArgumentException("field mask selects " + message + "." + name + ", which has no projection");
+    }
+
+    // Copier copies the selected fields of source into target
+    private interface Copier<M, B> {
+        void copy(M source, B target);
+    }
+}
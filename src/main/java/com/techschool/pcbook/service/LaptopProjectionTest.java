@@ -0,0 +1,70 @@
+package com.techschool.pcbook.service;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.util.FieldMaskUtil;
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.sample.Generator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LaptopProjectionTest {
+
+    @Test
+    public void everyFieldMatchesFieldMaskUtil() {
+        List<String> paths = new ArrayList<>();
+        collectPaths(Laptop.getDescriptor(), "", paths);
+
+        Generator generator = new Generator();
+        for (int i = 0; i < 20; i++) {
+            Laptop laptop = generator.NewLaptop();
+            for (String path : paths) {
+                assertProjects(laptop, FieldMask.newBuilder().addPaths(path).build());
+            }
+            assertProjects(laptop, FieldMask.newBuilder().addAllPaths(paths).build());
+            assertProjects(laptop, FieldMask.newBuilder()
+                    .addPaths("id").addPaths("cpu.name").addPaths("cpu").addPaths("screen.resolution.width")
+                    .addPaths("screen.panel").addPaths("weight_lbs").build());
+        }
+    }
+
+    @Test
+    public void rejectsInvalidMask() {
+        assertNull(LaptopProjection.of(FieldMask.getDefaultInstance()));
+        try {
+            LaptopProjection.of(FieldMask.newBuilder().addPaths("cpu.colour").build());
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            LaptopProjection.of(FieldMask.newBuilder().addPaths("gpu.name").build());
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertProjects(Laptop laptop, FieldMask mask) {
+        // fields the laptop doesn't have stay unset, rather than set to their default
+        Laptop.Builder expected = Laptop.newBuilder();
+        FieldMaskUtil.merge(mask, laptop, expected, new FieldMaskUtil.MergeOptions().setReplacePrimitiveFields(true));
+        assertEquals(mask.getPathsList().toString(), expected.build(), LaptopProjection.of(mask).apply(laptop));
+    }
+
+    // collectPaths lists every field and subfield path, except subfields of repeated fields,
+    // which a valid mask can't select
+    private static void collectPaths(Descriptors.Descriptor descriptor, String prefix, List<String> paths) {
+        for (Descriptors.FieldDescriptor field : descriptor.getFields()) {
+            String path = prefix + field.getName();
+            paths.add(path);
+            if (field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE && !field.isRepeated()) {
+                collectPaths(field.getMessageType(), path + ".", paths);
+            }
+        }
+    }
+}
@@ -2,7 +2,8 @@ package com.techschool.pcbook.service;
 
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
-import io.grpc.netty.GrpcSslContexts;
+import io.grpc.ServerInterceptors;
+import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.netty.NettyServerBuilder;
 import io.grpc.protobuf.services.ProtoReflectionService;
 import io.netty.handler.ssl.ClientAuth;
@@ -13,6 +14,7 @@ import javax.net.ssl.SSLException;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 public class LaptopServer {
@@ -20,6 +22,11 @@ public class LaptopServer {
 
     private final int port;
     private final Server server;
+    private final CompressionStats compressionStats;
+    private final ConcurrencyLimitInterceptor concurrencyLimiter;
+    private final ClientRateLimitInterceptor clientRateLimiter;
+    private final RatingStore ratingStore;
+    private final AtomicBoolean ratingStoreClosed = new AtomicBoolean();
 
     public LaptopServer(int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore) {
         this(ServerBuilder.forPort(port), port, laptopStore, imageStore, ratingStore);
@@ -31,14 +38,62 @@ public class LaptopServer {
     }
 
     public LaptopServer(ServerBuilder serverBuilder, int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore) {
+        this(serverBuilder, port, laptopStore, imageStore, ratingStore, CompressionConfig.forServer());
+    }
+
+    public LaptopServer(ServerBuilder serverBuilder, int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore,
+                        CompressionConfig compressionConfig) {
+        this(serverBuilder, port, laptopStore, imageStore, ratingStore, compressionConfig, null);
+    }
+
+    // uploadSessions enables resumable uploads, it may be null
+    public LaptopServer(ServerBuilder serverBuilder, int port, LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore,
+                        CompressionConfig compressionConfig, UploadSessionStore uploadSessions) {
         this.port = port;
-        LaptopService laptopService = new LaptopService(laptopStore, imageStore, ratingStore);
+        this.compressionStats = new CompressionStats();
+        this.concurrencyLimiter = ConcurrencyLimitInterceptor.forServer();
+        this.clientRateLimiter = ClientRateLimitInterceptor.forServer();
+        this.ratingStore = ratingStore;
+        LaptopService laptopService = new LaptopService(laptopStore, imageStore, ratingStore, uploadSessions);
         server = serverBuilder
-                .addService(laptopService)
+                .compressorRegistry(CompressionConfig.compressorRegistry())
+                .decompressorRegistry(CompressionConfig.decompressorRegistry())
+                .addStreamTracerFactory(compressionStats.serverTracerFactory())
+                // interceptors run last to first: a client over its own share is rejected
+                // before it takes a slot of the server-wide limit
+                .addService(ServerInterceptors.intercept(laptopService,
+                        new CompressionServerInterceptor(compressionConfig), concurrencyLimiter, clientRateLimiter))
                 .addService(ProtoReflectionService.newInstance())
                 .build();
     }
 
+    // inProcess hosts the server inside this JVM under name, for callers in the same process:
+    // see LaptopClient.inProcess. Calls skip the network, TLS and HTTP/2, and as protobuf messages
+    // are immutable they are handed over by reference instead of being serialized.
+    // directExecutor runs the service on the calling thread, which saves a thread switch per call
+    // but lets a slow call, such as a large search, hold up the caller.
+    public static LaptopServer inProcess(String name, boolean directExecutor, LaptopStore laptopStore,
+                                         ImageStore imageStore, RatingStore ratingStore) {
+        InProcessServerBuilder serverBuilder = InProcessServerBuilder.forName(name);
+        if (directExecutor) {
+            serverBuilder.directExecutor();
+        }
+        // there is nothing to gain from compressing a message that is never sent over a wire
+        return new LaptopServer(serverBuilder, 0, laptopStore, imageStore, ratingStore, CompressionConfig.disabled());
+    }
+
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    public ConcurrencyLimitInterceptor getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    public ClientRateLimitInterceptor getClientRateLimiter() {
+        return clientRateLimiter;
+    }
+
     public void start() throws IOException {
         server.start();
         logger.info("server started on port " + port);
@@ -58,10 +113,19 @@ public class LaptopServer {
 
     }
 
+    // stop waits for the calls in flight, then closes a DurableRatingStore so its last deltas
+    // are flushed and checkpointed: no call can rate a laptop any more
     public void stop() throws InterruptedException {
         if (server != null) {
             server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
         }
+        if (ratingStore instanceof DurableRatingStore && ratingStoreClosed.compareAndSet(false, true)) {
+            try {
+                ((DurableRatingStore) ratingStore).close();
+            } catch (IOException e) {
+                logger.warning("cannot close rating store: " + e.getMessage());
+            }
+        }
     }
 
     private void blockUntilShutdown() throws InterruptedException {
@@ -71,6 +135,10 @@ public class LaptopServer {
     }
 
     public static SslContext loadTLSCredentials() throws SSLException {
+        return loadTLSCredentials(TlsConfig.defaults());
+    }
+
+    public static SslContext loadTLSCredentials(TlsConfig tlsConfig) throws SSLException {
         File serverCertFile = new File("cert/server-cert.pem");
         File serverKeyFile = new File("cert/server-key.pem");
         File clientCACertFile = new File("cert/ca-cert.pem");
@@ -79,22 +147,58 @@ public class LaptopServer {
                 .clientAuth(ClientAuth.REQUIRE)
                 .trustManager(clientCACertFile);
 
-        return GrpcSslContexts.configure(ctxBuilder).build();
+        return tlsConfig.build(ctxBuilder);
     }
     public static void main(String[] args) {
-        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
-        DiskImageStore imageStore = new DiskImageStore("img");
-        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        CachedLaptopStore laptopStore = new CachedLaptopStore(
+                new IndexedLaptopStore(), 1000, 10000, 1, TimeUnit.MINUTES);
+        DiskImageStore diskImageStore = new DiskImageStore("img");
+        try {
+            int moved = diskImageStore.migrateFlatLayout();
+            if (moved > 0) {
+                logger.info("moved " + moved + " images to the sharded layout");
+            }
+        } catch (IOException e) {
+            logger.warning("Cannot migrate images: " + e.getMessage());
+            return;
+        }
+        ThumbnailPipeline imageStore = new ThumbnailPipeline(diskImageStore,
+                ThumbnailPipeline.defaultSizes(), 2, 1000, 100, TimeUnit.MILLISECONDS);
+        DurableRatingStore ratingStore;
+        try {
+            ratingStore = new DurableRatingStore("rating", 100, TimeUnit.MILLISECONDS,
+                    DurableRatingStore.FsyncPolicy.EVERY_FLUSH, 600);
+        } catch (IOException e) {
+            logger.warning("Cannot load ratings: " + e.getMessage());
+            return;
+        }
 
         SslContext sslContext;
         try {
-            sslContext = LaptopServer.loadTLSCredentials();
+            // servers sharing the ticket keys resume each other's sessions, also after a restart
+            File ticketKeyFile = new File("cert/ticket-keys");
+            if (!ticketKeyFile.exists()) {
+                logger.warning(ticketKeyFile + " doesn't exist, sessions won't resume after a restart");
+                ticketKeyFile = null;
+            }
+            sslContext = LaptopServer.loadTLSCredentials(TlsConfig.performance(ticketKeyFile));
         } catch (SSLException e) {
             logger.warning("Cannot load credentials: " + e.getMessage());
             return;
         }
 
-        LaptopServer server = new LaptopServer(50051, laptopStore, imageStore, ratingStore, sslContext);
+        UploadSessionStore uploadSessions;
+        try {
+            uploadSessions = new UploadSessionStore("upload", imageStore, 16L << 30, 24, TimeUnit.HOURS);
+        } catch (IOException e) {
+            logger.warning("Cannot load upload sessions: " + e.getMessage());
+            return;
+        }
+
+        NettyServerBuilder serverBuilder = TransportProfile.bulkTransfer()
+                .configure(NettyServerBuilder.forPort(50051).sslContext(sslContext));
+        LaptopServer server = new LaptopServer(serverBuilder, 50051,
+                laptopStore, imageStore, ratingStore, CompressionConfig.forServer(), uploadSessions);
         try {
             server.start();
         } catch(IOException e) {
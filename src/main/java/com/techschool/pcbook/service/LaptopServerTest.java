@@ -1,5 +1,7 @@
 package com.techschool.pcbook.service;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.FieldMask;
 import com.techschool.pcbook.pb.*;
 import com.techschool.pcbook.sample.Generator;
 import io.grpc.ManagedChannel;
@@ -7,15 +9,25 @@ import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import io.grpc.testing.GrpcCleanupRule;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -23,11 +35,15 @@ public class LaptopServerTest {
     @Rule
     public final GrpcCleanupRule grpcCleanup = new GrpcCleanupRule();
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     private LaptopStore laptopStore;
     private  ImageStore imageStore;
     private  RatingStore ratingStore;
     private LaptopServer server;
     private ManagedChannel channel;
+    private UploadSessionStore uploadSessions;
 
     @Before
     public void setUp() throws Exception {
@@ -37,8 +53,10 @@ public class LaptopServerTest {
         laptopStore = new InMemoryLaptopStore();
         imageStore = new DiskImageStore("tmp");
         ratingStore = new InMemoryRatingStore();
+        uploadSessions = new UploadSessionStore(folder.getRoot().getPath(), imageStore, 1 << 20, 1, TimeUnit.HOURS);
 
-        server = new LaptopServer(serverBuilder, 0, laptopStore, imageStore, ratingStore);
+        server = new LaptopServer(serverBuilder, 0, laptopStore, imageStore, ratingStore,
+                CompressionConfig.forServer(), uploadSessions);
         server.start();
 
         channel = grpcCleanup.register(
@@ -49,6 +67,7 @@ public class LaptopServerTest {
     @After
     public void tearDown() throws Exception {
         server.stop();
+        uploadSessions.shutdown();
     }
 
     @Test
@@ -127,6 +146,370 @@ public class LaptopServerTest {
         }
     }
 
+    @Test
+    public void searchLaptopWithFieldMask() throws Exception {
+        Generator generator = new Generator();
+        Laptop laptop = generator.NewLaptop().toBuilder().setPriceUsd(1000).build();
+        laptopStore.Save(laptop);
+
+        SearchLaptopRequest request = SearchLaptopRequest.newBuilder()
+                .setFilter(LaptopFilter.newBuilder().setMaxPriceUsd(2000).build())
+                .setFieldMask(FieldMask.newBuilder().addPaths("name").addPaths("cpu.name").build())
+                .build();
+
+        LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+        Iterator<SearchLaptopResponse> responses = stub.searchLaptop(request);
+        assertTrue(responses.hasNext());
+
+        Laptop found = responses.next().getLaptop();
+        assertEquals(laptop.getName(), found.getName());
+        assertEquals(laptop.getCpu().getName(), found.getCpu().getName());
+        assertEquals(0, found.getCpu().getNumCores());
+        assertEquals(0, found.getStorageCount());
+        assertTrue(found.getId().isEmpty());
+        assertFalse(responses.hasNext());
+    }
+
+    @Test
+    public void inProcessClient() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        LaptopServer embedded = LaptopServer.inProcess(name, true, laptopStore, imageStore, ratingStore);
+        embedded.start();
+        LaptopClient client = LaptopClient.inProcess(name, true);
+        try {
+            Laptop laptop = new Generator().NewLaptop();
+            client.createLaptop(laptop);
+
+            // the laptop is handed over by reference, never serialized
+            assertSame(laptop, laptopStore.Find(laptop.getId()));
+        } finally {
+            client.shutdown();
+            embedded.stop();
+        }
+    }
+
+    @Test
+    public void searchLaptopBatched() throws Exception {
+        Generator generator = new Generator();
+        int n = 25;
+        for (int i = 0; i < n; i++) {
+            laptopStore.Save(generator.NewLaptop().toBuilder().setPriceUsd(1000).build());
+        }
+
+        SearchLaptopRequest request = SearchLaptopRequest.newBuilder()
+                .setFilter(LaptopFilter.newBuilder().setMaxPriceUsd(2000).build())
+                .setBatching(SearchBatching.newBuilder().setMaxLaptops(10).build())
+                .build();
+
+        LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+        Iterator<SearchLaptopResponse> responses = stub.searchLaptop(request);
+
+        List<Integer> batchSizes = new LinkedList<>();
+        while (responses.hasNext()) {
+            SearchLaptopResponse response = responses.next();
+            assertFalse(response.hasLaptop());
+            batchSizes.add(response.getLaptopsCount());
+        }
+        assertEquals(3, batchSizes.size());
+        assertEquals(10, (int) batchSizes.get(0));
+        assertEquals(10, (int) batchSizes.get(1));
+        assertEquals(5, (int) batchSizes.get(2));
+    }
+
+    @Test
+    public void uploadImage() throws Exception {
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicReference<UploadImageResponse> response = new AtomicReference<>();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(channel);
+        StreamObserver<UploadImageRequest> requestObserver = stub.uploadImage(new StreamObserver<UploadImageResponse>() {
+            @Override
+            public void onNext(UploadImageResponse value) {
+                response.set(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error.set(t);
+                finished.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                finished.countDown();
+            }
+        });
+
+        ImageInfo info = ImageInfo.newBuilder().setLaptopId(laptop.getId()).setImageType(".jpg").build();
+        requestObserver.onNext(UploadImageRequest.newBuilder().setInfo(info).build());
+        for (int i = 0; i < 3; i++) {
+            requestObserver.onNext(UploadImageRequest.newBuilder()
+                    .setChunkData(ByteString.copyFrom(new byte[1000]))
+                    .build());
+        }
+        requestObserver.onCompleted();
+
+        // the store completes the save on its own I/O threads
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertNull(error.get());
+        assertEquals(3000, response.get().getSize());
+
+        ImageMetaData metaData = ((DiskImageStore) imageStore).Find(response.get().getId());
+        assertNotNull(metaData);
+        assertEquals(3000, new File(metaData.getPath()).length());
+    }
+
+    @Test
+    public void slowUploadIsNotOverload() throws Exception {
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+
+        // every save takes about the same time, so only the client's pace tells the uploads apart
+        ImageStore steadyStore = (laptopID, imageType, imageData) -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return imageStore.Save(laptopID, imageType, imageData);
+        };
+        String name = InProcessServerBuilder.generateName();
+        LaptopServer embedded = LaptopServer.inProcess(name, false, laptopStore, steadyStore, ratingStore);
+        embedded.start();
+        ManagedChannel embeddedChannel = grpcCleanup.register(InProcessChannelBuilder.forName(name).build());
+        try {
+            upload(embeddedChannel, laptop.getId(), 0);
+            upload(embeddedChannel, laptop.getId(), 100);
+
+            AdaptiveConcurrencyLimit limit = embedded.getConcurrencyLimiter()
+                    .getLimit(LaptopServiceGrpc.getUploadImageMethod().getFullMethodName());
+            // the server samples a call after the client has seen it end
+            for (int i = 0; i < 100 && limit.getInFlight() > 0; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, limit.getInFlight());
+            assertEquals(0, limit.getBackoffCount());
+        } finally {
+            embedded.stop();
+        }
+    }
+
+    // upload sends three chunks, pausing between them, and waits for the image to be saved
+    private static void upload(ManagedChannel channel, String laptopID, long pauseMillis) throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        StreamObserver<UploadImageRequest> requestObserver = LaptopServiceGrpc.newStub(channel)
+                .uploadImage(new StreamObserver<UploadImageResponse>() {
+                    @Override
+                    public void onNext(UploadImageResponse value) {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        error.set(t);
+                        finished.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        finished.countDown();
+                    }
+                });
+
+        ImageInfo info = ImageInfo.newBuilder().setLaptopId(laptopID).setImageType(".jpg").build();
+        requestObserver.onNext(UploadImageRequest.newBuilder().setInfo(info).build());
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(pauseMillis);
+            requestObserver.onNext(UploadImageRequest.newBuilder()
+                    .setChunkData(ByteString.copyFrom(new byte[1000]))
+                    .build());
+        }
+        requestObserver.onCompleted();
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertNull(error.get());
+    }
+
+    @Test
+    public void resumableUpload() throws Exception {
+        Laptop laptop = new Generator().NewLaptop();
+        laptopStore.Save(laptop);
+
+        LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+        String uploadID = blockingStub.startUpload(StartUploadRequest.newBuilder()
+                .setInfo(ImageInfo.newBuilder().setLaptopId(laptop.getId()).setImageType(".mp4"))
+                .setSize(3000)
+                .build()).getUploadId();
+
+        // the first stream breaks after 1000 bytes
+        UploadResult broken = uploadChunks(uploadID, 0, 1000, true);
+        assertNotNull(broken.error);
+        GetUploadStatusRequest statusRequest = GetUploadStatusRequest.newBuilder().setUploadId(uploadID).build();
+        // the server commits what it has when it sees the stream cancelled
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (blockingStub.getUploadStatus(statusRequest).getCommittedOffset() != 1000 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1000, blockingStub.getUploadStatus(statusRequest).getCommittedOffset());
+
+        UploadResult wrongOffset = uploadChunks(uploadID, 0, 2000, false);
+        assertEquals(Status.Code.FAILED_PRECONDITION, Status.fromThrowable(wrongOffset.error).getCode());
+
+        UploadResult resumed = uploadChunks(uploadID, 1000, 2000, false);
+        assertNull(resumed.error);
+        String imageID = resumed.last.getImageId();
+        assertFalse(imageID.isEmpty());
+        assertEquals(3000, resumed.last.getCommittedOffset());
+        assertEquals(imageID, blockingStub.getUploadStatus(statusRequest).getImageId());
+
+        ImageMetaData metaData = ((DiskImageStore) imageStore).Find(imageID);
+        assertEquals(3000, new File(metaData.getPath()).length());
+    }
+
+    private static class UploadResult {
+        private UploadStatus last;
+        private Throwable error;
+    }
+
+    private UploadResult uploadChunks(String uploadID, long offset, int length, boolean breakStream) throws Exception {
+        UploadResult result = new UploadResult();
+        CountDownLatch finished = new CountDownLatch(1);
+
+        StreamObserver<UploadChunkRequest> requestObserver = LaptopServiceGrpc.newStub(channel)
+                .uploadChunks(new StreamObserver<UploadStatus>() {
+                    @Override
+                    public void onNext(UploadStatus status) {
+                        result.last = status;
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        result.error = t;
+                        finished.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        finished.countDown();
+                    }
+                });
+
+        requestObserver.onNext(UploadChunkRequest.newBuilder()
+                .setPosition(UploadPosition.newBuilder().setUploadId(uploadID).setOffset(offset))
+                .build());
+        requestObserver.onNext(UploadChunkRequest.newBuilder()
+                .setChunkData(ByteString.copyFrom(new byte[length]))
+                .build());
+        if (breakStream) {
+            requestObserver.onError(new RuntimeException("connection lost"));
+        } else {
+            requestObserver.onCompleted();
+        }
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        return result;
+    }
+
+    @Test
+    public void aggregateLaptops() throws Exception {
+        Generator generator = new Generator();
+        double[] prices = {1000, 1100, 1600};
+        for (double price : prices) {
+            laptopStore.Save(generator.NewLaptop().toBuilder().setBrand("Dell").setPriceUsd(price).build());
+        }
+        laptopStore.Save(generator.NewLaptop().toBuilder().setPriceUsd(9000).build());
+
+        AggregateLaptopsRequest request = AggregateLaptopsRequest.newBuilder()
+                .setFilter(LaptopFilter.newBuilder().setMaxPriceUsd(2000).build())
+                .addFacets(AggregateLaptopsRequest.Facet.BRAND)
+                .setPriceBucketUsd(500)
+                .build();
+
+        LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+        AggregateLaptopsResponse response = stub.aggregateLaptops(request);
+
+        assertEquals(3, response.getCount());
+        assertEquals(1000, response.getMinPriceUsd(), 1e-9);
+        assertEquals(1600, response.getMaxPriceUsd(), 1e-9);
+        assertEquals(1233.333333, response.getAvgPriceUsd(), 1e-6);
+
+        assertEquals(1, response.getFacetsCount());
+        assertEquals("Dell", response.getFacets(0).getBuckets(0).getKey());
+        assertEquals(3, response.getFacets(0).getBuckets(0).getCount());
+
+        assertEquals(2, response.getPriceHistogramCount());
+        assertEquals(1000, response.getPriceHistogram(0).getLowerBoundUsd(), 1e-9);
+        assertEquals(2, response.getPriceHistogram(0).getCount());
+        assertEquals(1500, response.getPriceHistogram(1).getLowerBoundUsd(), 1e-9);
+        assertEquals(1, response.getPriceHistogram(1).getCount());
+    }
+
+    @Test
+    public void aggregateLaptopsRejectsNarrowBuckets() {
+        LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+        for (double bucketUsd : new double[]{1e-9, -250, Double.NaN, Double.POSITIVE_INFINITY}) {
+            AggregateLaptopsRequest request = AggregateLaptopsRequest.newBuilder().setPriceBucketUsd(bucketUsd).build();
+            try {
+                stub.aggregateLaptops(request);
+                fail("bucket of " + bucketUsd + " USD was accepted");
+            } catch (StatusRuntimeException e) {
+                assertEquals(Status.Code.INVALID_ARGUMENT, e.getStatus().getCode());
+            }
+        }
+    }
+
+    @Test
+    public void watchLaptops() throws Exception {
+        LaptopFilter filter = LaptopFilter.newBuilder()
+                .setMaxPriceUsd(5000)
+                .build();
+        WatchLaptopsRequest watchRequest = WatchLaptopsRequest.newBuilder().setFilter(filter).build();
+
+        // responses arrive on gRPC threads
+        BlockingQueue<WatchLaptopsResponse> responses = new LinkedBlockingQueue<>();
+        AtomicReference<ClientCallStreamObserver<WatchLaptopsRequest>> watch = new AtomicReference<>();
+        LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(channel);
+        stub.watchLaptops(watchRequest, new ClientResponseObserver<WatchLaptopsRequest, WatchLaptopsResponse>() {
+            @Override
+            public void beforeStart(ClientCallStreamObserver<WatchLaptopsRequest> requestStream) {
+                watch.set(requestStream);
+            }
+
+            @Override
+            public void onNext(WatchLaptopsResponse response) {
+                responses.add(response);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+
+        Generator generator = new Generator();
+        Laptop cheap = generator.NewLaptop().toBuilder().setPriceUsd(1000).build();
+        Laptop expensive = generator.NewLaptop().toBuilder().setPriceUsd(9000).build();
+
+        LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+        blockingStub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(cheap).build());
+        blockingStub.createLaptop(CreateLaptopRequest.newBuilder().setLaptop(expensive).build());
+
+        WatchLaptopsResponse first = responses.poll(5, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertEquals(cheap.getId(), first.getLaptop().getId());
+        assertNull(responses.poll(100, TimeUnit.MILLISECONDS));
+
+        // the stream never ends on its own, and the channel can't shut down while it is open
+        watch.get().cancel("test is done", null);
+    }
+
     @Test
     public void rateLaptop() throws Exception {
         Generator generator = new Generator();
@@ -163,6 +546,78 @@ public class LaptopServerTest {
         }
     }
 
+    @Test
+    public void getRatingStats() throws Exception {
+        Generator generator = new Generator();
+        Laptop laptop = generator.NewLaptop();
+        laptopStore.Save(laptop);
+
+        LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(channel);
+        RateLaptopResponseStreamObserver responseStreamObserver = new RateLaptopResponseStreamObserver();
+        StreamObserver<RateLaptopRequest> requestStreamObserver = stub.rateLaptop(responseStreamObserver);
+        for (double score : new double[]{4, 6, 8, 10}) {
+            requestStreamObserver.onNext(RateLaptopRequest.newBuilder()
+                    .setLaptopId(laptop.getId())
+                    .setScore(score)
+                    .build());
+        }
+        requestStreamObserver.onCompleted();
+
+        LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+        GetRatingStatsResponse response = blockingStub.getRatingStats(GetRatingStatsRequest.newBuilder()
+                .setLaptopId(laptop.getId())
+                .build());
+        assertEquals(3, response.getWindowsCount());
+        for (RatingWindowStats window : response.getWindowsList()) {
+            assertEquals(4, window.getRatedCount());
+            assertEquals(7, window.getAverageScore(), 1e-9);
+            assertEquals(6, window.getP50Score(), 1e-9);
+            assertEquals(10, window.getP99Score(), 1e-9);
+        }
+
+        try {
+            blockingStub.getRatingStats(GetRatingStatsRequest.newBuilder()
+                    .setLaptopId(laptop.getId())
+                    .addWindowSeconds(24 * 60 * 60)
+                    .build());
+            fail("a window longer than the kept history should be rejected");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.INVALID_ARGUMENT, e.getStatus().getCode());
+        }
+    }
+
+    @Test
+    public void watchTopRatedLaptops() throws Exception {
+        Generator generator = new Generator();
+        Laptop first = generator.NewLaptop();
+        Laptop second = generator.NewLaptop();
+        Laptop third = generator.NewLaptop();
+        laptopStore.Save(first);
+        laptopStore.Save(second);
+        laptopStore.Save(third);
+        ratingStore.Add(first.getId(), 9);
+        ratingStore.Add(second.getId(), 7);
+        ratingStore.Add(third.getId(), 5);
+
+        Iterator<WatchTopRatedResponse> responses = LaptopServiceGrpc.newBlockingStub(channel)
+                .withDeadlineAfter(5, TimeUnit.SECONDS)
+                .watchTopRatedLaptops(WatchTopRatedRequest.newBuilder().setLimit(2).build());
+
+        WatchTopRatedResponse response = responses.next();
+        assertEquals(2, response.getLaptopsCount());
+        assertEquals(first.getId(), response.getLaptops(0).getLaptopId());
+        assertEquals(second.getId(), response.getLaptops(1).getLaptopId());
+
+        // a rating that moves the third laptop into the top 2 pushes a new ranking
+        ratingStore.Add(third.getId(), 10);
+        response = responses.next();
+        assertEquals(2, response.getLaptopsCount());
+        assertEquals(first.getId(), response.getLaptops(0).getLaptopId());
+        assertEquals(third.getId(), response.getLaptops(1).getLaptopId());
+        assertEquals(7.5, response.getLaptops(1).getAverageScore(), 1e-9);
+        assertEquals(2, response.getLaptops(1).getRatedCount());
+    }
+
     private class RateLaptopResponseStreamObserver implements StreamObserver<RateLaptopResponse> {
         public List<RateLaptopResponse> responses;
         public Throwable err;
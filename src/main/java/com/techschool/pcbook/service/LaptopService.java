@@ -4,23 +4,59 @@ import com.google.protobuf.ByteString;
 import com.techschool.pcbook.pb.*;
 import io.grpc.Context;
 import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
     private static final Logger logger = Logger.getLogger(LaptopService.class.getName());
+    private static final int maxTopRated = 100;
+    // sends the batches of slow searches, shared by all calls
+    private static final ScheduledExecutorService batchTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "search-batch-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final List<Integer> defaultRatingWindows = Arrays.asList(60, 15 * 60, 60 * 60);
     private LaptopStore laptopStore;
     private ImageStore imageStore;
     private RatingStore ratingStore;
+    private RatingStatsStore ratingStats;
+    private LaptopWatchRegistry watchRegistry;
+    private TopRatedWatchRegistry topRatedRegistry;
+    // null when resumable uploads are not enabled
+    private UploadSessionStore uploadSessions;
 
     public LaptopService(LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore) {
+        this(laptopStore, imageStore, ratingStore, null);
+    }
+
+    public LaptopService(LaptopStore laptopStore, ImageStore imageStore, RatingStore ratingStore,
+                         UploadSessionStore uploadSessions) {
         this.laptopStore = laptopStore;
         this.imageStore = imageStore;
         this.ratingStore = ratingStore;
+        this.ratingStats = RatingStatsStore.forServer();
+        this.watchRegistry = new LaptopWatchRegistry(256);
+        this.topRatedRegistry = new TopRatedWatchRegistry(ratingStore.Leaderboard());
+        this.uploadSessions = uploadSessions;
     }
 
     @Override
@@ -64,7 +100,9 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
             return;
         }
 
-        Laptop other = laptop.toBuilder().setId(uuid.toString()).build();
+        // messages are immutable: a laptop that already has its ID is kept as it came,
+        // which for an in-process call is the caller's own object
+        Laptop other = uuid.toString().equals(id) ? laptop : laptop.toBuilder().setId(uuid.toString()).build();
         // Save other laptop to the store
         try {
             laptopStore.Save(other);
@@ -89,27 +127,213 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
         responseStreamObserver.onCompleted();
 
         logger.info("saved laptop with ID: " + other.getId());
+
+        watchRegistry.Publish(other);
     }
 
+    @Override
+    public void getLaptop(GetLaptopRequest request, StreamObserver<GetLaptopResponse> responseStreamObserver) {
+        String id = request.getId();
+        logger.info("get a get-laptop request with ID: " + id);
+
+        Laptop found = laptopStore.Find(id);
+        if (found == null) {
+            responseStreamObserver.onError(
+                    Status.NOT_FOUND
+                            .withDescription("laptop ID doesn't exist. ID: " + id)
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        GetLaptopResponse response = GetLaptopResponse.newBuilder().setLaptop(found).build();
+        responseStreamObserver.onNext(response);
+        responseStreamObserver.onCompleted();
+    }
 
     @Override
     public void searchLaptop(SearchLaptopRequest request, StreamObserver<SearchLaptopResponse> responseStreamObserver) {
         LaptopFilter filter = request.getFilter();
         logger.info("get a search-laptop request with filter:\n" + filter);
 
-        laptopStore.Search(Context.current(), filter, new LaptopStream() {
-            @Override
-            public void Send(Laptop laptop) {
-                logger.info("found laptop with ID: " + laptop.getId());
-                SearchLaptopResponse response = SearchLaptopResponse.newBuilder().setLaptop(laptop).build();
-                responseStreamObserver.onNext(response);
+        LaptopProjection projection;
+        try {
+            projection = LaptopProjection.of(request.getFieldMask());
+        } catch (IllegalArgumentException e) {
+            responseStreamObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription(e.getMessage())
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        if (request.hasBatching()) {
+            SearchResponseBatcher batcher = new SearchResponseBatcher(
+                    responseStreamObserver, request.getBatching(), batchTimer);
+            try {
+                laptopStore.Search(Context.current(), filter, laptop ->
+                        batcher.Send(projection != null ? projection.apply(laptop) : laptop));
+            } catch (Exception e) {
+                batcher.abort();
+                searchFailed(responseStreamObserver, e);
+                return;
             }
-        });
+            batcher.finish();
+
+            responseStreamObserver.onCompleted();
+            logger.info("search laptop completed, found " + batcher.getSentCount()
+                    + " laptops in " + batcher.getBatchCount() + " batches");
+            return;
+        }
+
+        try {
+            laptopStore.Search(Context.current(), filter, new LaptopStream() {
+                @Override
+                public void Send(Laptop laptop) {
+                    logger.info("found laptop with ID: " + laptop.getId());
+                    if (projection != null) {
+                        laptop = projection.apply(laptop);
+                    }
+                    SearchLaptopResponse response = SearchLaptopResponse.newBuilder().setLaptop(laptop).build();
+                    responseStreamObserver.onNext(response);
+                }
+            });
+        } catch (Exception e) {
+            searchFailed(responseStreamObserver, e);
+            return;
+        }
 
         responseStreamObserver.onCompleted();
         logger.info("search laptop completed");
     }
 
+    // searchFailed ends a search whose store could not search everything, such as a
+    // ShardedLaptopStore with a failed shard, so the laptops already sent aren't taken as all of them
+    private static void searchFailed(StreamObserver<SearchLaptopResponse> responseStreamObserver, Exception e) {
+        logger.warning("search laptop failed: " + e.getMessage());
+        responseStreamObserver.onError(
+                Status.INTERNAL
+                        .withDescription(e.getMessage())
+                        .asRuntimeException()
+        );
+    }
+
+    @Override
+    public void aggregateLaptops(AggregateLaptopsRequest request,
+                                 StreamObserver<AggregateLaptopsResponse> responseStreamObserver) {
+        LaptopFilter filter = request.getFilter();
+        logger.info("get an aggregate-laptops request with filter:\n" + filter);
+
+        LaptopAggregation aggregation;
+        try {
+            aggregation = new LaptopAggregation(request.getFacetsList(), request.getPriceBucketUsd());
+        } catch (IllegalArgumentException e) {
+            responseStreamObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription(e.getMessage())
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        try {
+            laptopStore.Aggregate(Context.current(), filter, aggregation);
+        } catch (Exception e) {
+            responseStreamObserver.onError(
+                    Status.INTERNAL
+                            .withDescription(e.getMessage())
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        if (Context.current().isCancelled()) {
+            logger.info("request is cancelled");
+            responseStreamObserver.onError(
+                    Status.CANCELLED
+                            .withDescription("request is cancelled")
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        responseStreamObserver.onNext(aggregation.toResponse());
+        responseStreamObserver.onCompleted();
+        logger.info("aggregate laptops completed, count: " + aggregation.getCount());
+    }
+
+    @Override
+    public void suggestLaptopNames(SuggestLaptopNamesRequest request,
+                                   StreamObserver<SuggestLaptopNamesResponse> responseStreamObserver) {
+        int limit = request.getLimit() > 0 ? Math.min(request.getLimit(), 100) : 10;
+        List<NameSuggestion> suggestions = laptopStore.Suggest(request.getPrefix(), limit);
+
+        SuggestLaptopNamesResponse response = SuggestLaptopNamesResponse.newBuilder()
+                .addAllSuggestions(suggestions)
+                .build();
+        responseStreamObserver.onNext(response);
+        responseStreamObserver.onCompleted();
+    }
+
+    @Override
+    public void watchLaptops(WatchLaptopsRequest request, StreamObserver<WatchLaptopsResponse> responseStreamObserver) {
+        LaptopFilter filter = request.getFilter();
+        logger.info("get a watch-laptops request with filter:\n" + filter);
+
+        ServerCallStreamObserver<WatchLaptopsResponse> serverCallStreamObserver =
+                (ServerCallStreamObserver<WatchLaptopsResponse>) responseStreamObserver;
+
+        LaptopWatchRegistry.Subscription subscription = watchRegistry.Subscribe(filter, serverCallStreamObserver);
+        serverCallStreamObserver.setOnCancelHandler(() -> {
+            logger.info("watch laptops cancelled");
+            subscription.cancel();
+        });
+        serverCallStreamObserver.setOnReadyHandler(subscription::drain);
+    }
+
+    @Override
+    public void watchTopRatedLaptops(WatchTopRatedRequest request, StreamObserver<WatchTopRatedResponse> responseStreamObserver) {
+        int limit = request.getLimit() == 0 ? 10 : request.getLimit();
+        if (limit < 0 || limit > maxTopRated) {
+            responseStreamObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("limit must be between 1 and " + maxTopRated)
+                            .asRuntimeException()
+            );
+            return;
+        }
+        logger.info("get a watch-top-rated request with limit " + limit + " and filter:\n" + request.getFilter());
+
+        Predicate<String> filter = laptopID -> true;
+        Supplier<Collection<String>> candidates = null;
+        if (request.hasFilter()) {
+            LaptopFilter laptopFilter = request.getFilter();
+            LaptopMatcher matcher = LaptopMatcher.compile(laptopFilter);
+            filter = laptopID -> {
+                Laptop laptop = laptopStore.Find(laptopID);
+                return laptop != null && matcher.matches(laptop);
+            };
+            // refreshes run on the registry's thread, outside the call's context
+            candidates = () -> {
+                Set<String> ids = new HashSet<>();
+                laptopStore.Search(Context.ROOT, laptopFilter, laptop -> ids.add(laptop.getId()));
+                return ids;
+            };
+        }
+
+        ServerCallStreamObserver<WatchTopRatedResponse> serverCallStreamObserver =
+                (ServerCallStreamObserver<WatchTopRatedResponse>) responseStreamObserver;
+
+        TopRatedWatchRegistry.Watch watch = topRatedRegistry.Subscribe(limit, filter, candidates,
+                serverCallStreamObserver);
+        serverCallStreamObserver.setOnCancelHandler(() -> {
+            logger.info("watch top rated cancelled");
+            watch.cancel();
+        });
+        serverCallStreamObserver.setOnReadyHandler(watch::drain);
+    }
+
     @Override
     public StreamObserver<UploadImageRequest> uploadImage(StreamObserver<UploadImageResponse> responseObserver) {
         return new StreamObserver<UploadImageRequest>() {
@@ -182,27 +406,230 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
 
             @Override
             public void onCompleted() {
-                String imageID = "";
                 int imageSize = imageData.size();
 
-                try {
-                    imageID = imageStore.Save(laptopID, imageType, imageData);
-                } catch (IOException e) {
-                    responseObserver.onError(
-                            Status.INTERNAL
-                                    .withDescription("cannot save image to the store: " + e.getMessage())
-                                    .asRuntimeException()
-                    );
+                // reply from the store's completion, the gRPC thread is free meanwhile
+                imageStore.SaveAsync(laptopID, imageType, imageData).whenComplete((imageID, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        responseObserver.onError(
+                                Status.INTERNAL
+                                        .withDescription("cannot save image to the store: " + cause.getMessage())
+                                        .asRuntimeException()
+                        );
+                        return;
+                    }
+
+                    UploadImageResponse response = UploadImageResponse.newBuilder()
+                            .setId(imageID)
+                            .setSize(imageSize)
+                            .build();
+                    responseObserver.onNext(response);
+                    responseObserver.onCompleted();
+                    logger.info("save image with ID: " + imageID + " size: " + imageSize);
+                });
+            }
+        };
+    }
+
+    @Override
+    public void startUpload(StartUploadRequest request, StreamObserver<StartUploadResponse> responseObserver) {
+        if (uploadSessions == null) {
+            responseObserver.onError(
+                    Status.UNIMPLEMENTED
+                            .withDescription("resumable uploads are not enabled")
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        ImageInfo info = request.getInfo();
+        logger.info("get a start-upload request with size: " + request.getSize() + "\n" + info);
+
+        Laptop found = laptopStore.Find(info.getLaptopId());
+        if (found == null) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription("laptop ID doesn't exist. ID: " + info.getLaptopId())
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        UploadSessionStore.Session session;
+        try {
+            session = uploadSessions.Start(info.getLaptopId(), info.getImageType(), request.getSize());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                            .withDescription(e.getMessage())
+                            .asRuntimeException()
+            );
+            return;
+        } catch (IOException e) {
+            responseObserver.onError(
+                    Status.INTERNAL
+                            .withDescription("cannot start upload: " + e.getMessage())
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        responseObserver.onNext(StartUploadResponse.newBuilder().setUploadId(session.getUploadID()).build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getUploadStatus(GetUploadStatusRequest request, StreamObserver<UploadStatus> responseObserver) {
+        UploadSessionStore.Session session = uploadSessions == null ? null : uploadSessions.Find(request.getUploadId());
+        if (session == null) {
+            responseObserver.onError(
+                    Status.NOT_FOUND
+                            .withDescription("upload ID doesn't exist. ID: " + request.getUploadId())
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        responseObserver.onNext(session.status());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<UploadChunkRequest> uploadChunks(StreamObserver<UploadStatus> responseObserver) {
+        // Commits and saves finish on the upload store's I/O threads. The methods are synchronized
+        // so the response stream is only used by one thread at a time, and the results are chained
+        // so the acknowledgements go out in order.
+        return new StreamObserver<UploadChunkRequest>() {
+            private UploadSessionStore.Session session;
+            private UploadSessionStore.Session.Writer writer;
+            private boolean finished;
+            private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+
+            @Override
+            public synchronized void onNext(UploadChunkRequest request) {
+                if (finished) {
                     return;
                 }
 
-                UploadImageResponse response = UploadImageResponse.newBuilder()
-                        .setId(imageID)
-                        .setSize(imageSize)
-                        .build();
-                responseObserver.onNext(response);
-                responseObserver.onCompleted();
-                logger.info("save image with ID: " + imageID + " size: " + imageSize);
+                try {
+                    if (request.getDataCase() == UploadChunkRequest.DataCase.POSITION) {
+                        UploadPosition position = request.getPosition();
+                        logger.info("resume upload " + position.getUploadId() + " from offset " + position.getOffset());
+
+                        session = uploadSessions == null ? null : uploadSessions.Find(position.getUploadId());
+                        if (session == null) {
+                            fail(Status.NOT_FOUND.withDescription("upload ID doesn't exist. ID: " + position.getUploadId()));
+                            return;
+                        }
+                        if (session.isComplete()) {
+                            acknowledge();
+                            return;
+                        }
+                        CompletableFuture<UploadSessionStore.Session.Writer> opened = session.open(position.getOffset());
+                        // not ready while an upload that was already complete is being saved
+                        writer = opened.getNow(null);
+                        after(opened, ready -> acknowledge());
+                        return;
+                    }
+
+                    if (writer == null) {
+                        fail(Status.INVALID_ARGUMENT.withDescription("upload position wasn't sent before"));
+                        return;
+                    }
+                    CompletableFuture<Boolean> written = writer.write(request.getChunkData().asReadOnlyByteBuffer());
+                    if (written.isDone() && !written.isCompletedExceptionally() && !written.join()) {
+                        return;
+                    }
+                    after(written, committed -> {
+                        if (committed) {
+                            acknowledge();
+                        }
+                    });
+                } catch (IllegalArgumentException | IllegalStateException | IOException e) {
+                    fail(e);
+                }
+            }
+
+            // after calls then with the result of future, once everything chained before it is done.
+            // It fails the stream instead if future failed.
+            private <T> void after(CompletableFuture<T> future, Consumer<T> then) {
+                pending = pending.thenCombine(future, (previous, result) -> result).handle((result, error) -> {
+                    synchronized (this) {
+                        if (finished) {
+                            return null;
+                        }
+                        if (error != null) {
+                            fail(error instanceof CompletionException ? error.getCause() : error);
+                        } else {
+                            then.accept(result);
+                        }
+                    }
+                    return null;
+                });
+            }
+
+            // acknowledge sends the committed offset, and ends the stream once the upload is complete
+            private void acknowledge() {
+                UploadStatus status = session.status();
+                responseObserver.onNext(status);
+                if (!status.getImageId().isEmpty()) {
+                    finished = true;
+                    responseObserver.onCompleted();
+                }
+            }
+
+            private void fail(Throwable error) {
+                if (error instanceof IllegalArgumentException) {
+                    fail(Status.INVALID_ARGUMENT.withDescription(error.getMessage()));
+                } else if (error instanceof IllegalStateException) {
+                    fail(Status.FAILED_PRECONDITION.withDescription(error.getMessage()));
+                } else {
+                    fail(Status.INTERNAL.withDescription("cannot write chunk data: " + error.getMessage()));
+                }
+            }
+
+            private void fail(Status status) {
+                finished = true;
+                commit();
+                responseObserver.onError(status.asRuntimeException());
+            }
+
+            // commit keeps what was received, so the client resumes after it
+            private CompletableFuture<Boolean> commit() {
+                if (writer == null) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                String uploadID = session.getUploadID();
+                return writer.commit().whenComplete((committed, error) -> {
+                    if (error != null) {
+                        logger.warning("cannot commit upload " + uploadID + ": " + error.getMessage());
+                    }
+                });
+            }
+
+            @Override
+            public synchronized void onError(Throwable t) {
+                logger.warning(t.getMessage());
+                finished = true;
+                commit();
+            }
+
+            @Override
+            public synchronized void onCompleted() {
+                if (finished) {
+                    return;
+                }
+                // the status is sent once the chunks before are acknowledged and the rest committed
+                CompletableFuture<Boolean> committed = commit().exceptionally(error -> false);
+                after(committed, ignored -> {
+                    finished = true;
+                    if (session != null) {
+                        responseObserver.onNext(session.status());
+                    }
+                    responseObserver.onCompleted();
+                });
             }
         };
     }
@@ -226,6 +653,7 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
                 }
 
                 Rating rating = ratingStore.Add(laptopID, score);
+                ratingStats.Add(laptopID, score);
                 RateLaptopResponse response = RateLaptopResponse.newBuilder()
                         .setLaptopId(laptopID)
                         .setRatedCount(rating.getCount())
@@ -246,4 +674,49 @@ public class LaptopService extends LaptopServiceGrpc.LaptopServiceImplBase {
             }
         };
     }
+
+    @Override
+    public void getRatingStats(GetRatingStatsRequest request, StreamObserver<GetRatingStatsResponse> responseObserver) {
+        String laptopID = request.getLaptopId();
+        if (laptopStore.Find(laptopID) == null) {
+            responseObserver.onError(
+                    Status.NOT_FOUND
+                            .withDescription("laptop ID doesn't exist. : " + laptopID)
+                            .asRuntimeException()
+            );
+            return;
+        }
+
+        List<Integer> windows = request.getWindowSecondsList();
+        if (windows.isEmpty()) {
+            windows = defaultRatingWindows;
+        }
+
+        GetRatingStatsResponse.Builder response = GetRatingStatsResponse.newBuilder().setLaptopId(laptopID);
+        for (int seconds : windows) {
+            RatingWindow.Stats stats;
+            try {
+                stats = ratingStats.Stats(laptopID, seconds, TimeUnit.SECONDS);
+            } catch (IllegalArgumentException e) {
+                responseObserver.onError(
+                        Status.INVALID_ARGUMENT
+                                .withDescription("window of " + seconds + "s: " + e.getMessage())
+                                .asRuntimeException()
+                );
+                return;
+            }
+
+            response.addWindows(RatingWindowStats.newBuilder()
+                    .setWindowSeconds(seconds)
+                    .setRatedCount(stats.getCount())
+                    .setAverageScore(stats.getAverage())
+                    .setP50Score(stats.percentile(0.5))
+                    .setP90Score(stats.percentile(0.9))
+                    .setP99Score(stats.percentile(0.99))
+                    .build());
+        }
+
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
 }
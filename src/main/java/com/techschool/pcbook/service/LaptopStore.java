@@ -2,13 +2,19 @@ package com.techschool.pcbook.service;
 
 import com.techschool.pcbook.pb.Laptop;
 import com.techschool.pcbook.pb.LaptopFilter;
+import com.techschool.pcbook.pb.NameSuggestion;
 import io.grpc.Context;
 
+import java.util.List;
+
 public interface LaptopStore {
     // It could be a db, in memory store for now
     void Save(Laptop laptop) throws Exception;
     Laptop Find(String id);
     void Search(Context ctx, LaptopFilter filter, LaptopStream stream);
+    List<NameSuggestion> Suggest(String prefix, int limit);
+    // Aggregate adds every laptop matching the filter to aggregation and returns it
+    LaptopAggregation Aggregate(Context ctx, LaptopFilter filter, LaptopAggregation aggregation);
 }
 
 
@@ -0,0 +1,149 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.LaptopFilter;
+import com.techschool.pcbook.pb.WatchLaptopsResponse;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+// LaptopWatchRegistry keeps the standing queries of WatchLaptops calls.
+// Subscriptions are bucketed by min_cpu_cores and, inside a bucket, sorted by max_price_usd,
+// so publishing a laptop only visits subscriptions that already pass both of those checks.
+public class LaptopWatchRegistry {
+    private static final Logger logger = Logger.getLogger(LaptopWatchRegistry.class.getName());
+    private static final int maxCoreBucket = 64;
+
+    private static final Comparator<Subscription> byMaxPrice = Comparator
+            .comparingDouble((Subscription s) -> s.maxPrice)
+            .thenComparingLong(s -> s.id);
+
+    private final int bufferSize;
+    private final ConcurrentSkipListSet<Subscription>[] buckets;
+    private final AtomicLong nextID = new AtomicLong();
+    private final AtomicInteger subscriptionCount = new AtomicInteger();
+
+    @SuppressWarnings("unchecked")
+    public LaptopWatchRegistry(int bufferSize) {
+        this.bufferSize = bufferSize;
+        this.buckets = new ConcurrentSkipListSet[maxCoreBucket + 1];
+        for (int i = 0; i <= maxCoreBucket; i++) {
+            buckets[i] = new ConcurrentSkipListSet<>(byMaxPrice);
+        }
+    }
+
+    public Subscription Subscribe(LaptopFilter filter, ServerCallStreamObserver<WatchLaptopsResponse> observer) {
+        Subscription subscription = new Subscription(
+                nextID.incrementAndGet(), filter, observer, new ArrayBlockingQueue<>(bufferSize));
+        buckets[bucketOf(filter.getMinCpuCores())].add(subscription);
+        subscriptionCount.incrementAndGet();
+        return subscription;
+    }
+
+    public void Unsubscribe(Subscription subscription) {
+        if (buckets[bucketOf(subscription.filter.getMinCpuCores())].remove(subscription)) {
+            subscriptionCount.decrementAndGet();
+        }
+    }
+
+    public void Publish(Laptop laptop) {
+        Subscription probe = new Subscription(Long.MIN_VALUE, laptop.getPriceUsd());
+        int maxBucket = bucketOf(laptop.getCpu().getNumCores());
+
+        for (int i = 0; i <= maxBucket; i++) {
+            for (Subscription subscription : buckets[i].tailSet(probe)) {
+                if (subscription.matcher.matches(laptop)) {
+                    subscription.offer(laptop);
+                }
+            }
+        }
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptionCount.get();
+    }
+
+    private static int bucketOf(int minCores) {
+        // laptops with more cores than the last bucket still visit it,
+        // the full filter check rejects the subscriptions that ask for more
+        return Math.min(Math.max(minCores, 0), maxCoreBucket);
+    }
+
+    public class Subscription {
+        private final long id;
+        private final double maxPrice;
+        private final LaptopFilter filter;
+        private final LaptopMatcher matcher;
+        private final ServerCallStreamObserver<WatchLaptopsResponse> observer;
+        private final BlockingQueue<Laptop> buffer;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Subscription(long id, LaptopFilter filter,
+                             ServerCallStreamObserver<WatchLaptopsResponse> observer,
+                             BlockingQueue<Laptop> buffer) {
+            this.id = id;
+            this.maxPrice = filter.getMaxPriceUsd();
+            this.filter = filter;
+            this.matcher = LaptopMatcher.compile(filter);
+            this.observer = observer;
+            this.buffer = buffer;
+        }
+
+        private Subscription(long id, double maxPrice) {
+            this.id = id;
+            this.maxPrice = maxPrice;
+            this.filter = null;
+            this.matcher = null;
+            this.observer = null;
+            this.buffer = null;
+        }
+
+        private void offer(Laptop laptop) {
+            if (closed.get()) {
+                return;
+            }
+            if (!buffer.offer(laptop)) {
+                // the watcher doesn't keep up, drop it instead of buffering without limit
+                logger.info("watcher is too slow, buffer is full: " + bufferSize);
+                close(Status.RESOURCE_EXHAUSTED.withDescription("watch buffer is full"));
+                return;
+            }
+            drain();
+        }
+
+        // drain sends buffered laptops while the transport accepts more messages.
+        // It is called on publish and from the observer's onReady handler.
+        public synchronized void drain() {
+            while (!closed.get() && observer.isReady()) {
+                Laptop laptop = buffer.poll();
+                if (laptop == null) {
+                    return;
+                }
+                observer.onNext(WatchLaptopsResponse.newBuilder().setLaptop(laptop).build());
+            }
+        }
+
+        private synchronized void close(Status status) {
+            if (closed.compareAndSet(false, true)) {
+                Unsubscribe(this);
+                buffer.clear();
+                observer.onError(status.asRuntimeException());
+            }
+        }
+
+        public void cancel() {
+            if (closed.compareAndSet(false, true)) {
+                Unsubscribe(this);
+                buffer.clear();
+            }
+        }
+    }
+}
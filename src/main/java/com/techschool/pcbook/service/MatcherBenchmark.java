@@ -0,0 +1,56 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.*;
+import com.techschool.pcbook.sample.Generator;
+
+// MatcherBenchmark prints the match throughput of a compiled LaptopFilter over 1M generated laptops
+// as predicates are added to the filter one at a time.
+public class MatcherBenchmark {
+    public static void main(String[] args) {
+        Generator generator = new Generator();
+        int n = 1000000;
+        Laptop[] laptops = new Laptop[n];
+        for (int i = 0; i < n; i++) {
+            laptops[i] = generator.NewLaptop();
+        }
+
+        LaptopFilter.Builder builder = LaptopFilter.newBuilder().setMaxPriceUsd(3000);
+        Runnable[] steps = {
+                () -> builder.setMinCpuCores(4),
+                () -> builder.setMinCpuGhz(2.5),
+                () -> builder.setMinRam(Memory.newBuilder().setValue(8).setUnit(Memory.Unit.GIGABYTE)),
+                () -> builder.addBrands("Apple").addBrands("Dell"),
+                () -> builder.setMinGpuMemory(Memory.newBuilder().setValue(4).setUnit(Memory.Unit.GIGABYTE)),
+                () -> builder.setMinSsdCapacity(Memory.newBuilder().setValue(256).setUnit(Memory.Unit.GIGABYTE)),
+                () -> builder.setMinScreenInch(14).setMaxScreenInch(16),
+                () -> builder.setMinResolutionWidth(1920).setMinResolutionHeight(1080),
+                () -> builder.addPanels(Screen.Panel.IPS),
+                () -> builder.addKeyboardLayouts(Keyboard.Layout.QWERTY),
+                () -> builder.setMinWeightKg(1).setMaxWeightKg(2.5f),
+                () -> builder.setMinReleaseYear(2018),
+        };
+
+        for (int step = 0; step <= steps.length; step++) {
+            if (step > 0) {
+                steps[step - 1].run();
+            }
+            LaptopMatcher matcher = LaptopMatcher.compile(builder.build());
+
+            long best = Long.MAX_VALUE;
+            int matched = 0;
+            for (int round = 0; round < 5; round++) {
+                matched = 0;
+                long start = System.nanoTime();
+                for (Laptop laptop : laptops) {
+                    if (matcher.matches(laptop)) {
+                        matched++;
+                    }
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            System.out.printf("predicates: %2d matched: %7d throughput: %.1f M laptops/s%n",
+                    matcher.getPredicateCount(), matched, n * 1e3 / best);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.sample.Generator;
+
+// NameIndexBenchmark fills an IndexedLaptopStore and prints the Suggest latency per prefix.
+// The catalog size is the first argument.
+public class NameIndexBenchmark {
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        IndexedLaptopStore store = new IndexedLaptopStore();
+        Generator generator = new Generator();
+        for (int i = 0; i < n; i++) {
+            store.Save(generator.NewLaptop());
+        }
+
+        String[] prefixes = {"m", "mac", "thinkpad x1 e", "gtx 10", "radeon 7", "uhd graphics 1"};
+        int rounds = 1000;
+        for (String prefix : prefixes) {
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                store.Suggest(prefix, 10);
+            }
+            System.out.printf("suggest %-16s %8.1f us%n", "\"" + prefix + "\"", (System.nanoTime() - start) / 1e3 / rounds);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.techschool.pcbook.service;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.LaptopFilter;
+import com.techschool.pcbook.pb.NameSuggestion;
+import io.grpc.Context;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+// OffHeapLaptopStore keeps laptops serialized in direct ByteBuffer slabs outside the Java heap,
+// so millions of laptops are a few large buffers to the garbage collector instead of tens of
+// millions of small objects. Laptops are decoded again on Find, and one at a time during a search.
+//
+// A slab is a sequence of records: length, ID hash, ID, encoded laptop. The only index on the
+// heap is an open-addressed table of record locations, eight bytes a slot; a lookup probes
+// by the ID hash and compares the ID stored in the record.
+//
+// Saves are serialized, readers take no lock. A record is written before it is published,
+// by storing its location in the table for Find and by moving the slab end for Search.
+public class OffHeapLaptopStore implements LaptopStore {
+    private static final Logger logger = Logger.getLogger(OffHeapLaptopStore.class.getName());
+
+    // record header: int total length, int ID hash, short ID length
+    private static final int headerSize = 10;
+    private static final double maxLoad = 0.6;
+
+    private final int slabSize;
+    private final List<Slab> slabs = new CopyOnWriteArrayList<>();
+
+    // slots hold location + 1, zero is empty; replaced as a whole when it grows
+    private volatile AtomicLongArray table;
+    // guarded by this
+    private int size;
+    private volatile int count;
+
+    public OffHeapLaptopStore(int slabSize, int expectedLaptops) {
+        if (slabSize < 1024) {
+            throw new IllegalArgumentException("slab size must be at least 1 KB");
+        }
+        this.slabSize = slabSize;
+        this.table = new AtomicLongArray(capacityFor(expectedLaptops));
+    }
+
+    // OffHeapLaptopStore with 64 MB slabs
+    public OffHeapLaptopStore() {
+        this(64 << 20, 1024);
+    }
+
+    @Override
+    public synchronized void Save(Laptop laptop) throws Exception {
+        String id = laptop.getId();
+        int hash = id.hashCode();
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if (locate(hash, idBytes) >= 0) {
+            throw new AlreadyExistException("laptop already exists.");
+        }
+
+        int length = headerSize + idBytes.length + laptop.getSerializedSize();
+        if (length > slabSize) {
+            throw new IllegalArgumentException("laptop of " + length + " bytes is larger than a slab");
+        }
+        Slab slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slabSize - slab.end < length) {
+            slab = new Slab(ByteBuffer.allocateDirect(slabSize));
+            slabs.add(slab);
+        }
+
+        int position = slab.end;
+        ByteBuffer record = slab.buffer.duplicate();
+        record.position(position);
+        record.limit(position + length);
+        record.putInt(length);
+        record.putInt(hash);
+        record.putShort((short) idBytes.length);
+        record.put(idBytes);
+        writeLaptop(laptop, record.slice());
+
+        long location = ((long) (slabs.size() - 1) << 32) | position;
+        if (size + 1 > table.length() * maxLoad) {
+            table = rehash(table, table.length() * 2);
+        }
+        insert(table, hash, location);
+        slab.end = position + length;
+        size++;
+        count = size;
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        long location = locate(id.hashCode(), id.getBytes(StandardCharsets.UTF_8));
+        if (location < 0) {
+            return null;
+        }
+        Slab slab = slabs.get((int) (location >>> 32));
+        int position = (int) location;
+        return decode(slab.buffer.duplicate(), position);
+    }
+
+    @Override
+    public void Search(Context ctx, LaptopFilter filter, LaptopStream stream) {
+        LaptopMatcher matcher = LaptopMatcher.compile(filter);
+        for (Slab slab : slabs) {
+            boolean completed = scan(ctx, slab, laptop -> {
+                if (matcher.matches(laptop)) {
+                    stream.Send(laptop);
+                }
+            });
+            if (!completed) {
+                logger.info("context is cancelled");
+                return;
+            }
+        }
+    }
+
+    @Override
+    public List<NameSuggestion> Suggest(String prefix, int limit) {
+        return LaptopNameIndex.scanSuggest(this, prefix, limit);
+    }
+
+    @Override
+    public LaptopAggregation Aggregate(Context ctx, LaptopFilter filter, LaptopAggregation aggregation) {
+        LaptopMatcher matcher = LaptopMatcher.compile(filter);
+        List<Slab> current = slabs;
+
+        // every fork-join worker decodes whole slabs into its own partial, the partials are merged at the end
+        LaptopAggregation result = IntStream.range(0, current.size()).parallel()
+                .collect(aggregation::empty, (partial, i) -> scan(ctx, current.get(i), laptop -> {
+                    if (matcher.matches(laptop)) {
+                        partial.add(laptop);
+                    }
+                }), LaptopAggregation::merge);
+
+        aggregation.merge(result);
+        return aggregation;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // getOffHeapBytes returns the memory taken by the slabs
+    public long getOffHeapBytes() {
+        return (long) slabs.size() * slabSize;
+    }
+
+    // getIndexBytes returns the heap taken by the location table
+    public long getIndexBytes() {
+        return (long) table.length() * Long.BYTES;
+    }
+
+    // scan decodes the published records of a slab in order, it returns false if ctx was cancelled
+    private static boolean scan(Context ctx, Slab slab, LaptopStream stream) {
+        ByteBuffer buffer = slab.buffer.duplicate();
+        int end = slab.end;
+        int position = 0;
+        while (position < end) {
+            if (ctx.isCancelled()) {
+                return false;
+            }
+            int length = buffer.getInt(position);
+            stream.Send(decode(buffer, position));
+            position += length;
+        }
+        return true;
+    }
+
+    // locate returns the location of the record with this ID, or -1
+    private long locate(int hash, byte[] idBytes) {
+        AtomicLongArray current = table;
+        int mask = current.length() - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            long entry = current.get(slot);
+            if (entry == 0) {
+                return -1;
+            }
+            long location = entry - 1;
+            if (idEquals(location, hash, idBytes)) {
+                return location;
+            }
+        }
+    }
+
+    private boolean idEquals(long location, int hash, byte[] idBytes) {
+        ByteBuffer buffer = slabs.get((int) (location >>> 32)).buffer;
+        int position = (int) location;
+        if (buffer.getInt(position + 4) != hash || buffer.getShort(position + 8) != idBytes.length) {
+            return false;
+        }
+        int start = position + headerSize;
+        for (int i = 0; i < idBytes.length; i++) {
+            if (buffer.get(start + i) != idBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeLaptop(Laptop laptop, ByteBuffer target) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(target);
+        laptop.writeTo(out);
+        out.flush();
+        out.checkNoSpaceLeft();
+    }
+
+    private static Laptop decode(ByteBuffer buffer, int position) {
+        int length = buffer.getInt(position);
+        int idLength = buffer.getShort(position + 8);
+        buffer.limit(position + length);
+        buffer.position(position + headerSize + idLength);
+        try {
+            return Laptop.parseFrom(buffer);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("corrupt laptop record at " + position, e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private AtomicLongArray rehash(AtomicLongArray old, int capacity) {
+        AtomicLongArray next = new AtomicLongArray(capacity);
+        for (int i = 0; i < old.length(); i++) {
+            long entry = old.get(i);
+            if (entry != 0) {
+                long location = entry - 1;
+                int hash = slabs.get((int) (location >>> 32)).buffer.getInt((int) location + 4);
+                insert(next, hash, location);
+            }
+        }
+        return next;
+    }
+
+    private static void insert(AtomicLongArray target, int hash, long location) {
+        int mask = target.length() - 1;
+        int slot = mix(hash) & mask;
+        while (target.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        target.set(slot, location + 1);
+    }
+
+    // mix spreads the bits of String.hashCode, whose low bits are poor for similar strings
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int capacityFor(int expected) {
+        int capacity = 16;
+        while (capacity * maxLoad < expected) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static class Slab {
+        private final ByteBuffer buffer;
+        // end of the published records, moved by the writer after a record is complete
+        private volatile int end;
+
+        private Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
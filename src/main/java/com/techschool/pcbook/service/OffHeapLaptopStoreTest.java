@@ -0,0 +1,110 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.*;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.Context;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class OffHeapLaptopStoreTest {
+
+    @Test
+    public void find() throws Exception {
+        OffHeapLaptopStore store = new OffHeapLaptopStore(4096, 4);
+        List<Laptop> laptops = new ArrayList<>();
+        Generator generator = new Generator();
+        // small slabs and table, so records span several slabs and the table grows
+        for (int i = 0; i < 1000; i++) {
+            Laptop laptop = generator.NewLaptop();
+            store.Save(laptop);
+            laptops.add(laptop);
+        }
+
+        assertEquals(1000, store.size());
+        assertTrue(store.getOffHeapBytes() > 4096);
+        for (Laptop laptop : laptops) {
+            assertEquals(laptop, store.Find(laptop.getId()));
+        }
+        assertNull(store.Find("unknown"));
+        assertNull(store.Find(""));
+    }
+
+    @Test(expected = AlreadyExistException.class)
+    public void saveTwice() throws Exception {
+        OffHeapLaptopStore store = new OffHeapLaptopStore();
+        Laptop laptop = new Generator().NewLaptop();
+        store.Save(laptop);
+        store.Save(laptop);
+    }
+
+    @Test
+    public void searchAndAggregateMatchInMemoryStore() throws Exception {
+        OffHeapLaptopStore offHeapStore = new OffHeapLaptopStore(64 * 1024, 16);
+        InMemoryLaptopStore scanStore = new InMemoryLaptopStore();
+        Generator generator = new Generator();
+        for (int i = 0; i < 5000; i++) {
+            Laptop laptop = generator.NewLaptop();
+            offHeapStore.Save(laptop);
+            scanStore.Save(laptop);
+        }
+
+        LaptopFilter[] filters = {
+                LaptopFilter.newBuilder().setMaxPriceUsd(3000).build(),
+                LaptopFilter.newBuilder().setMaxPriceUsd(3000).addBrands("Apple").addBrands("Dell").build(),
+                LaptopFilter.newBuilder().setMaxPriceUsd(3500).setMinCpuCores(4).addGpuBrands("NVIDIA").build(),
+        };
+        for (LaptopFilter filter : filters) {
+            Set<String> offHeap = new HashSet<>();
+            offHeapStore.Search(Context.current(), filter, laptop -> offHeap.add(laptop.getId()));
+
+            Set<String> scanned = new HashSet<>();
+            scanStore.Search(Context.current(), filter, laptop -> scanned.add(laptop.getId()));
+
+            assertEquals(scanned, offHeap);
+
+            LaptopAggregation aggregation = offHeapStore.Aggregate(Context.current(), filter,
+                    new LaptopAggregation(Collections.emptyList(), 0));
+            assertEquals(scanned.size(), aggregation.getCount());
+        }
+    }
+
+    @Test
+    public void readersDuringSaves() throws Exception {
+        OffHeapLaptopStore store = new OffHeapLaptopStore(8192, 4);
+        Generator generator = new Generator();
+        LaptopFilter all = LaptopFilter.newBuilder().setMaxPriceUsd(Double.MAX_VALUE).build();
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    store.Search(Context.current(), all, laptop -> {
+                        // every published record is complete
+                        assertEquals(laptop, store.Find(laptop.getId()));
+                    });
+                }
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < 2000; i++) {
+            store.Save(generator.NewLaptop());
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(error.get());
+    }
+}
@@ -0,0 +1,101 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.LaptopFilter;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.Context;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+// OffHeapStoreBenchmark fills a store with laptops and reports the heap it takes, the GC pauses
+// while searches run alongside garbage-producing work, and the search throughput.
+// Run it once per store in a fresh JVM, so the stores don't share a heap:
+//
+//   OffHeapStoreBenchmark in-memory 5000000
+//   OffHeapStoreBenchmark off-heap 5000000
+public class OffHeapStoreBenchmark {
+    public static void main(String[] args) throws Exception {
+        String kind = args.length > 0 ? args[0] : "off-heap";
+        int laptops = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        int searches = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        // the off-heap store sizes its index up front, so the heap is measured before it is created
+        long heapBefore = usedHeap();
+        LaptopStore store = kind.equals("in-memory")
+                ? new InMemoryLaptopStore()
+                : new OffHeapLaptopStore(64 << 20, laptops);
+
+        Generator generator = new Generator();
+        for (int i = 0; i < laptops; i++) {
+            store.Save(generator.NewLaptop());
+        }
+        long heapAfter = usedHeap();
+
+        System.out.printf("%s: %d laptops, heap: %.1f MB%n", kind, laptops, (heapAfter - heapBefore) / 1e6);
+        if (store instanceof OffHeapLaptopStore) {
+            OffHeapLaptopStore offHeap = (OffHeapLaptopStore) store;
+            System.out.printf("  off heap: %.1f MB, index: %.1f MB%n",
+                    offHeap.getOffHeapBytes() / 1e6, offHeap.getIndexBytes() / 1e6);
+        }
+
+        // short-lived garbage ages the heap like request handling does, so old-gen
+        // collections have to trace the laptops
+        Thread churn = new Thread(() -> {
+            Generator churnGenerator = new Generator();
+            Laptop[] survivors = new Laptop[100000];
+            for (long i = 0; !Thread.currentThread().isInterrupted(); i++) {
+                survivors[(int) (i % survivors.length)] = churnGenerator.NewLaptop();
+            }
+        });
+        churn.setDaemon(true);
+
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        churn.start();
+
+        LaptopFilter filter = LaptopFilter.newBuilder().setMaxPriceUsd(2000).setMinCpuCores(4).build();
+        AtomicLong matched = new AtomicLong();
+        long start = System.nanoTime();
+        for (int i = 0; i < searches; i++) {
+            store.Search(Context.current(), filter, laptop -> matched.incrementAndGet());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        churn.interrupt();
+
+        long collections = gcCount() - gcCountBefore;
+        long pauseMillis = gcMillis() - gcMillisBefore;
+        // the searches of one store take longer than the other's, so the GC time is also given per second
+        System.out.printf("  search: %.0f laptops/s (%d matched)  gc: %d collections, %d ms total, %.1f ms average, %.0f ms/s%n",
+                (double) laptops * searches / seconds, matched.get() / searches,
+                collections, pauseMillis, collections == 0 ? 0 : (double) pauseMillis / collections,
+                pauseMillis / seconds);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    // gcMillis returns the time spent collecting, which for the stop-the-world collectors is pause time
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
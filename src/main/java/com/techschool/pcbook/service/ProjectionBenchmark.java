@@ -0,0 +1,46 @@
+package com.techschool.pcbook.service;
+
+import com.google.protobuf.FieldMask;
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.sample.Generator;
+
+// ProjectionBenchmark prints the size and encoding time of full laptops versus a listing-page
+// projection of them, for 100K generated laptops.
+public class ProjectionBenchmark {
+    public static void main(String[] args) {
+        Generator generator = new Generator();
+        int n = 100000;
+        Laptop[] laptops = new Laptop[n];
+        for (int i = 0; i < n; i++) {
+            laptops[i] = generator.NewLaptop();
+        }
+
+        FieldMask mask = FieldMask.newBuilder()
+                .addPaths("id")
+                .addPaths("brand")
+                .addPaths("name")
+                .addPaths("price_usd")
+                .addPaths("cpu.name")
+                .build();
+        LaptopProjection projection = LaptopProjection.of(mask);
+
+        for (int round = 0; round < 10; round++) {
+            long fullBytes = 0;
+            long start = System.nanoTime();
+            for (Laptop laptop : laptops) {
+                fullBytes += laptop.toByteArray().length;
+            }
+            long fullNanos = System.nanoTime() - start;
+
+            long projectedBytes = 0;
+            start = System.nanoTime();
+            for (Laptop laptop : laptops) {
+                projectedBytes += projection.apply(laptop).toByteArray().length;
+            }
+            long projectedNanos = System.nanoTime() - start;
+
+            System.out.printf("full: %d bytes/result %d ns/result, projected: %d bytes/result %d ns/result%n",
+                    fullBytes / n, fullNanos / n, projectedBytes / n, projectedNanos / n);
+        }
+    }
+}
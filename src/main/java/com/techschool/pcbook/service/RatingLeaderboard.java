@@ -0,0 +1,152 @@
+package com.techschool.pcbook.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// RatingLeaderboard ranks laptops by average score, then by number of ratings, then by ID.
+// The rating store updates it on every Add, so the best rated laptops are read from the head
+// of a skip list instead of sorting every rating per request. Readers walk the list without
+// locking it: a reader racing with an update may see a laptop twice or miss it once.
+public class RatingLeaderboard {
+    private static final Comparator<Entry> byRank = Comparator
+            .comparingDouble((Entry e) -> e.average).reversed()
+            .thenComparing(Comparator.comparingInt((Entry e) -> e.count).reversed())
+            .thenComparing(e -> e.laptopID);
+
+    private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>(byRank);
+    // the current entry of every ranked laptop
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final List<Consumer<Entry>> listeners = new CopyOnWriteArrayList<>();
+
+    // Update moves a laptop from its previous rating to the current one. Calls for the same laptop
+    // must not overlap, the rating store calls it while it holds the laptop's entry. The listeners
+    // are not called, the store calls Publish once it has let go of the entry.
+    public void Update(String laptopID, Rating previous, Rating current) {
+        if (previous != null) {
+            ranking.remove(new Entry(laptopID, previous));
+        }
+        Entry entry = new Entry(laptopID, current);
+        ranking.add(entry);
+        entries.put(laptopID, entry);
+    }
+
+    // Publish calls the listeners with the rating a laptop was updated to. Publish calls for the
+    // same laptop may arrive out of order, listeners read the ranking again rather than trust it.
+    public void Publish(String laptopID, Rating rating) {
+        Entry entry = new Entry(laptopID, rating);
+        for (Consumer<Entry> listener : listeners) {
+            listener.accept(entry);
+        }
+    }
+
+    // Top returns the n best ranked laptops accepted by filter
+    public List<Entry> Top(int n, Predicate<String> filter) {
+        return Top(n, filter, Integer.MAX_VALUE);
+    }
+
+    // Top returns the n best ranked laptops accepted by filter among the first maxScanned laptops
+    // of the ranking, so the cost of a filter that rejects most laptops is bounded
+    public List<Entry> Top(int n, Predicate<String> filter, int maxScanned) {
+        List<Entry> top = new ArrayList<>(n);
+        Set<String> seen = new HashSet<>();
+        for (Entry entry : ranking) {
+            if (top.size() >= n || seen.size() >= maxScanned) {
+                break;
+            }
+            if (seen.add(entry.laptopID) && filter.test(entry.laptopID)) {
+                top.add(entry);
+            }
+        }
+        return top;
+    }
+
+    // Top returns the n best ranked laptops among candidates. It looks every candidate up instead of
+    // walking the ranking, so it suits a few candidates that may rank anywhere.
+    public List<Entry> Top(int n, Collection<String> candidates) {
+        // the worst of the best n so far is at the head
+        PriorityQueue<Entry> best = new PriorityQueue<>(n + 1, byRank.reversed());
+        for (String laptopID : candidates) {
+            Entry entry = entries.get(laptopID);
+            if (entry == null) {
+                continue;
+            }
+            best.add(entry);
+            if (best.size() > n) {
+                best.poll();
+            }
+        }
+
+        List<Entry> top = new ArrayList<>(best);
+        top.sort(byRank);
+        return top;
+    }
+
+    public int size() {
+        return ranking.size();
+    }
+
+    // Listen calls listener with the new entry after every update, on the rating thread,
+    // so it must be quick. It returns the action that removes the listener.
+    public Runnable Listen(Consumer<Entry> listener) {
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    // ranksBefore tells whether a ranks before b
+    public static boolean ranksBefore(Entry a, Entry b) {
+        return byRank.compare(a, b) < 0;
+    }
+
+    public static class Entry {
+        private final String laptopID;
+        private final int count;
+        private final double average;
+
+        private Entry(String laptopID, Rating rating) {
+            this.laptopID = laptopID;
+            this.count = rating.getCount();
+            this.average = rating.getSum() / rating.getCount();
+        }
+
+        public String getLaptopID() {
+            return laptopID;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getAverage() {
+            return average;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return count == other.count && Double.compare(average, other.average) == 0
+                    && laptopID.equals(other.laptopID);
+        }
+
+        @Override
+        public int hashCode() {
+            return laptopID.hashCode() * 31 + count;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.techschool.pcbook.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RatingLeaderboardTest {
+
+    @Test
+    public void ranksByAverageThenCount() {
+        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        ratingStore.Add("a", 8);
+        ratingStore.Add("b", 9);
+        ratingStore.Add("c", 8);
+        ratingStore.Add("c", 8);
+        ratingStore.Add("d", 5);
+
+        List<RatingLeaderboard.Entry> top = ratingStore.Leaderboard().Top(3, id -> true);
+        assertEquals(3, top.size());
+        assertEquals("b", top.get(0).getLaptopID());
+        assertEquals("c", top.get(1).getLaptopID());
+        assertEquals(2, top.get(1).getCount());
+        assertEquals("a", top.get(2).getLaptopID());
+
+        // a new rating moves the laptop instead of adding it twice
+        ratingStore.Add("d", 10);
+        ratingStore.Add("d", 10);
+        top = ratingStore.Leaderboard().Top(10, id -> true);
+        assertEquals(4, top.size());
+        assertEquals(4, ratingStore.Leaderboard().size());
+        assertEquals("b", top.get(0).getLaptopID());
+        assertEquals("d", top.get(1).getLaptopID());
+        assertEquals(25.0 / 3, top.get(1).getAverage(), 1e-9);
+
+        top = ratingStore.Leaderboard().Top(2, id -> !id.equals("b"));
+        assertEquals("d", top.get(0).getLaptopID());
+        assertEquals("c", top.get(1).getLaptopID());
+    }
+
+    @Test
+    public void topScansAtMostTheGivenCount() {
+        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        for (int i = 0; i < 100; i++) {
+            ratingStore.Add("laptop-" + i, i / 10.0);
+        }
+
+        // laptop-0 ranks last, beyond the first 50
+        List<String> tested = new ArrayList<>();
+        List<RatingLeaderboard.Entry> top = ratingStore.Leaderboard().Top(1, id -> {
+            tested.add(id);
+            return id.equals("laptop-0");
+        }, 50);
+        assertTrue(top.isEmpty());
+        assertEquals(50, tested.size());
+
+        top = ratingStore.Leaderboard().Top(1, id -> id.equals("laptop-0"), 100);
+        assertEquals("laptop-0", top.get(0).getLaptopID());
+    }
+
+    @Test
+    public void topOfCandidates() {
+        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        for (int i = 0; i < 100; i++) {
+            ratingStore.Add("laptop-" + i, i / 10.0);
+        }
+
+        // the candidates rank anywhere, an unrated one is skipped
+        List<RatingLeaderboard.Entry> top = ratingStore.Leaderboard().Top(2,
+                Arrays.asList("laptop-0", "laptop-50", "unrated", "laptop-7"));
+        assertEquals(2, top.size());
+        assertEquals("laptop-50", top.get(0).getLaptopID());
+        assertEquals("laptop-7", top.get(1).getLaptopID());
+    }
+
+    @Test
+    public void listenersSeeEveryUpdate() {
+        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        List<String> updated = new ArrayList<>();
+        Runnable stop = ratingStore.Leaderboard().Listen(entry -> updated.add(entry.getLaptopID()));
+
+        ratingStore.Add("a", 5);
+        ratingStore.Add("b", 6);
+        stop.run();
+        ratingStore.Add("c", 7);
+
+        assertEquals(2, updated.size());
+        assertEquals("a", updated.get(0));
+        assertEquals("b", updated.get(1));
+    }
+
+    @Test
+    public void concurrentAdd() throws InterruptedException {
+        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        int laptops = 20;
+        int threads = 8;
+        int perThread = 5000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    ratingStore.Add("laptop-" + (i + seed) % laptops, (i * 7 + seed) % 11);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // one entry per laptop, in rank order, with every rating counted
+        assertEquals(laptops, ratingStore.Leaderboard().size());
+        List<RatingLeaderboard.Entry> top = ratingStore.Leaderboard().Top(laptops, id -> true);
+        int total = 0;
+        for (int i = 0; i < top.size(); i++) {
+            total += top.get(i).getCount();
+            if (i > 0) {
+                assertTrue(RatingLeaderboard.ranksBefore(top.get(i - 1), top.get(i)));
+            }
+        }
+        assertEquals(threads * perThread, total);
+    }
+}
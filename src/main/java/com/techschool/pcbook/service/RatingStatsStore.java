@@ -0,0 +1,50 @@
+package com.techschool.pcbook.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+// RatingStatsStore keeps a RatingWindow per laptop, for trends over the last minutes or hours
+// that the lifetime count and sum of RatingStore can't show.
+public class RatingStatsStore {
+    private final long bucketMillis;
+    private final int bucketCount;
+    private final ConcurrentMap<String, RatingWindow> data = new ConcurrentHashMap<>();
+
+    public RatingStatsStore(long bucketWidth, int bucketCount, TimeUnit unit) {
+        this.bucketMillis = unit.toMillis(bucketWidth);
+        this.bucketCount = bucketCount;
+        // fail on bad settings now rather than on the first rating
+        new RatingWindow(bucketMillis, bucketCount);
+    }
+
+    // forServer keeps the last hour in one minute buckets
+    public static RatingStatsStore forServer() {
+        return new RatingStatsStore(1, 60, TimeUnit.MINUTES);
+    }
+
+    public long getSpanMillis() {
+        return bucketMillis * bucketCount;
+    }
+
+    public void Add(String laptopID, double score) {
+        Add(laptopID, score, System.currentTimeMillis());
+    }
+
+    void Add(String laptopID, double score, long nowMillis) {
+        data.computeIfAbsent(laptopID, id -> new RatingWindow(bucketMillis, bucketCount)).add(score, nowMillis);
+    }
+
+    public RatingWindow.Stats Stats(String laptopID, long window, TimeUnit unit) {
+        return Stats(laptopID, unit.toMillis(window), System.currentTimeMillis());
+    }
+
+    RatingWindow.Stats Stats(String laptopID, long windowMillis, long nowMillis) {
+        RatingWindow ratingWindow = data.get(laptopID);
+        if (ratingWindow == null) {
+            // no ratings yet: an empty window, checked like any other
+            ratingWindow = new RatingWindow(bucketMillis, bucketCount);
+        }
+        return ratingWindow.stats(windowMillis, nowMillis);
+    }
+}
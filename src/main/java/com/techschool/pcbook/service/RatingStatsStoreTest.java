@@ -0,0 +1,94 @@
+package com.techschool.pcbook.service;
+
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RatingStatsStoreTest {
+    private static final long minute = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void windowedAverageAndPercentiles() {
+        RatingStatsStore store = new RatingStatsStore(1, 60, TimeUnit.MINUTES);
+        String laptopID = UUID.randomUUID().toString();
+        long now = 1000 * minute;
+
+        // 40 minutes ago
+        for (int i = 0; i < 10; i++) {
+            store.Add(laptopID, 2, now - 40 * minute);
+        }
+        // this minute
+        for (int i = 1; i <= 10; i++) {
+            store.Add(laptopID, i, now);
+        }
+
+        RatingWindow.Stats lastMinute = store.Stats(laptopID, minute, now);
+        assertEquals(10, lastMinute.getCount());
+        assertEquals(5.5, lastMinute.getAverage(), 1e-9);
+        assertEquals(5, lastMinute.percentile(0.5), 1e-9);
+        assertEquals(9, lastMinute.percentile(0.9), 1e-9);
+        assertEquals(10, lastMinute.percentile(0.99), 1e-9);
+
+        RatingWindow.Stats lastHour = store.Stats(laptopID, 60 * minute, now);
+        assertEquals(20, lastHour.getCount());
+        assertEquals(3.75, lastHour.getAverage(), 1e-9);
+        assertEquals(2, lastHour.percentile(0.5), 1e-9);
+    }
+
+    @Test
+    public void oldBucketsExpire() {
+        RatingStatsStore store = new RatingStatsStore(1, 60, TimeUnit.MINUTES);
+        String laptopID = UUID.randomUUID().toString();
+        long now = 1000 * minute;
+
+        store.Add(laptopID, 8, now);
+        assertEquals(1, store.Stats(laptopID, 60 * minute, now + 59 * minute).getCount());
+        assertEquals(0, store.Stats(laptopID, 60 * minute, now + 60 * minute).getCount());
+
+        // the slot is reused by a later minute and starts empty
+        store.Add(laptopID, 4, now + 60 * minute);
+        RatingWindow.Stats stats = store.Stats(laptopID, 60 * minute, now + 60 * minute);
+        assertEquals(1, stats.getCount());
+        assertEquals(4, stats.getAverage(), 1e-9);
+
+        // a rating older than the ring is ignored
+        store.Add(laptopID, 10, now);
+        assertEquals(1, store.Stats(laptopID, 60 * minute, now + 60 * minute).getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowLongerThanRing() {
+        RatingStatsStore store = new RatingStatsStore(1, 60, TimeUnit.MINUTES);
+        store.Stats(UUID.randomUUID().toString(), 61 * minute, 1000 * minute);
+    }
+
+    @Test
+    public void concurrentAdd() throws InterruptedException {
+        RatingStatsStore store = new RatingStatsStore(1, 60, TimeUnit.MINUTES);
+        String laptopID = UUID.randomUUID().toString();
+        long now = 1000 * minute;
+
+        int threads = 8;
+        int perThread = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                // spread over two minutes so threads race to replace buckets
+                for (int i = 0; i < perThread; i++) {
+                    store.Add(laptopID, 6, now + (i % 2) * minute);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        RatingWindow.Stats stats = store.Stats(laptopID, 2 * minute, now + minute);
+        assertEquals(threads * perThread, stats.getCount());
+        assertEquals(6, stats.getAverage(), 1e-9);
+    }
+}
@@ -2,4 +2,7 @@ package com.techschool.pcbook.service;
 
 public interface RatingStore {
     Rating Add(String laptopID, double score);
+
+    // Leaderboard ranks the laptops of this store, it is kept up to date by Add
+    RatingLeaderboard Leaderboard();
 }
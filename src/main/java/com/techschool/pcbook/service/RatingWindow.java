@@ -0,0 +1,138 @@
+package com.techschool.pcbook.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+// RatingWindow keeps the recent ratings of one laptop in a ring of time buckets. Each bucket holds
+// the sum and a histogram of the scores rated during its interval, so the memory of a window is
+// fixed by the number of buckets, whatever the number of ratings.
+//
+// A bucket that has fallen out of the ring is replaced with CAS by the first rating of a new
+// interval, and ratings are added with atomic increments: writers never take a lock.
+public class RatingWindow {
+    // scores go from 0 to 10 in half points, percentiles are reported at that resolution
+    static final double binWidth = 0.5;
+    static final int binCount = 21;
+
+    private final long bucketMillis;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    public RatingWindow(long bucketMillis, int bucketCount) {
+        if (bucketMillis <= 0 || bucketCount < 1) {
+            throw new IllegalArgumentException("bucket width and count must be positive");
+        }
+        this.bucketMillis = bucketMillis;
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+    }
+
+    public long getSpanMillis() {
+        return bucketMillis * buckets.length();
+    }
+
+    public void add(double score, long nowMillis) {
+        long epoch = nowMillis / bucketMillis;
+        int slot = (int) (epoch % buckets.length());
+
+        Bucket bucket = buckets.get(slot);
+        while (bucket == null || bucket.epoch != epoch) {
+            // the slot already moved on: the rating is older than the whole ring
+            if (bucket != null && bucket.epoch > epoch) {
+                return;
+            }
+            Bucket fresh = new Bucket(epoch);
+            if (buckets.compareAndSet(slot, bucket, fresh)) {
+                bucket = fresh;
+            } else {
+                bucket = buckets.get(slot);
+            }
+        }
+        bucket.add(score);
+    }
+
+    // stats merges the buckets that overlap the last windowMillis, the current one included
+    public Stats stats(long windowMillis, long nowMillis) {
+        if (windowMillis <= 0 || windowMillis > getSpanMillis()) {
+            throw new IllegalArgumentException("window must be between 1 and " + getSpanMillis() + " ms");
+        }
+
+        long epoch = nowMillis / bucketMillis;
+        long first = epoch - (windowMillis + bucketMillis - 1) / bucketMillis + 1;
+
+        long[] histogram = new long[binCount];
+        double sum = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket == null || bucket.epoch < first || bucket.epoch > epoch) {
+                continue;
+            }
+            for (int bin = 0; bin < binCount; bin++) {
+                histogram[bin] += bucket.histogram.get(bin);
+            }
+            sum += bucket.sum.sum();
+        }
+        return new Stats(histogram, sum);
+    }
+
+    static int bin(double score) {
+        long bin = Math.round(score / binWidth);
+        return (int) Math.max(0, Math.min(binCount - 1, bin));
+    }
+
+    private static class Bucket {
+        private final long epoch;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final AtomicLongArray histogram = new AtomicLongArray(binCount);
+
+        private Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+
+        private void add(double score) {
+            histogram.incrementAndGet(bin(score));
+            sum.add(score);
+        }
+    }
+
+    // Stats is a snapshot of a window. It is read without stopping writers, so a rating
+    // added meanwhile may be in the histogram but not yet in the sum.
+    public static class Stats {
+        private final long[] histogram;
+        private final long count;
+        private final double sum;
+
+        private Stats(long[] histogram, double sum) {
+            this.histogram = histogram;
+            long count = 0;
+            for (long n : histogram) {
+                count += n;
+            }
+            this.count = count;
+            this.sum = sum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getAverage() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        // percentile returns the smallest score that at least p of the ratings don't exceed
+        public double percentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int bin = 0; bin < histogram.length; bin++) {
+                seen += histogram[bin];
+                if (seen >= rank) {
+                    return bin * binWidth;
+                }
+            }
+            return (histogram.length - 1) * binWidth;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.*;
+import com.techschool.pcbook.pb.LaptopServiceGrpc.LaptopServiceBlockingStub;
+import io.grpc.Channel;
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+// RemoteLaptopStore is a LaptopStore backed by another LaptopServer,
+// so a ShardedLaptopStore can place shards in separate processes.
+public class RemoteLaptopStore implements LaptopStore {
+    private static final Logger logger = Logger.getLogger(RemoteLaptopStore.class.getName());
+
+    private final LaptopServiceBlockingStub blockingStub;
+
+    public RemoteLaptopStore(Channel channel) {
+        blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        CreateLaptopRequest request = CreateLaptopRequest.newBuilder().setLaptop(laptop).build();
+        try {
+            blockingStub.createLaptop(request);
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.ALREADY_EXISTS) {
+                throw new AlreadyExistException("laptop already exists.");
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        GetLaptopRequest request = GetLaptopRequest.newBuilder().setId(id).build();
+        try {
+            return blockingStub.getLaptop(request).getLaptop();
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public LaptopAggregation Aggregate(Context ctx, LaptopFilter filter, LaptopAggregation aggregation) {
+        AggregateLaptopsRequest request = AggregateLaptopsRequest.newBuilder()
+                .setFilter(filter)
+                .addAllFacets(aggregation.getFacets())
+                .setPriceBucketUsd(aggregation.getBucketUsd())
+                .build();
+
+        Context previous = ctx.attach();
+        try {
+            AggregateLaptopsResponse response = blockingStub.aggregateLaptops(request);
+            aggregation.merge(LaptopAggregation.fromResponse(
+                    response, aggregation.getFacets(), aggregation.getBucketUsd()));
+            return aggregation;
+        } finally {
+            ctx.detach(previous);
+        }
+    }
+
+    @Override
+    public List<NameSuggestion> Suggest(String prefix, int limit) {
+        SuggestLaptopNamesRequest request = SuggestLaptopNamesRequest.newBuilder()
+                .setPrefix(prefix)
+                .setLimit(limit)
+                .build();
+        return blockingStub.suggestLaptopNames(request).getSuggestionsList();
+    }
+
+    @Override
+    public void Search(Context ctx, LaptopFilter filter, LaptopStream stream) {
+        SearchLaptopRequest request = SearchLaptopRequest.newBuilder()
+                .setFilter(filter)
+                .setBatching(SearchBatching.getDefaultInstance())
+                .build();
+
+        // the call inherits ctx, so cancelling ctx cancels the remote search too
+        Context previous = ctx.attach();
+        try {
+            Iterator<SearchLaptopResponse> responseIterator = blockingStub.searchLaptop(request);
+            while (responseIterator.hasNext()) {
+                SearchLaptopResponse response = responseIterator.next();
+                // a server without batching still sends one laptop per message
+                if (response.hasLaptop()) {
+                    stream.Send(response.getLaptop());
+                }
+                for (Laptop laptop : response.getLaptopsList()) {
+                    stream.Send(laptop);
+                }
+            }
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() == Status.Code.CANCELLED) {
+                logger.info("context is cancelled");
+                return;
+            }
+            throw e;
+        } finally {
+            ctx.detach(previous);
+        }
+    }
+}
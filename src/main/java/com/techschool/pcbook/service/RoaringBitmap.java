@@ -0,0 +1,394 @@
+package com.techschool.pcbook.service;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+// RoaringBitmap is a compressed set of non-negative ints split in chunks of 2^16 values.
+// A chunk is a sorted char array while it holds up to 4096 values, and a 8 KB bitmap after that.
+//
+// add must be called by a single writer. Readers may run concurrently without locks and see
+// every value added before the writer's last volatile write they have observed, which is how
+// IndexedLaptopStore publishes a new laptop. A container is changed in place only by appends that
+// end with a volatile write; any other change makes a new container, published in a new array.
+public class RoaringBitmap {
+    private static final int arrayMaxSize = 4096;
+
+    private volatile Container[] containers;
+
+    public RoaringBitmap() {
+        containers = new Container[0];
+    }
+
+    private RoaringBitmap(Container[] containers) {
+        this.containers = containers;
+    }
+
+    public void add(int x) {
+        int high = x >>> 16;
+        Container[] current = containers;
+        Container container = high < current.length ? current[high] : null;
+        Container updated = container == null ? new ArrayContainer().add(x & 0xffff) : container.add(x & 0xffff);
+        if (updated == container) {
+            return;
+        }
+
+        // readers may be walking the current array, and a container stored into it with a plain
+        // write could be seen before its fields are. A new container is published through a new
+        // array and the volatile write of containers instead. Chunks are 2^16 values wide, so the
+        // array is short, and containers are only replaced when they are created or converted.
+        int length = high < current.length ? current.length : Math.max(high + 1, current.length * 2);
+        current = Arrays.copyOf(current, length);
+        current[high] = updated;
+        containers = current;
+    }
+
+    public boolean contains(int x) {
+        Container[] current = containers;
+        int high = x >>> 16;
+        return high < current.length && current[high] != null && current[high].contains(x & 0xffff);
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (Container container : containers) {
+            if (container != null) {
+                count += container.cardinality();
+            }
+        }
+        return count;
+    }
+
+    public void forEach(IntConsumer consumer) {
+        forEachWhile(x -> {
+            consumer.accept(x);
+            return true;
+        });
+    }
+
+    // forEachWhile visits values in increasing order until the visitor returns false
+    public boolean forEachWhile(IntPredicate visitor) {
+        Container[] current = containers;
+        for (int high = 0; high < current.length; high++) {
+            if (current[high] != null && !current[high].forEachWhile(high << 16, visitor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        Container[] x = a.containers;
+        Container[] y = b.containers;
+        Container[] result = new Container[Math.min(x.length, y.length)];
+        for (int i = 0; i < result.length; i++) {
+            if (x[i] != null && y[i] != null) {
+                result[i] = x[i].and(y[i]);
+            }
+        }
+        return new RoaringBitmap(result);
+    }
+
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        Container[] x = a.containers;
+        Container[] y = b.containers;
+        Container[] result = new Container[Math.max(x.length, y.length)];
+        for (int i = 0; i < result.length; i++) {
+            Container cx = i < x.length ? x[i] : null;
+            Container cy = i < y.length ? y[i] : null;
+            if (cx == null) {
+                result[i] = cy == null ? null : cy.copy();
+            } else if (cy == null) {
+                result[i] = cx.copy();
+            } else {
+                result[i] = cx.or(cy);
+            }
+        }
+        return new RoaringBitmap(result);
+    }
+
+    // getSizeInBytes estimates the heap used by the containers
+    public long getSizeInBytes() {
+        long size = 16L + 8L * containers.length;
+        for (Container container : containers) {
+            if (container != null) {
+                size += container.getSizeInBytes();
+            }
+        }
+        return size;
+    }
+
+    private abstract static class Container {
+        abstract boolean contains(int low);
+
+        // add returns the container holding low, this one or its replacement
+        abstract Container add(int low);
+
+        abstract int cardinality();
+
+        abstract boolean forEachWhile(int base, IntPredicate visitor);
+
+        // and returns null when the intersection is empty
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        abstract long getSizeInBytes();
+    }
+
+    private static class ArrayContainer extends Container {
+        // readers must load cardinality before values
+        private char[] values;
+        private volatile int cardinality;
+
+        private ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        private ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            int n = cardinality;
+            return Arrays.binarySearch(values, 0, n, (char) low) >= 0;
+        }
+
+        @Override
+        Container add(int low) {
+            int n = cardinality;
+            char[] current = values;
+            if (n > 0 && current[n - 1] >= low) {
+                int idx = Arrays.binarySearch(current, 0, n, (char) low);
+                if (idx >= 0) {
+                    return this;
+                }
+                // out of order insert: copy so readers never see a shifted array
+                if (n == arrayMaxSize) {
+                    return toBitmap().add(low);
+                }
+                int pos = -idx - 1;
+                char[] inserted = new char[Math.max(current.length, n + 1)];
+                System.arraycopy(current, 0, inserted, 0, pos);
+                inserted[pos] = (char) low;
+                System.arraycopy(current, pos, inserted, pos + 1, n - pos);
+                return new ArrayContainer(inserted, n + 1);
+            }
+
+            // ordinals grow monotonically, so this append is the common path
+            if (n == arrayMaxSize) {
+                return toBitmap().add(low);
+            }
+            if (n == current.length) {
+                current = Arrays.copyOf(current, Math.min(arrayMaxSize, Math.max(4, n * 2)));
+                current[n] = (char) low;
+                values = current;
+            } else {
+                current[n] = (char) low;
+            }
+            cardinality = n + 1;
+            return this;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean forEachWhile(int base, IntPredicate visitor) {
+            int n = cardinality;
+            char[] current = values;
+            for (int i = 0; i < n; i++) {
+                if (!visitor.test(base | current[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Container and(Container other) {
+            int n = cardinality;
+            char[] current = values;
+            char[] result = new char[n];
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                if (other.contains(current[i])) {
+                    result[count++] = current[i];
+                }
+            }
+            return count == 0 ? null : new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+
+            ArrayContainer that = (ArrayContainer) other;
+            int n = cardinality;
+            int m = that.cardinality;
+            char[] x = values;
+            char[] y = that.values;
+            char[] merged = new char[n + m];
+            int i = 0, j = 0, count = 0;
+            while (i < n && j < m) {
+                if (x[i] < y[j]) {
+                    merged[count++] = x[i++];
+                } else if (x[i] > y[j]) {
+                    merged[count++] = y[j++];
+                } else {
+                    merged[count++] = x[i++];
+                    j++;
+                }
+            }
+            while (i < n) {
+                merged[count++] = x[i++];
+            }
+            while (j < m) {
+                merged[count++] = y[j++];
+            }
+
+            ArrayContainer result = new ArrayContainer(merged, count);
+            return count > arrayMaxSize ? result.toBitmap() : result;
+        }
+
+        @Override
+        Container copy() {
+            int n = cardinality;
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(n, 1)), n);
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return 32L + 2L * values.length;
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            int n = cardinality;
+            char[] current = values;
+            for (int i = 0; i < n; i++) {
+                bitmap.add(current[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+        private final long[] words;
+        // written after every change so readers that load it see the words before it
+        private volatile int cardinality;
+
+        private BitmapContainer() {
+            this(new long[1024], 0);
+        }
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(int low) {
+            long word = words[low >>> 6];
+            long bit = 1L << low;
+            if ((word & bit) == 0) {
+                words[low >>> 6] = word | bit;
+                cardinality = cardinality + 1;
+            }
+            return this;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean forEachWhile(int base, IntPredicate visitor) {
+            if (cardinality == 0) {
+                return true;
+            }
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    if (!visitor.test(base | (i << 6) | Long.numberOfTrailingZeros(word))) {
+                        return false;
+                    }
+                    word &= word - 1;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+
+            long[] that = ((BitmapContainer) other).words;
+            long[] result = new long[words.length];
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                result[i] = words[i] & that[i];
+                count += Long.bitCount(result[i]);
+            }
+            return count == 0 ? null : new BitmapContainer(result, count);
+        }
+
+        @Override
+        Container or(Container other) {
+            long[] result = Arrays.copyOf(words, words.length);
+            if (other instanceof ArrayContainer) {
+                BitmapContainer bitmap = new BitmapContainer(result, 0);
+                other.forEachWhile(0, low -> {
+                    bitmap.set(low);
+                    return true;
+                });
+                return bitmap.recount();
+            }
+
+            long[] that = ((BitmapContainer) other).words;
+            for (int i = 0; i < words.length; i++) {
+                result[i] |= that[i];
+            }
+            return new BitmapContainer(result, 0).recount();
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(Arrays.copyOf(words, words.length), cardinality);
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return 32L + 8L * words.length;
+        }
+
+        private void set(int low) {
+            words[low >>> 6] |= 1L << low;
+        }
+
+        private BitmapContainer recount() {
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            cardinality = count;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.techschool.pcbook.service;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RoaringBitmapTest {
+
+    @Test
+    public void andOrMatchBitSet() {
+        Random rand = new Random(42);
+        RoaringBitmap a = new RoaringBitmap();
+        RoaringBitmap b = new RoaringBitmap();
+        BitSet x = new BitSet();
+        BitSet y = new BitSet();
+
+        // a is dense enough to use bitmap containers, b stays in array containers
+        for (int i = 0; i < 300000; i++) {
+            if (rand.nextInt(4) == 0) {
+                a.add(i);
+                x.set(i);
+            }
+            if (rand.nextInt(100) == 0) {
+                b.add(i);
+                y.set(i);
+            }
+        }
+
+        BitSet and = (BitSet) x.clone();
+        and.and(y);
+        BitSet or = (BitSet) x.clone();
+        or.or(y);
+
+        assertEquals(and, toBitSet(RoaringBitmap.and(a, b)));
+        assertEquals(or, toBitSet(RoaringBitmap.or(a, b)));
+        assertEquals(x.cardinality(), a.cardinality());
+        assertEquals(y.cardinality(), b.cardinality());
+    }
+
+    @Test
+    public void addOutOfOrder() {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        int[] values = {70000, 5, 3, 65536, 5, 1};
+        for (int value : values) {
+            bitmap.add(value);
+        }
+
+        assertEquals(5, bitmap.cardinality());
+        assertTrue(bitmap.contains(3));
+        assertTrue(bitmap.contains(65536));
+        assertFalse(bitmap.contains(4));
+    }
+
+    @Test
+    public void readersRaceWriter() throws Exception {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        // the reader walks the bitmap while the writer replaces containers: out of order inserts
+        // copy array containers, and the 4097th value of a chunk converts it to a bitmap
+        Thread reader = new Thread(() -> {
+            try {
+                int seen = 0;
+                while (!done.get()) {
+                    int count = bitmap.cardinality();
+                    assertTrue(count >= seen);
+                    seen = count;
+                    bitmap.contains(12345);
+                    bitmap.forEachWhile(x -> x < 1000);
+                }
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        reader.start();
+
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            bitmap.add(random.nextInt(4 << 16));
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(error.get());
+    }
+
+    private BitSet toBitSet(RoaringBitmap bitmap) {
+        BitSet bits = new BitSet();
+        bitmap.forEach(bits::set);
+        return bits;
+    }
+}
@@ -0,0 +1,85 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.*;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// SearchBatchBenchmark runs searches that match 10K and 100K laptops over a localhost connection,
+// once with one laptop per message and once with the default batching, and prints laptops/s.
+// Per-laptop logging of the service is turned off so it doesn't hide the cost of the messages.
+public class SearchBatchBenchmark {
+    private static final int port = 50073;
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        Logger.getLogger(LaptopService.class.getName()).setLevel(Level.WARNING);
+
+        for (int results : new int[]{10000, 100000}) {
+            run(results, rounds);
+        }
+    }
+
+    private static void run(int results, int rounds) throws Exception {
+        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+        Generator generator = new Generator();
+        for (int i = 0; i < results; i++) {
+            laptopStore.Save(generator.NewLaptop().toBuilder().setPriceUsd(1000).build());
+        }
+
+        Server server = NettyServerBuilder.forPort(port)
+                .addService(new LaptopService(laptopStore, new DiskImageStore("tmp"), new InMemoryRatingStore()))
+                .build()
+                .start();
+        ManagedChannel channel = NettyChannelBuilder.forAddress("localhost", port).usePlaintext().build();
+
+        try {
+            LaptopServiceGrpc.LaptopServiceBlockingStub stub = LaptopServiceGrpc.newBlockingStub(channel);
+            LaptopFilter filter = LaptopFilter.newBuilder().setMaxPriceUsd(2000).build();
+            SearchLaptopRequest single = SearchLaptopRequest.newBuilder().setFilter(filter).build();
+            SearchLaptopRequest batched = single.toBuilder().setBatching(SearchBatching.getDefaultInstance()).build();
+
+            for (SearchLaptopRequest request : new SearchLaptopRequest[]{single, batched}) {
+                // warm up
+                search(stub, request, results);
+
+                long messages = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    messages += search(stub, request, results);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%6d results %s: %10.0f laptops/s %8.1f ms/search %8d messages/search%n",
+                        results, request.hasBatching() ? "batched" : "single ",
+                        (double) results * rounds / seconds, seconds * 1000 / rounds, messages / rounds);
+            }
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    // search returns the number of messages it took to receive every result
+    private static long search(LaptopServiceGrpc.LaptopServiceBlockingStub stub, SearchLaptopRequest request,
+                               int expected) {
+        long messages = 0;
+        long laptops = 0;
+        Iterator<SearchLaptopResponse> responses = stub.searchLaptop(request);
+        while (responses.hasNext()) {
+            SearchLaptopResponse response = responses.next();
+            laptops += response.hasLaptop() ? 1 : response.getLaptopsCount();
+            messages++;
+        }
+        if (laptops != expected) {
+            throw new IllegalStateException("found " + laptops + " laptops, expected " + expected);
+        }
+        return messages;
+    }
+}
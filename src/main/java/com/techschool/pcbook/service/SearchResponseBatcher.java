@@ -0,0 +1,111 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.SearchBatching;
+import com.techschool.pcbook.pb.SearchLaptopResponse;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// SearchResponseBatcher packs search results into SearchLaptopResponse.laptops, so a large result
+// pays the message framing and flow control once per batch instead of once per laptop.
+// A batch is cut by count or by serialized size, and a timer sends a batch whose first laptop
+// has waited maxDelay, so a slow search still shows its first results early.
+public class SearchResponseBatcher implements LaptopStream {
+    static final int defaultMaxLaptops = 128;
+    static final int defaultMaxBytes = 64 * 1024;
+    static final int defaultMaxDelayMillis = 50;
+    // stay well below the 4 MB default message limit of the clients
+    static final int maxBytesLimit = 2 << 20;
+    static final int maxLaptopsLimit = 10000;
+
+    private final StreamObserver<SearchLaptopResponse> observer;
+    private final int maxLaptops;
+    private final int maxBytes;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService timer;
+
+    // guarded by this
+    private List<Laptop> batch = new ArrayList<>();
+    private int batchBytes;
+    private ScheduledFuture<?> pendingFlush;
+    private boolean finished;
+    private long sentCount;
+    private long batchCount;
+
+    public SearchResponseBatcher(StreamObserver<SearchLaptopResponse> observer, SearchBatching batching,
+                                 ScheduledExecutorService timer) {
+        this.observer = observer;
+        this.maxLaptops = batching.getMaxLaptops() == 0
+                ? defaultMaxLaptops : Math.min(batching.getMaxLaptops(), maxLaptopsLimit);
+        this.maxBytes = batching.getMaxBytes() == 0
+                ? defaultMaxBytes : Math.min(batching.getMaxBytes(), maxBytesLimit);
+        this.maxDelayMillis = batching.getMaxDelayMs() == 0 ? defaultMaxDelayMillis : batching.getMaxDelayMs();
+        this.timer = timer;
+    }
+
+    @Override
+    public synchronized void Send(Laptop laptop) {
+        if (finished) {
+            return;
+        }
+        batch.add(laptop);
+        batchBytes += laptop.getSerializedSize();
+
+        if (batch.size() >= maxLaptops || batchBytes >= maxBytes) {
+            flush();
+        } else if (batch.size() == 1) {
+            pendingFlush = timer.schedule(this::flushOnTimer, maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // finish sends the last batch, the caller completes the call afterwards
+    public synchronized void finish() {
+        flush();
+        finished = true;
+    }
+
+    // abort drops the batch of a failed search, so no timer sends it after the call has failed
+    public synchronized void abort() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        batch.clear();
+        finished = true;
+    }
+
+    private synchronized void flushOnTimer() {
+        if (!finished) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        observer.onNext(SearchLaptopResponse.newBuilder().addAllLaptops(batch).build());
+        sentCount += batch.size();
+        batchCount++;
+        batch = new ArrayList<>(Math.min(maxLaptops, defaultMaxLaptops));
+        batchBytes = 0;
+    }
+
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+}
@@ -0,0 +1,90 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.SearchBatching;
+import com.techschool.pcbook.pb.SearchLaptopResponse;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SearchResponseBatcherTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final Generator generator = new Generator();
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void cutsBatchesBySize() {
+        Laptop laptop = generator.NewLaptop();
+        int maxBytes = laptop.getSerializedSize() * 3;
+
+        Collector collector = new Collector();
+        SearchResponseBatcher batcher = new SearchResponseBatcher(collector,
+                SearchBatching.newBuilder().setMaxLaptops(100).setMaxBytes(maxBytes).build(), timer);
+        for (int i = 0; i < 7; i++) {
+            batcher.Send(laptop);
+        }
+        batcher.finish();
+
+        assertEquals(3, collector.responses.size());
+        assertEquals(3, collector.responses.get(0).getLaptopsCount());
+        assertEquals(3, collector.responses.get(1).getLaptopsCount());
+        assertEquals(1, collector.responses.get(2).getLaptopsCount());
+        assertEquals(7, batcher.getSentCount());
+    }
+
+    @Test
+    public void timerSendsWaitingBatch() throws Exception {
+        Collector collector = new Collector();
+        SearchResponseBatcher batcher = new SearchResponseBatcher(collector,
+                SearchBatching.newBuilder().setMaxLaptops(100).setMaxDelayMs(20).build(), timer);
+
+        // a slow search: the first laptop must not wait for the batch to fill up
+        batcher.Send(generator.NewLaptop());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (collector.responses.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, collector.responses.size());
+        assertEquals(1, collector.responses.get(0).getLaptopsCount());
+
+        batcher.Send(generator.NewLaptop());
+        batcher.Send(generator.NewLaptop());
+        batcher.finish();
+        assertEquals(2, collector.responses.size());
+        assertEquals(2, collector.responses.get(1).getLaptopsCount());
+
+        // nothing is sent after finish
+        Thread.sleep(50);
+        assertEquals(2, collector.responses.size());
+    }
+
+    private static class Collector implements StreamObserver<SearchLaptopResponse> {
+        private final List<SearchLaptopResponse> responses = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onNext(SearchLaptopResponse response) {
+            responses.add(response);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
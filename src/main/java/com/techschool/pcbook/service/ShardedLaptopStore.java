@@ -0,0 +1,161 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.LaptopFilter;
+import com.techschool.pcbook.pb.NameSuggestion;
+import io.grpc.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+// ShardedLaptopStore partitions laptops across several stores by consistent hashing of the ID.
+// Shards can be in-process stores or RemoteLaptopStores talking to other LaptopServers.
+public class ShardedLaptopStore implements LaptopStore {
+    private static final Logger logger = Logger.getLogger(ShardedLaptopStore.class.getName());
+    private static final int virtualNodes = 128;
+
+    private final List<LaptopStore> shards;
+    private final TreeMap<Long, LaptopStore> ring;
+    private final ExecutorService executor;
+
+    public ShardedLaptopStore(List<LaptopStore> shards, ExecutorService executor) {
+        this.shards = new ArrayList<>(shards);
+        this.executor = executor;
+        this.ring = new TreeMap<>();
+
+        for (int i = 0; i < shards.size(); i++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                ring.put(hash("shard-" + i + "-" + v), shards.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void Save(Laptop laptop) throws Exception {
+        shardOf(laptop.getId()).Save(laptop);
+    }
+
+    @Override
+    public Laptop Find(String id) {
+        return shardOf(id).Find(id);
+    }
+
+    @Override
+    public void Search(Context ctx, LaptopFilter filter, LaptopStream stream) {
+        // cancelling the child context stops every shard, and it is cancelled with ctx
+        Context.CancellableContext searchCtx = ctx.withCancellation();
+        try {
+            List<Future<?>> futures = new ArrayList<>(shards.size());
+            for (LaptopStore shard : shards) {
+                futures.add(executor.submit(searchCtx.wrap(() -> shard.Search(searchCtx, filter, laptop -> {
+                    // shards run in parallel, but the caller's stream is not thread-safe
+                    synchronized (stream) {
+                        if (!searchCtx.isCancelled()) {
+                            stream.Send(laptop);
+                        }
+                    }
+                }))));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // the other shards' results alone would look like a complete answer
+                    logger.warning("shard search failed: " + e.getCause());
+                    searchCtx.cancel(e.getCause());
+                    throw new IllegalStateException("shard search failed", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    searchCtx.cancel(e);
+                    throw new IllegalStateException("search interrupted", e);
+                }
+            }
+        } finally {
+            searchCtx.cancel(null);
+        }
+    }
+
+    @Override
+    public LaptopAggregation Aggregate(Context ctx, LaptopFilter filter, LaptopAggregation aggregation) {
+        Context.CancellableContext aggregateCtx = ctx.withCancellation();
+        try {
+            List<Future<LaptopAggregation>> futures = new ArrayList<>(shards.size());
+            for (LaptopStore shard : shards) {
+                futures.add(executor.submit(aggregateCtx.wrap(
+                        () -> shard.Aggregate(aggregateCtx, filter, aggregation.empty()))));
+            }
+
+            for (Future<LaptopAggregation> future : futures) {
+                try {
+                    aggregation.merge(future.get());
+                } catch (ExecutionException e) {
+                    logger.warning("shard aggregate failed: " + e.getCause());
+                    aggregateCtx.cancel(e.getCause());
+                    throw new IllegalStateException("shard aggregate failed", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("aggregate interrupted", e);
+                }
+            }
+            return aggregation;
+        } finally {
+            aggregateCtx.cancel(null);
+        }
+    }
+
+    @Override
+    public List<NameSuggestion> Suggest(String prefix, int limit) {
+        List<Future<List<NameSuggestion>>> futures = new ArrayList<>(shards.size());
+        for (LaptopStore shard : shards) {
+            futures.add(executor.submit(() -> shard.Suggest(prefix, limit)));
+        }
+
+        // each shard returns its own top terms, so counts of rare terms may be partial
+        List<NameSuggestion> suggestions = new ArrayList<>();
+        for (Future<List<NameSuggestion>> future : futures) {
+            try {
+                suggestions.addAll(future.get());
+            } catch (ExecutionException e) {
+                logger.warning("shard suggest failed: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return LaptopNameIndex.top(suggestions, limit);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    private LaptopStore shardOf(String id) {
+        Map.Entry<Long, LaptopStore> entry = ring.ceilingEntry(hash(id));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    // hash is 64-bit FNV-1a followed by the murmur3 finalizer to spread nearby keys over the ring
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,104 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.Laptop;
+import com.techschool.pcbook.pb.LaptopFilter;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.Context;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class ShardedLaptopStoreTest {
+
+    @Test
+    public void saveFindAndSearch() throws Exception {
+        List<LaptopStore> shards = new LinkedList<>();
+        for (int i = 0; i < 4; i++) {
+            shards.add(new InMemoryLaptopStore());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ShardedLaptopStore store = new ShardedLaptopStore(shards, executor);
+
+        Generator generator = new Generator();
+        int n = 100;
+        List<Laptop> laptops = new LinkedList<>();
+        for (int i = 0; i < n; i++) {
+            Laptop laptop = generator.NewLaptop().toBuilder().setPriceUsd(1000).build();
+            store.Save(laptop);
+            laptops.add(laptop);
+        }
+
+        for (Laptop laptop : laptops) {
+            assertEquals(laptop, store.Find(laptop.getId()));
+        }
+
+        int spread = 0;
+        for (LaptopStore shard : shards) {
+            Laptop found = null;
+            for (Laptop laptop : laptops) {
+                if (shard.Find(laptop.getId()) != null) {
+                    found = laptop;
+                }
+            }
+            if (found != null) {
+                spread++;
+            }
+        }
+        assertTrue(spread > 1);
+
+        LaptopFilter filter = LaptopFilter.newBuilder().setMaxPriceUsd(2000).build();
+        Set<String> ids = new HashSet<>();
+        store.Search(Context.current(), filter, laptop -> ids.add(laptop.getId()));
+        assertEquals(n, ids.size());
+
+        executor.shutdown();
+    }
+
+    @Test
+    public void searchFailsWhenShardFails() throws Exception {
+        InMemoryLaptopStore healthy = new InMemoryLaptopStore();
+        LaptopStore failing = new InMemoryLaptopStore() {
+            @Override
+            public void Search(Context ctx, LaptopFilter filter, LaptopStream stream) {
+                throw new IllegalStateException("shard is down");
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ShardedLaptopStore store = new ShardedLaptopStore(Arrays.asList(healthy, failing), executor);
+
+        Generator generator = new Generator();
+        for (int i = 0; i < 20; i++) {
+            store.Save(generator.NewLaptop().toBuilder().setPriceUsd(1000).build());
+        }
+
+        LaptopFilter filter = LaptopFilter.newBuilder().setMaxPriceUsd(2000).build();
+        try {
+            store.Search(Context.current(), filter, laptop -> {
+            });
+            fail("search of a failed shard completed");
+        } catch (IllegalStateException e) {
+            assertEquals("shard is down", e.getCause().getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = AlreadyExistException.class)
+    public void saveDuplicate() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ShardedLaptopStore store = new ShardedLaptopStore(
+                Arrays.asList(new InMemoryLaptopStore(), new InMemoryLaptopStore()), executor);
+
+        Laptop laptop = new Generator().NewLaptop();
+        try {
+            store.Save(laptop);
+            store.Save(laptop);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
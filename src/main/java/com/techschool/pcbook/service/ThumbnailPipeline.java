@@ -0,0 +1,323 @@
+package com.techschool.pcbook.service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+// ThumbnailPipeline saves images to a DiskImageStore and then, off the upload path,
+// decodes every saved image and writes resized variants next to it.
+//
+// Saved images wait in a bounded queue for a fixed pool of workers. A save reserves its place in
+// the queue before it stores the image. When the queue is full, Save and SaveFile block for up to
+// maxWait so a burst of uploads slows down instead of piling up work; if the queue is still full
+// after that, the image is kept without variants and counted as dropped. SaveAsync must not block,
+// so it doesn't wait for a place: the image is kept and its variants dropped at once. The queue
+// holds image IDs, not image data, so refusing the image would save no memory and only make the
+// client send it again.
+//
+// Only image types that ImageIO decodes, and files up to maxSourceSize, get variants. Anything else,
+// like a product video saved through a resumable upload, is stored as it is and never decoded.
+public class ThumbnailPipeline implements ImageStore {
+    private static final Logger logger = Logger.getLogger(ThumbnailPipeline.class.getName());
+
+    static final long maxSourceSize = 32 << 20;
+    // a 10000 x 10000 photo; the decoded image is subsampled, this only refuses absurd headers
+    static final long maxSourcePixels = 100000000;
+    private static final Set<String> sourceTypes = new HashSet<>(Arrays.asList(".jpg", ".jpeg", ".png", ".gif", ".bmp"));
+
+    private final DiskImageStore store;
+    private final List<Size> sizes;
+    // holds at most queueCapacity tasks: a task takes a slot before it is added, the worker
+    // that takes it out gives the slot back
+    private final BlockingQueue<Task> queue;
+    private final Semaphore slots;
+    private final long maxWaitNanos;
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder totalLagNanos = new LongAdder();
+
+    public ThumbnailPipeline(DiskImageStore store, List<Size> sizes, int workerCount, int queueCapacity,
+                             long maxWait, TimeUnit unit) {
+        this.store = store;
+        this.sizes = new ArrayList<>(sizes);
+        this.queue = new LinkedBlockingQueue<>();
+        this.slots = new Semaphore(queueCapacity);
+        this.maxWaitNanos = unit.toNanos(maxWait);
+
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::work, "thumbnail-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    // defaultSizes are the variants the storefront renders
+    public static List<Size> defaultSizes() {
+        List<Size> sizes = new ArrayList<>();
+        sizes.add(new Size("small", 128));
+        sizes.add(new Size("medium", 512));
+        sizes.add(new Size("large", 1024));
+        return sizes;
+    }
+
+    @Override
+    public String Save(String laptopID, String imageType, ByteArrayOutputStream imageData) throws IOException {
+        boolean reserved = hasVariants(imageType, imageData.size()) && reserve(maxWaitNanos);
+        String imageID;
+        try {
+            imageID = store.Save(laptopID, imageType, imageData);
+        } catch (IOException | RuntimeException e) {
+            release(reserved);
+            throw e;
+        }
+        enqueue(imageID, reserved);
+        return imageID;
+    }
+
+    @Override
+    public CompletableFuture<String> SaveAsync(String laptopID, String imageType, ByteArrayOutputStream imageData) {
+        boolean reserved = hasVariants(imageType, imageData.size()) && reserve(0);
+        return store.SaveAsync(laptopID, imageType, imageData).whenComplete((imageID, error) -> {
+            if (error != null) {
+                release(reserved);
+            } else {
+                enqueue(imageID, reserved);
+            }
+        });
+    }
+
+    @Override
+    public String SaveFile(String laptopID, String imageType, Path file) throws IOException {
+        // the upload is already on disk, so it is kept even when its variants are dropped
+        boolean reserved = hasVariants(imageType, Files.size(file)) && reserve(maxWaitNanos);
+        String imageID;
+        try {
+            imageID = store.SaveFile(laptopID, imageType, file);
+        } catch (IOException | RuntimeException e) {
+            release(reserved);
+            throw e;
+        }
+        enqueue(imageID, reserved);
+        return imageID;
+    }
+
+    // hasVariants tells whether an image of this type and size is decoded for variants
+    static boolean hasVariants(String imageType, long size) {
+        return size <= maxSourceSize && sourceTypes.contains(imageType.toLowerCase(Locale.ROOT));
+    }
+
+    // reserve takes a place in the queue, waiting for up to waitNanos for one to free up.
+    // A full queue counts as a dropped image.
+    private boolean reserve(long waitNanos) {
+        try {
+            if (slots.tryAcquire(waitNanos, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.increment();
+        return false;
+    }
+
+    private void release(boolean reserved) {
+        if (reserved) {
+            slots.release();
+        }
+    }
+
+    private void enqueue(String imageID, boolean reserved) {
+        if (reserved) {
+            queue.add(new Task(imageID, System.nanoTime()));
+        } else {
+            logger.warning("thumbnail queue is full, no variants for image " + imageID);
+        }
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Task task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            slots.release();
+
+            try {
+                process(task.imageID);
+                processed.increment();
+            } catch (Exception e) {
+                failed.increment();
+                logger.warning("cannot make variants of image " + task.imageID + ": " + e.getMessage());
+            }
+            totalLagNanos.add(System.nanoTime() - task.enqueuedAt);
+        }
+    }
+
+    private void process(String imageID) throws IOException {
+        ImageMetaData metaData = store.Find(imageID);
+        if (metaData == null) {
+            throw new IOException("image not found");
+        }
+
+        File file = new File(metaData.getPath());
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("unsupported image type: " + metaData.getType());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                writeVariants(imageID, metaData, reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // writeVariants reads the dimensions from the header before decoding anything, so a small file
+    // claiming a huge image is refused instead of filling the heap, and decodes large images
+    // subsampled to about twice the largest variant
+    private void writeVariants(String imageID, ImageMetaData metaData, ImageReader reader) throws IOException {
+        int originalWidth = reader.getWidth(0);
+        int originalHeight = reader.getHeight(0);
+        if ((long) originalWidth * originalHeight > maxSourcePixels) {
+            throw new IOException("image of " + originalWidth + "x" + originalHeight + " is larger than "
+                    + maxSourcePixels + " pixels");
+        }
+
+        int longest = Math.max(originalWidth, originalHeight);
+        List<Size> wanted = new ArrayList<>();
+        int largest = 0;
+        for (Size size : sizes) {
+            // never upscale: the original already serves the larger sizes
+            if (longest > size.maxDimension) {
+                wanted.add(size);
+                largest = Math.max(largest, size.maxDimension);
+            }
+        }
+        if (wanted.isEmpty()) {
+            return;
+        }
+
+        int step = Math.max(1, longest / (2 * largest));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        BufferedImage source = reader.read(0, param);
+
+        String format = ".png".equalsIgnoreCase(metaData.getType()) ? "png" : "jpg";
+        for (Size size : wanted) {
+            double scale = (double) size.maxDimension / longest;
+            int width = Math.max(1, (int) Math.round(originalWidth * scale));
+            int height = Math.max(1, (int) Math.round(originalHeight * scale));
+            BufferedImage resized = resize(source, width, height, format);
+
+            String path = String.format("%s/%s-%s.%s", new File(metaData.getPath()).getParent(), imageID, size.name, format);
+            if (!ImageIO.write(resized, format, new File(path))) {
+                throw new IOException("no writer for " + format);
+            }
+            metaData.addVariant(new ImageVariant(size.name, width, height, path));
+        }
+    }
+
+    private static BufferedImage resize(BufferedImage original, int width, int height, String format) {
+        // JPEG has no alpha channel
+        int type = "png".equals(format) ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage resized = new BufferedImage(width, height, type);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(original, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+    public void shutdown() throws InterruptedException {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    // getLagMillis returns how long the oldest waiting image has been in the queue
+    public long getLagMillis() {
+        Task oldest = queue.peek();
+        return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedAt);
+    }
+
+    // getAverageLagMillis returns the average time from save to variants written
+    public double getAverageLagMillis() {
+        long count = processed.sum() + failed.sum();
+        return count == 0 ? 0 : totalLagNanos.sum() / 1e6 / count;
+    }
+
+    public long getProcessedCount() {
+        return processed.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public static class Size {
+        private final String name;
+        private final int maxDimension;
+
+        public Size(String name, int maxDimension) {
+            this.name = name;
+            this.maxDimension = maxDimension;
+        }
+    }
+
+    private static class Task {
+        private final String imageID;
+        private final long enqueuedAt;
+
+        private Task(String imageID, long enqueuedAt) {
+            this.imageID = imageID;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.techschool.pcbook.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailPipelineTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private DiskImageStore store;
+    private ThumbnailPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        store = new DiskImageStore(folder.getRoot().getPath());
+        List<ThumbnailPipeline.Size> sizes = Arrays.asList(
+                new ThumbnailPipeline.Size("small", 128),
+                new ThumbnailPipeline.Size("large", 2048));
+        pipeline = new ThumbnailPipeline(store, sizes, 2, 10, 1, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void savesVariants() throws Exception {
+        String imageID = pipeline.Save("laptop", ".png", image(1024, 768));
+        awaitDone(1);
+
+        assertEquals(1, pipeline.getProcessedCount());
+        assertEquals(0, pipeline.getFailedCount());
+        assertEquals(0, pipeline.getQueueDepth());
+
+        ImageMetaData metaData = store.Find(imageID);
+        // the 2048 variant would be larger than the original
+        assertEquals(1, metaData.getVariants().size());
+
+        ImageVariant small = metaData.getVariants().get(0);
+        assertEquals("small", small.getName());
+        assertEquals(128, small.getWidth());
+        assertEquals(96, small.getHeight());
+
+        BufferedImage written = ImageIO.read(new File(small.getPath()));
+        assertEquals(128, written.getWidth());
+        assertEquals(96, written.getHeight());
+    }
+
+    @Test
+    public void countsUndecodableImages() throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(new byte[]{1, 2, 3, 4});
+        String imageID = pipeline.Save("laptop", ".jpg", data);
+        awaitDone(1);
+
+        assertEquals(1, pipeline.getFailedCount());
+        assertTrue(store.Find(imageID).getVariants().isEmpty());
+    }
+
+    @Test
+    public void refusesHugeDimensions() throws Exception {
+        // a tiny PNG whose header claims 100000 x 100000 pixels
+        byte[] png = image(1, 1).toByteArray();
+        ByteBuffer header = ByteBuffer.wrap(png);
+        header.putInt(16, 100000);
+        header.putInt(20, 100000);
+        CRC32 crc = new CRC32();
+        crc.update(png, 12, 17);
+        header.putInt(29, (int) crc.getValue());
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(png);
+        String imageID = pipeline.Save("laptop", ".png", data);
+        awaitDone(1);
+
+        assertEquals(1, pipeline.getFailedCount());
+        assertTrue(store.Find(imageID).getVariants().isEmpty());
+    }
+
+    @Test
+    public void subsamplesLargeImages() throws Exception {
+        String imageID = pipeline.Save("laptop", ".png", image(3000, 1500));
+        awaitDone(1);
+
+        assertEquals(1, pipeline.getProcessedCount());
+        ImageVariant small = store.Find(imageID).getVariants().get(0);
+        assertEquals(128, small.getWidth());
+        assertEquals(64, small.getHeight());
+        BufferedImage written = ImageIO.read(new File(small.getPath()));
+        assertEquals(128, written.getWidth());
+        assertEquals(64, written.getHeight());
+    }
+
+    @Test
+    public void skipsVideosAndLargeFiles() throws Exception {
+        File video = folder.newFile("upload.part");
+        Files.write(video.toPath(), new byte[]{1, 2, 3, 4});
+        String videoID = pipeline.SaveFile("laptop", ".mp4", video.toPath());
+
+        assertTrue(Files.exists(Paths.get(store.Find(videoID).getPath())));
+        assertFalse(ThumbnailPipeline.hasVariants(".mp4", 4));
+        assertFalse(ThumbnailPipeline.hasVariants(".png", ThumbnailPipeline.maxSourceSize + 1));
+        assertTrue(ThumbnailPipeline.hasVariants(".JPG", 4));
+
+        // the video was never queued: the next image is the first one processed
+        pipeline.Save("laptop", ".png", image(256, 256));
+        awaitDone(1);
+        assertEquals(1, pipeline.getProcessedCount());
+        assertEquals(0, pipeline.getFailedCount());
+        assertTrue(store.Find(videoID).getVariants().isEmpty());
+    }
+
+    @Test
+    public void saveAsyncKeepsImageWhenQueueIsFull() throws Exception {
+        // no workers, so the first image keeps the only place in the queue
+        ThumbnailPipeline full = new ThumbnailPipeline(store, ThumbnailPipeline.defaultSizes(), 0, 1, 1, TimeUnit.SECONDS);
+        try {
+            String first = full.SaveAsync("laptop", ".png", image(256, 256)).get();
+            assertNotNull(store.Find(first));
+            assertEquals(1, full.getQueueDepth());
+
+            // the second image is stored without variants, as Save does after waiting
+            String second = full.SaveAsync("laptop", ".png", image(256, 256)).get();
+            assertTrue(Files.exists(Paths.get(store.Find(second).getPath())));
+            assertEquals(1, full.getDroppedCount());
+            assertEquals(1, full.getQueueDepth());
+
+            // images without variants don't need a place
+            assertNotNull(full.SaveAsync("laptop", ".mp4", image(1, 1)).get());
+        } finally {
+            full.shutdown();
+        }
+    }
+
+    private void awaitDone(long n) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pipeline.getProcessedCount() + pipeline.getFailedCount() < n) {
+            assertTrue("pipeline did not finish", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static ByteArrayOutputStream image(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", data);
+        return data;
+    }
+}
@@ -0,0 +1,195 @@
+package com.techschool.pcbook.service;
+
+import com.google.protobuf.ByteString;
+import com.techschool.pcbook.pb.*;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+
+import java.io.File;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// TlsBenchmark compares TlsConfig.defaults() with TlsConfig.performance() on localhost:
+// new mTLS connections per second, and encrypted MB/s of UploadImage on one connection.
+// The server restarts between the warm up and the handshakes, so only ticket keys loaded from
+// a file still resume the sessions the warm up made. It uses the certs in cert/, which
+// gen-cert.sh writes.
+public class TlsBenchmark {
+    private static final int port = 50071;
+    private static final int imageSize = 1 << 20;
+    private static final int chunkSize = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int uploads = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+
+        Certs certs = Certs.load();
+        TlsConfig[] configs = {TlsConfig.defaults(), TlsConfig.performance(), TlsConfig.performance(certs.ticketKeys)};
+        for (TlsConfig config : configs) {
+            run(config, certs, connections, uploads);
+        }
+    }
+
+    private static void run(TlsConfig config, Certs certs, int connections, int uploads) throws Exception {
+        SslContext clientContext = config.build(SslContextBuilder.forClient()
+                .keyManager(certs.clientCert, certs.clientKey)
+                .trustManager(certs.caCert));
+
+        Server server = startServer(config, certs);
+        try {
+            // warm up the JIT and the session cache
+            connect(clientContext, connections / 10 + 1);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server = startServer(config, certs);
+
+            long start = System.nanoTime();
+            connect(clientContext, connections);
+            double handshakesPerSecond = connections * 1e9 / (System.nanoTime() - start);
+
+            ManagedChannel channel = newChannel(clientContext);
+            try {
+                LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(channel);
+                String laptopID = LaptopServiceGrpc.newBlockingStub(channel)
+                        .createLaptop(CreateLaptopRequest.newBuilder()
+                                .setLaptop(new Generator().NewLaptop())
+                                .build())
+                        .getId();
+
+                byte[] image = new byte[imageSize];
+                new Random(42).nextBytes(image);
+
+                upload(stub, laptopID, image, uploads / 10 + 1);
+                start = System.nanoTime();
+                upload(stub, laptopID, image, uploads);
+                double mbPerSecond = (double) uploads * imageSize / (1 << 20) * 1e9 / (System.nanoTime() - start);
+
+                System.out.printf("%s%n  handshakes: %8.1f /s  upload: %8.1f MB/s%n",
+                        config, handshakesPerSecond, mbPerSecond);
+            } finally {
+                channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static Server startServer(TlsConfig config, Certs certs) throws Exception {
+        SslContext serverContext = config.build(SslContextBuilder.forServer(certs.serverCert, certs.serverKey)
+                .clientAuth(ClientAuth.REQUIRE)
+                .trustManager(certs.caCert));
+        // uploaded images are dropped so the disk doesn't hide the cost of encryption
+        ImageStore discard = (laptopID, imageType, imageData) -> UUID.randomUUID().toString();
+        return NettyServerBuilder.forPort(port)
+                .sslContext(serverContext)
+                .addService(new LaptopService(new InMemoryLaptopStore(), discard, new InMemoryRatingStore()))
+                .build()
+                .start();
+    }
+
+    private static ManagedChannel newChannel(SslContext clientContext) {
+        return NettyChannelBuilder.forAddress("localhost", port)
+                .sslContext(clientContext)
+                .build();
+    }
+
+    // connect opens n connections one after the other, each waits for the handshake to finish
+    private static void connect(SslContext clientContext, int n) throws InterruptedException {
+        for (int i = 0; i < n; i++) {
+            ManagedChannel channel = newChannel(clientContext);
+            try {
+                awaitReady(channel);
+            } finally {
+                channel.shutdownNow();
+            }
+        }
+    }
+
+    private static void awaitReady(ManagedChannel channel) throws InterruptedException {
+        ConnectivityState state = channel.getState(true);
+        while (state != ConnectivityState.READY) {
+            if (state == ConnectivityState.TRANSIENT_FAILURE || state == ConnectivityState.SHUTDOWN) {
+                throw new IllegalStateException("cannot connect: " + state);
+            }
+            CountDownLatch changed = new CountDownLatch(1);
+            channel.notifyWhenStateChanged(state, changed::countDown);
+            changed.await();
+            state = channel.getState(false);
+        }
+    }
+
+    private static void upload(LaptopServiceGrpc.LaptopServiceStub stub, String laptopID, byte[] image, int n)
+            throws InterruptedException {
+        for (int i = 0; i < n; i++) {
+            CountDownLatch finished = new CountDownLatch(1);
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            StreamObserver<UploadImageRequest> requestObserver = stub.uploadImage(new StreamObserver<UploadImageResponse>() {
+                @Override
+                public void onNext(UploadImageResponse response) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    error.set(t);
+                    finished.countDown();
+                }
+
+                @Override
+                public void onCompleted() {
+                    finished.countDown();
+                }
+            });
+
+            requestObserver.onNext(UploadImageRequest.newBuilder()
+                    .setInfo(ImageInfo.newBuilder().setLaptopId(laptopID).setImageType(".bin"))
+                    .build());
+            for (int offset = 0; offset < image.length; offset += chunkSize) {
+                requestObserver.onNext(UploadImageRequest.newBuilder()
+                        .setChunkData(ByteString.copyFrom(image, offset, Math.min(chunkSize, image.length - offset)))
+                        .build());
+            }
+            requestObserver.onCompleted();
+
+            finished.await();
+            if (error.get() != null) {
+                throw new IllegalStateException("upload failed", error.get());
+            }
+        }
+    }
+
+    private static class Certs {
+        private File caCert;
+        private File serverCert;
+        private File serverKey;
+        private File clientCert;
+        private File clientKey;
+        private File ticketKeys;
+
+        private static Certs load() {
+            Certs certs = new Certs();
+            certs.caCert = new File("cert/ca-cert.pem");
+            certs.serverCert = new File("cert/server-cert.pem");
+            certs.serverKey = new File("cert/server-key.pem");
+            certs.clientCert = new File("cert/client-cert.pem");
+            certs.clientKey = new File("cert/client-key.pem");
+            certs.ticketKeys = new File("cert/ticket-keys");
+            for (File file : new File[]{certs.caCert, certs.serverCert, certs.serverKey,
+                    certs.clientCert, certs.clientKey, certs.ticketKeys}) {
+                if (!file.exists()) {
+                    throw new IllegalStateException(file + " doesn't exist, run ./gen-cert.sh first");
+                }
+            }
+            return certs;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.techschool.pcbook.service;
+
+import io.grpc.netty.GrpcSslContexts;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSessionContext;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+// TlsConfig selects the SSL provider, cipher suites and session resumption settings
+// used to build the server and client SslContext.
+public class TlsConfig {
+    private static final Logger logger = Logger.getLogger(TlsConfig.class.getName());
+    private static final long ticketKeyReloadSeconds = 60;
+    // reloads the ticket key files, shared by all server contexts
+    private static final ScheduledExecutorService ticketKeyTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tls-ticket-key-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // AES-GCM is accelerated by AES-NI on x86 and the crypto extensions on ARMv8
+    private static final List<String> acceleratedCiphers = Collections.unmodifiableList(Arrays.asList(
+            "TLS_AES_128_GCM_SHA256",
+            "TLS_AES_256_GCM_SHA384",
+            "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384"
+    ));
+
+    private final boolean preferOpenSsl;
+    private final List<String> ciphers;
+    private final long sessionCacheSize;
+    private final long sessionTimeoutSeconds;
+    private final boolean sessionTickets;
+    private final File ticketKeyFile;
+
+    public TlsConfig(boolean preferOpenSsl, List<String> ciphers, long sessionCacheSize,
+                     long sessionTimeoutSeconds, boolean sessionTickets) {
+        this(preferOpenSsl, ciphers, sessionCacheSize, sessionTimeoutSeconds, sessionTickets, null);
+    }
+
+    // ticketKeyFile holds the session ticket keys, base64 one per line, the first one issues new
+    // tickets and the others still resume the tickets they issued. Servers that load the same file
+    // resume each other's sessions, and a server resumes its own after a restart. When it is null,
+    // each server context makes up random keys.
+    public TlsConfig(boolean preferOpenSsl, List<String> ciphers, long sessionCacheSize,
+                     long sessionTimeoutSeconds, boolean sessionTickets, File ticketKeyFile) {
+        this.preferOpenSsl = preferOpenSsl;
+        this.ciphers = ciphers;
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+        this.sessionTickets = sessionTickets;
+        this.ticketKeyFile = ticketKeyFile;
+    }
+
+    // defaults leaves every choice to gRPC and Netty, as before
+    public static TlsConfig defaults() {
+        return new TlsConfig(false, null, 0, 0, false);
+    }
+
+    // performance uses OpenSSL when netty-tcnative is available, resumes sessions from
+    // a large cache or a ticket, and only offers hardware accelerated ciphers
+    public static TlsConfig performance() {
+        return performance(null);
+    }
+
+    // performance with the session ticket keys of ticketKeyFile, which gen-cert.sh writes and
+    // rotate-ticket-keys.sh rotates
+    public static TlsConfig performance(File ticketKeyFile) {
+        return new TlsConfig(true, acceleratedCiphers, 20480, 24 * 60 * 60, true, ticketKeyFile);
+    }
+
+    public SslProvider provider() {
+        if (preferOpenSsl && OpenSsl.isAvailable()) {
+            return SslProvider.OPENSSL;
+        }
+        return SslProvider.JDK;
+    }
+
+    public SslContext build(SslContextBuilder builder) throws SSLException {
+        if (preferOpenSsl) {
+            GrpcSslContexts.configure(builder, provider());
+        } else {
+            GrpcSslContexts.configure(builder);
+        }
+
+        if (ciphers != null) {
+            builder.ciphers(ciphers, SupportedCipherSuiteFilter.INSTANCE);
+        }
+        if (sessionCacheSize > 0) {
+            builder.sessionCacheSize(sessionCacheSize);
+        }
+        if (sessionTimeoutSeconds > 0) {
+            builder.sessionTimeout(sessionTimeoutSeconds);
+        }
+
+        SslContext context = builder.build();
+        if (sessionTickets && context.isServer()) {
+            enableTickets(context.sessionContext());
+        }
+        return context;
+    }
+
+    // enableTickets sets the ticket keys. Netty's OpenSSL contexts turn tickets off until keys are
+    // set, the JDK provider issues TLS 1.3 tickets with keys of its own that can't be shared.
+    private void enableTickets(SSLSessionContext sessionContext) throws SSLException {
+        if (!(sessionContext instanceof OpenSslSessionContext)) {
+            if (ticketKeyFile != null) {
+                logger.warning("the JDK provider can't use the ticket keys in " + ticketKeyFile
+                        + ", sessions won't resume on another server or after a restart");
+            }
+            return;
+        }
+        OpenSslSessionContext context = (OpenSslSessionContext) sessionContext;
+
+        if (ticketKeyFile == null) {
+            SecureRandom random = new SecureRandom();
+            byte[] name = new byte[OpenSslSessionTicketKey.NAME_SIZE];
+            byte[] hmacKey = new byte[OpenSslSessionTicketKey.HMAC_KEY_SIZE];
+            byte[] aesKey = new byte[OpenSslSessionTicketKey.AES_KEY_SIZE];
+            random.nextBytes(name);
+            random.nextBytes(hmacKey);
+            random.nextBytes(aesKey);
+            context.setTicketKeys(new OpenSslSessionTicketKey(name, hmacKey, aesKey));
+            return;
+        }
+
+        try {
+            context.setTicketKeys(readTicketKeys(ticketKeyFile));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new SSLException("cannot load ticket keys from " + ticketKeyFile + ": " + e.getMessage(), e);
+        }
+        watchTicketKeys(context);
+    }
+
+    // watchTicketKeys sets the keys again whenever the file changes, until the context is dropped.
+    // A file that can't be read keeps the keys the context has.
+    private void watchTicketKeys(OpenSslSessionContext context) {
+        WeakReference<OpenSslSessionContext> reference = new WeakReference<>(context);
+        AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+        long[] loaded = {ticketKeyFile.lastModified(), ticketKeyFile.length()};
+        task.set(ticketKeyTimer.scheduleWithFixedDelay(() -> {
+            OpenSslSessionContext current = reference.get();
+            if (current == null) {
+                task.get().cancel(false);
+                return;
+            }
+            long modified = ticketKeyFile.lastModified();
+            long length = ticketKeyFile.length();
+            if (modified == loaded[0] && length == loaded[1]) {
+                return;
+            }
+            try {
+                OpenSslSessionTicketKey[] keys = readTicketKeys(ticketKeyFile);
+                current.setTicketKeys(keys);
+                loaded[0] = modified;
+                loaded[1] = length;
+                logger.info("loaded " + keys.length + " ticket keys from " + ticketKeyFile);
+            } catch (IOException | IllegalArgumentException e) {
+                logger.warning("cannot reload ticket keys from " + ticketKeyFile + ": " + e.getMessage());
+            }
+        }, ticketKeyReloadSeconds, ticketKeyReloadSeconds, TimeUnit.SECONDS));
+    }
+
+    static OpenSslSessionTicketKey[] readTicketKeys(File file) throws IOException {
+        List<OpenSslSessionTicketKey> keys = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII)) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            byte[] key = Base64.getDecoder().decode(line);
+            if (key.length != OpenSslSessionTicketKey.TICKET_KEY_SIZE) {
+                throw new IllegalArgumentException("ticket key " + (keys.size() + 1) + " has " + key.length
+                        + " bytes, want " + OpenSslSessionTicketKey.TICKET_KEY_SIZE);
+            }
+            int hmacStart = OpenSslSessionTicketKey.NAME_SIZE;
+            int aesStart = hmacStart + OpenSslSessionTicketKey.HMAC_KEY_SIZE;
+            keys.add(new OpenSslSessionTicketKey(
+                    Arrays.copyOfRange(key, 0, hmacStart),
+                    Arrays.copyOfRange(key, hmacStart, aesStart),
+                    Arrays.copyOfRange(key, aesStart, key.length)));
+        }
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("no ticket keys");
+        }
+        return keys.toArray(new OpenSslSessionTicketKey[0]);
+    }
+
+    @Override
+    public String toString() {
+        return "provider: " + provider() + " ciphers: " + (ciphers == null ? "default" : ciphers.size())
+                + " session cache: " + sessionCacheSize + " tickets: " + sessionTickets
+                + (ticketKeyFile == null ? "" : " ticket keys: " + ticketKeyFile);
+    }
+}
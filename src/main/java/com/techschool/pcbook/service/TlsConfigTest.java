@@ -0,0 +1,178 @@
+package com.techschool.pcbook.service;
+
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+// TlsConfigTest needs openssl to run gen-cert.sh, from the project directory
+public class TlsConfigTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File certs;
+    // counts the client certificates the servers verified, a resumed session skips the check
+    private final AtomicInteger verified = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        File script = new File("gen-cert.sh");
+        assumeTrue("gen-cert.sh is run from the project directory", script.exists());
+        assumeTrue("tickets need OpenSSL", OpenSsl.isAvailable());
+
+        certs = folder.newFolder("cert");
+        Process process = new ProcessBuilder("sh", script.getPath(), certs.getPath())
+                .redirectErrorStream(true)
+                .start();
+        process.getInputStream().readAllBytes();
+        assertEquals(0, process.waitFor());
+    }
+
+    @Test
+    public void resumesSessionsAfterRestartWithKeyFile() throws Exception {
+        assertEquals(1, handshakesAcrossRestart(TlsConfig.performance(new File(certs, "ticket-keys"))));
+    }
+
+    @Test
+    public void randomKeysDontResumeAfterRestart() throws Exception {
+        assertEquals(2, handshakesAcrossRestart(TlsConfig.performance()));
+    }
+
+    @Test
+    public void readsRotatedKeys() throws Exception {
+        Random random = new Random(42);
+        byte[] newest = new byte[OpenSslSessionTicketKey.TICKET_KEY_SIZE];
+        byte[] older = new byte[OpenSslSessionTicketKey.TICKET_KEY_SIZE];
+        random.nextBytes(newest);
+        random.nextBytes(older);
+        File file = folder.newFile("ticket-keys");
+        Files.write(file.toPath(), Arrays.asList(
+                Base64.getEncoder().encodeToString(newest), Base64.getEncoder().encodeToString(older), ""));
+
+        OpenSslSessionTicketKey[] keys = TlsConfig.readTicketKeys(file);
+        assertEquals(2, keys.length);
+        assertArrayEquals(Arrays.copyOfRange(newest, 0, OpenSslSessionTicketKey.NAME_SIZE), keys[0].name());
+        assertArrayEquals(Arrays.copyOfRange(older, OpenSslSessionTicketKey.TICKET_KEY_SIZE - OpenSslSessionTicketKey.AES_KEY_SIZE,
+                OpenSslSessionTicketKey.TICKET_KEY_SIZE), keys[1].aesKey());
+
+        Files.write(file.toPath(), Arrays.asList(Base64.getEncoder().encodeToString(new byte[16])));
+        try {
+            TlsConfig.readTicketKeys(file);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    // handshakesAcrossRestart connects to a server, restarts it on the same port and connects
+    // again, and returns how many full handshakes the servers made
+    private int handshakesAcrossRestart(TlsConfig config) throws Exception {
+        SslContext clientContext = config.build(SslContextBuilder.forClient()
+                .keyManager(new File(certs, "client-cert.pem"), new File(certs, "client-key.pem"))
+                .trustManager(new File(certs, "ca-cert.pem")));
+
+        Server server = startServer(config, 0);
+        int port = server.getPort();
+        try {
+            connect(clientContext, port);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server = startServer(config, port);
+            connect(clientContext, port);
+        } finally {
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        return verified.get();
+    }
+
+    private Server startServer(TlsConfig config, int port) throws Exception {
+        SslContext serverContext = config.build(SslContextBuilder
+                .forServer(new File(certs, "server-cert.pem"), new File(certs, "server-key.pem"))
+                .clientAuth(ClientAuth.REQUIRE)
+                .trustManager(countingTrustManager()));
+        return NettyServerBuilder.forPort(port)
+                .withOption(ChannelOption.SO_REUSEADDR, true)
+                .sslContext(serverContext)
+                .addService(new LaptopService(new InMemoryLaptopStore(), null, new InMemoryRatingStore()))
+                .build()
+                .start();
+    }
+
+    private TrustManager countingTrustManager() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        try (InputStream in = new FileInputStream(new File(certs, "ca-cert.pem"))) {
+            keyStore.setCertificateEntry("ca", CertificateFactory.getInstance("X.509").generateCertificate(in));
+        }
+        TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        factory.init(keyStore);
+        X509TrustManager trust = (X509TrustManager) factory.getTrustManagers()[0];
+
+        return new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+                verified.incrementAndGet();
+                trust.checkClientTrusted(chain, authType);
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+                trust.checkServerTrusted(chain, authType);
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return trust.getAcceptedIssuers();
+            }
+        };
+    }
+
+    private static void connect(SslContext clientContext, int port) throws InterruptedException {
+        ManagedChannel channel = NettyChannelBuilder.forAddress("localhost", port)
+                .sslContext(clientContext)
+                .build();
+        try {
+            ConnectivityState state = channel.getState(true);
+            while (state != ConnectivityState.READY) {
+                assertNotEquals(ConnectivityState.TRANSIENT_FAILURE, state);
+                CountDownLatch changed = new CountDownLatch(1);
+                channel.notifyWhenStateChanged(state, changed::countDown);
+                assertTrue(changed.await(5, TimeUnit.SECONDS));
+                state = channel.getState(false);
+            }
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.techschool.pcbook.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// TokenBucket is a lock-free token bucket written as a generic cell rate algorithm:
+// the only state is the theoretical arrival time of the next request, advanced with CAS,
+// so many threads can check the same bucket without blocking each other.
+public class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong theoreticalArrival;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System.nanoTime());
+    }
+
+    TokenBucket(double permitsPerSecond, int burst, long nowNanos) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate must be positive and burst at least 1");
+        }
+        this.intervalNanos = Math.max(1, (long) (1e9 / permitsPerSecond));
+        this.burstNanos = (burst - 1) * intervalNanos;
+        this.theoreticalArrival = new AtomicLong(nowNanos);
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long current = theoreticalArrival.get();
+            // an idle bucket doesn't bank more than burst tokens
+            long start = current - nowNanos > 0 ? current : nowNanos;
+            if (start - nowNanos > burstNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(current, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.techschool.pcbook.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+    private static final long second = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void allowsBurstThenRate() {
+        long now = 1000;
+        TokenBucket bucket = new TokenBucket(10, 5, now);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(now));
+        }
+        assertFalse(bucket.tryAcquire(now));
+
+        // one token every 100ms
+        assertFalse(bucket.tryAcquire(now + second / 20));
+        assertTrue(bucket.tryAcquire(now + second / 10));
+        assertFalse(bucket.tryAcquire(now + second / 10));
+    }
+
+    @Test
+    public void idleBucketRefillsOnlyUpToBurst() {
+        long now = 1000;
+        TokenBucket bucket = new TokenBucket(10, 3, now);
+
+        long later = now + 60 * second;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryAcquire(later));
+        }
+        assertFalse(bucket.tryAcquire(later));
+    }
+
+    @Test
+    public void concurrentAcquireNeverExceedsBurst() throws InterruptedException {
+        long now = 1000;
+        TokenBucket bucket = new TokenBucket(1, 100, now);
+        AtomicInteger acquired = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(() -> {
+                if (bucket.tryAcquire(now)) {
+                    acquired.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(100, acquired.get());
+    }
+}
@@ -0,0 +1,165 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.RatedLaptop;
+import com.techschool.pcbook.pb.WatchTopRatedResponse;
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// TopRatedWatchRegistry keeps the WatchTopRatedLaptops calls. Each watch listens to the leaderboard
+// and only refreshes when an updated laptop is in its top N, or now ranks above its last one and
+// matches its filter.
+//
+// A watch with a filter walks the best maxScanned laptops of the ranking. If it finds fewer than
+// N matches there, it resolves its filter to the matching laptops instead and looks their ratings
+// up, so matches that rank low are still found without walking the whole ranking. Refreshes run on a single background thread, never on the rating thread, and a watch with
+// several changes waiting refreshes once. A client that reads slowly gets the latest top N
+// when it is ready again, not every ranking in between.
+public class TopRatedWatchRegistry {
+    private static final Logger logger = Logger.getLogger(TopRatedWatchRegistry.class.getName());
+
+    // a refresh walks no more than this many of the best ranked laptops, so a filter that
+    // matches few laptops doesn't hold the shared refresher for a walk of the whole ranking
+    static final int defaultMaxScanned = 10000;
+
+    private final RatingLeaderboard leaderboard;
+    private final int maxScanned;
+    private final ExecutorService refresher;
+    private final AtomicInteger watchCount = new AtomicInteger();
+
+    public TopRatedWatchRegistry(RatingLeaderboard leaderboard) {
+        this(leaderboard, defaultMaxScanned);
+    }
+
+    TopRatedWatchRegistry(RatingLeaderboard leaderboard, int maxScanned) {
+        this.leaderboard = leaderboard;
+        this.maxScanned = maxScanned;
+        this.refresher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "top-rated-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // candidates returns the IDs of the laptops that match filter. It may be null when
+    // filter accepts every laptop, as the walk of the ranking then always finds N.
+    public Watch Subscribe(int limit, Predicate<String> filter, Supplier<Collection<String>> candidates,
+                           ServerCallStreamObserver<WatchTopRatedResponse> observer) {
+        Watch watch = new Watch(limit, filter, candidates, observer);
+        watch.stopListening = leaderboard.Listen(watch::onUpdate);
+        watchCount.incrementAndGet();
+        watch.schedule();
+        return watch;
+    }
+
+    public int getWatchCount() {
+        return watchCount.get();
+    }
+
+    public class Watch {
+        private final int limit;
+        private final Predicate<String> filter;
+        private final Supplier<Collection<String>> candidates;
+        private final ServerCallStreamObserver<WatchTopRatedResponse> observer;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private Runnable stopListening;
+
+        // the top N last computed, replaced as a whole by the refresher and read by onUpdate
+        private volatile List<RatingLeaderboard.Entry> top = Collections.emptyList();
+        // guarded by this
+        private List<RatingLeaderboard.Entry> sent;
+        private boolean unsent;
+
+        private Watch(int limit, Predicate<String> filter, Supplier<Collection<String>> candidates,
+                      ServerCallStreamObserver<WatchTopRatedResponse> observer) {
+            this.limit = limit;
+            this.filter = filter;
+            this.candidates = candidates;
+            this.observer = observer;
+        }
+
+        // onUpdate runs on the rating thread. A laptop in the last top N always refreshes, since it
+        // may have moved or fallen out. Any other laptop refreshes only if it would now rank in
+        // the top N and passes the filter, so a narrow filter doesn't refresh on every rating.
+        private void onUpdate(RatingLeaderboard.Entry entry) {
+            List<RatingLeaderboard.Entry> current = top;
+            for (RatingLeaderboard.Entry ranked : current) {
+                if (ranked.getLaptopID().equals(entry.getLaptopID())) {
+                    schedule();
+                    return;
+                }
+            }
+
+            boolean ranksIn = current.size() < limit
+                    || RatingLeaderboard.ranksBefore(entry, current.get(current.size() - 1));
+            if (ranksIn && filter.test(entry.getLaptopID())) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (!closed.get() && scheduled.compareAndSet(false, true)) {
+                refresher.execute(this::refresh);
+            }
+        }
+
+        private void refresh() {
+            scheduled.set(false);
+            if (closed.get()) {
+                return;
+            }
+            try {
+                List<RatingLeaderboard.Entry> found = leaderboard.Top(limit, filter, maxScanned);
+                if (found.size() < limit && candidates != null && leaderboard.size() > maxScanned) {
+                    // the walk stopped before the end of the ranking, the other matches rank lower
+                    found = leaderboard.Top(limit, candidates.get());
+                }
+                top = found;
+            } catch (RuntimeException e) {
+                logger.warning("cannot refresh top rated laptops: " + e.getMessage());
+                return;
+            }
+            synchronized (this) {
+                unsent = !top.equals(sent);
+            }
+            drain();
+        }
+
+        // drain sends the latest top N if it changed since the last message. It is called
+        // after a refresh and from the observer's onReady handler.
+        public synchronized void drain() {
+            if (closed.get() || !unsent || !observer.isReady()) {
+                return;
+            }
+            List<RatingLeaderboard.Entry> current = top;
+            WatchTopRatedResponse.Builder response = WatchTopRatedResponse.newBuilder();
+            for (RatingLeaderboard.Entry entry : current) {
+                response.addLaptops(RatedLaptop.newBuilder()
+                        .setLaptopId(entry.getLaptopID())
+                        .setRatedCount(entry.getCount())
+                        .setAverageScore(entry.getAverage())
+                        .build());
+            }
+            observer.onNext(response.build());
+            sent = current;
+            unsent = false;
+        }
+
+        public void cancel() {
+            if (closed.compareAndSet(false, true)) {
+                stopListening.run();
+                watchCount.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.WatchTopRatedResponse;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TopRatedWatchRegistryTest {
+
+    @Test
+    public void findsMatchesBeyondScannedRanking() throws Exception {
+        InMemoryRatingStore ratingStore = new InMemoryRatingStore();
+        for (int i = 0; i < 100; i++) {
+            ratingStore.Add("laptop-" + i, i / 10.0);
+        }
+        TopRatedWatchRegistry registry = new TopRatedWatchRegistry(ratingStore.Leaderboard(), 50);
+
+        // the only matches rank last, beyond the 50 laptops a refresh walks
+        RecordingObserver observer = new RecordingObserver();
+        TopRatedWatchRegistry.Watch watch = registry.Subscribe(2,
+                id -> id.equals("laptop-0") || id.equals("laptop-1"),
+                () -> Arrays.asList("laptop-0", "laptop-1"), observer);
+        try {
+            WatchTopRatedResponse response = observer.responses.poll(5, TimeUnit.SECONDS);
+            assertNotNull(response);
+            assertEquals(2, response.getLaptopsCount());
+            assertEquals("laptop-1", response.getLaptops(0).getLaptopId());
+            assertEquals("laptop-0", response.getLaptops(1).getLaptopId());
+        } finally {
+            watch.cancel();
+        }
+    }
+
+    private static class RecordingObserver extends ServerCallStreamObserver<WatchTopRatedResponse> {
+        private final BlockingQueue<WatchTopRatedResponse> responses = new LinkedBlockingQueue<>();
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+        }
+
+        @Override
+        public void setCompression(String compression) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+
+        @Override
+        public void onNext(WatchTopRatedResponse value) {
+            responses.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+    }
+}
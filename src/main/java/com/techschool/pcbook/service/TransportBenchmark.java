@@ -0,0 +1,258 @@
+package com.techschool.pcbook.service;
+
+import com.google.protobuf.ByteString;
+import com.techschool.pcbook.pb.*;
+import com.techschool.pcbook.sample.Generator;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// TransportBenchmark measures UploadImage MB/s and batched SearchLaptop laptops/s for each
+// TransportProfile, through an in-JVM proxy on loopback that delays every byte by a fixed
+// one-way latency. The same profile is used on both sides.
+public class TransportBenchmark {
+    private static final int serverPort = 50074;
+    private static final int proxyPort = 50075;
+    private static final int imageSize = 1 << 20;
+    private static final int chunkSize = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        long oneWayMillis = args.length > 0 ? Long.parseLong(args[0]) : 25;
+        int uploads = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int laptops = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+        Logger.getLogger(LaptopService.class.getName()).setLevel(Level.WARNING);
+
+        InMemoryLaptopStore laptopStore = new InMemoryLaptopStore();
+        Generator generator = new Generator();
+        for (int i = 0; i < laptops; i++) {
+            laptopStore.Save(generator.NewLaptop().toBuilder().setPriceUsd(1000).build());
+        }
+        Laptop uploadTarget = generator.NewLaptop();
+        laptopStore.Save(uploadTarget);
+
+        DelayProxy proxy = new DelayProxy(proxyPort, "localhost", serverPort, oneWayMillis);
+        try {
+            System.out.printf("round trip: %d ms%n", 2 * oneWayMillis);
+            for (TransportProfile profile : new TransportProfile[]{
+                    TransportProfile.defaults(), TransportProfile.lowLatency(), TransportProfile.bulkTransfer()}) {
+                run(profile, laptopStore, uploadTarget.getId(), uploads, laptops);
+            }
+        } finally {
+            proxy.close();
+        }
+    }
+
+    private static void run(TransportProfile profile, LaptopStore laptopStore, String laptopID,
+                            int uploads, int laptops) throws Exception {
+        // uploaded images are dropped so the disk doesn't hide the transport
+        ImageStore discard = (id, imageType, imageData) -> UUID.randomUUID().toString();
+        Server server = profile.configure(NettyServerBuilder.forPort(serverPort))
+                .addService(new LaptopService(laptopStore, discard, new InMemoryRatingStore()))
+                .build()
+                .start();
+        ManagedChannel channel = profile.configure(NettyChannelBuilder.forAddress("localhost", proxyPort))
+                .usePlaintext()
+                .build();
+
+        try {
+            LaptopServiceGrpc.LaptopServiceStub stub = LaptopServiceGrpc.newStub(channel);
+            LaptopServiceGrpc.LaptopServiceBlockingStub blockingStub = LaptopServiceGrpc.newBlockingStub(channel);
+
+            byte[] image = new byte[imageSize];
+            new Random(42).nextBytes(image);
+
+            // warm up, which also lets auto-tuning size the window
+            upload(stub, laptopID, image);
+            search(blockingStub, laptops);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < uploads; i++) {
+                upload(stub, laptopID, image);
+            }
+            double uploadSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            search(blockingStub, laptops);
+            double searchSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%s%n  upload: %7.1f MB/s  search: %9.0f laptops/s%n", profile,
+                    uploads * (double) imageSize / (1 << 20) / uploadSeconds, laptops / searchSeconds);
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void upload(LaptopServiceGrpc.LaptopServiceStub stub, String laptopID, byte[] image)
+            throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        StreamObserver<UploadImageRequest> requestObserver = stub.uploadImage(new StreamObserver<UploadImageResponse>() {
+            @Override
+            public void onNext(UploadImageResponse response) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error.set(t);
+                finished.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                finished.countDown();
+            }
+        });
+
+        requestObserver.onNext(UploadImageRequest.newBuilder()
+                .setInfo(ImageInfo.newBuilder().setLaptopId(laptopID).setImageType(".bin"))
+                .build());
+        for (int offset = 0; offset < image.length; offset += chunkSize) {
+            requestObserver.onNext(UploadImageRequest.newBuilder()
+                    .setChunkData(ByteString.copyFrom(image, offset, Math.min(chunkSize, image.length - offset)))
+                    .build());
+        }
+        requestObserver.onCompleted();
+
+        finished.await();
+        if (error.get() != null) {
+            throw new IllegalStateException("upload failed", error.get());
+        }
+    }
+
+    private static void search(LaptopServiceGrpc.LaptopServiceBlockingStub stub, int expected) {
+        SearchLaptopRequest request = SearchLaptopRequest.newBuilder()
+                .setFilter(LaptopFilter.newBuilder().setMaxPriceUsd(2000).build())
+                .setBatching(SearchBatching.getDefaultInstance())
+                .build();
+        long found = 0;
+        Iterator<SearchLaptopResponse> responses = stub.searchLaptop(request);
+        while (responses.hasNext()) {
+            found += responses.next().getLaptopsCount();
+        }
+        if (found != expected) {
+            throw new IllegalStateException("found " + found + " laptops, expected " + expected);
+        }
+    }
+
+    // DelayProxy forwards TCP connections to a target and holds every chunk it reads for
+    // delayMillis before writing it on, in both directions. Bandwidth is not limited.
+    private static class DelayProxy {
+        private final ServerSocket listener;
+        private final String targetHost;
+        private final int targetPort;
+        private final long delayNanos;
+
+        private DelayProxy(int port, String targetHost, int targetPort, long delayMillis) throws IOException {
+            this.listener = new ServerSocket(port);
+            this.targetHost = targetHost;
+            this.targetPort = targetPort;
+            this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+
+            Thread acceptor = new Thread(this::accept, "delay-proxy");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void accept() {
+            while (!listener.isClosed()) {
+                try {
+                    Socket client = listener.accept();
+                    Socket server = new Socket(targetHost, targetPort);
+                    client.setTcpNoDelay(true);
+                    server.setTcpNoDelay(true);
+                    pipe(client, server);
+                    pipe(server, client);
+                } catch (IOException e) {
+                    // the listener was closed, or the server is not up yet: drop the connection
+                }
+            }
+        }
+
+        private void pipe(Socket from, Socket to) throws IOException {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        queue.put(new Chunk(System.nanoTime() + delayNanos, Arrays.copyOf(buffer, n)));
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // the connection is gone
+                }
+                queue.add(Chunk.end);
+            });
+            Thread writer = new Thread(() -> {
+                try {
+                    while (true) {
+                        Chunk chunk = queue.take();
+                        if (chunk == Chunk.end) {
+                            break;
+                        }
+                        long wait = chunk.due - System.nanoTime();
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                        out.write(chunk.data);
+                        out.flush();
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // the connection is gone
+                }
+                closeQuietly(from);
+                closeQuietly(to);
+            });
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        private static void closeQuietly(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+
+        private void close() throws IOException {
+            listener.close();
+        }
+
+        private static class Chunk {
+            private static final Chunk end = new Chunk(0, new byte[0]);
+
+            private final long due;
+            private final byte[] data;
+
+            private Chunk(long due, byte[] data) {
+                this.due = due;
+                this.data = data;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.techschool.pcbook.service;
+
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+// TransportProfile holds the HTTP/2 settings of the server and the client connections:
+// flow-control window, message size, stream limit and keepalive. A zero value leaves
+// the gRPC default.
+//
+// The initial window is the most a stream can have in flight before the peer acknowledges it,
+// so with the 64 KB default a stream over a 50 ms link moves about 1.3 MB/s however fast the
+// link is. With auto-tuning, gRPC measures the bandwidth-delay product with pings and grows
+// the window to match; the initial window only matters until it has.
+public class TransportProfile {
+    // clients of every profile ping at most this often, servers of every profile accept it
+    private static final long minKeepAliveSeconds = 20;
+
+    private final String name;
+    private final int initialWindow;
+    private final boolean autoTuneWindow;
+    private final int maxInboundMessageSize;
+    private final int maxConcurrentStreams;
+    private final long keepAliveSeconds;
+    private final long keepAliveTimeoutSeconds;
+
+    public TransportProfile(String name, int initialWindow, boolean autoTuneWindow, int maxInboundMessageSize,
+                            int maxConcurrentStreams, long keepAliveSeconds, long keepAliveTimeoutSeconds) {
+        if (keepAliveSeconds != 0 && keepAliveSeconds < minKeepAliveSeconds) {
+            throw new IllegalArgumentException("keepalive must be at least " + minKeepAliveSeconds + " seconds");
+        }
+        this.name = name;
+        this.initialWindow = initialWindow;
+        this.autoTuneWindow = autoTuneWindow;
+        this.maxInboundMessageSize = maxInboundMessageSize;
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.keepAliveSeconds = keepAliveSeconds;
+        this.keepAliveTimeoutSeconds = keepAliveTimeoutSeconds;
+    }
+
+    // defaults leaves every setting to gRPC, except that a server accepts the keepalive pings
+    // of clients using the other profiles
+    public static TransportProfile defaults() {
+        return new TransportProfile("default", 0, true, 0, 0, 0, 0);
+    }
+
+    // lowLatency is for many small calls: a moderate window that auto-tuning can still grow,
+    // plenty of concurrent streams, and keepalive to notice a dead connection within seconds
+    // instead of waiting for TCP to time out
+    public static TransportProfile lowLatency() {
+        return new TransportProfile("low-latency", 256 * 1024, true, 4 << 20, 1000, 30, 5);
+    }
+
+    // bulkTransfer is for image uploads and large searches over fast links with high latency:
+    // a 1 MB window that auto-tuning grows to the bandwidth-delay product (gRPC stops at 8 MB),
+    // larger messages, and fewer streams sharing the connection window. A peer may fill the window
+    // of every stream, so the streams times the window is what one connection can make the server
+    // buffer: 32 MB at first, instead of 1.6 GB with the 16 MB window and 100 streams this had.
+    public static TransportProfile bulkTransfer() {
+        return new TransportProfile("bulk-transfer", 1 << 20, true, 16 << 20, 32, 60, 20);
+    }
+
+    // forName returns the profile called name, for command line flags
+    public static TransportProfile forName(String name) {
+        for (TransportProfile profile : new TransportProfile[]{defaults(), lowLatency(), bulkTransfer()}) {
+            if (profile.name.equals(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("unknown transport profile: " + name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public NettyServerBuilder configure(NettyServerBuilder builder) {
+        if (initialWindow > 0) {
+            if (autoTuneWindow) {
+                builder.initialFlowControlWindow(initialWindow);
+            } else {
+                builder.flowControlWindow(initialWindow);
+            }
+        }
+        if (maxInboundMessageSize > 0) {
+            builder.maxInboundMessageSize(maxInboundMessageSize);
+        }
+        if (maxConcurrentStreams > 0) {
+            builder.maxConcurrentCallsPerConnection(maxConcurrentStreams);
+        }
+        if (keepAliveSeconds > 0) {
+            builder.keepAliveTime(keepAliveSeconds, TimeUnit.SECONDS)
+                    .keepAliveTimeout(keepAliveTimeoutSeconds, TimeUnit.SECONDS);
+        }
+        // a client of any profile must not be sent away for pinging too often
+        builder.permitKeepAliveTime(minKeepAliveSeconds, TimeUnit.SECONDS)
+                .permitKeepAliveWithoutCalls(true);
+        return builder;
+    }
+
+    // configure sets the client side. The stream limit is announced by the server, it has no
+    // client setting.
+    public NettyChannelBuilder configure(NettyChannelBuilder builder) {
+        if (initialWindow > 0) {
+            if (autoTuneWindow) {
+                builder.initialFlowControlWindow(initialWindow);
+            } else {
+                builder.flowControlWindow(initialWindow);
+            }
+        }
+        if (maxInboundMessageSize > 0) {
+            builder.maxInboundMessageSize(maxInboundMessageSize);
+        }
+        if (keepAliveSeconds > 0) {
+            builder.keepAliveTime(keepAliveSeconds, TimeUnit.SECONDS)
+                    .keepAliveTimeout(keepAliveTimeoutSeconds, TimeUnit.SECONDS)
+                    .keepAliveWithoutCalls(true);
+        }
+        return builder;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (window: " + initialWindow + (autoTuneWindow ? " auto" : " fixed")
+                + " max message: " + maxInboundMessageSize + " streams: " + maxConcurrentStreams
+                + " keepalive: " + keepAliveSeconds + "s)";
+    }
+}
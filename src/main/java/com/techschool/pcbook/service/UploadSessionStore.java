@@ -0,0 +1,456 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.UploadStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// UploadSessionStore keeps resumable uploads. Each session has a data file that chunks are written
+// to as they arrive, and a small properties file with its committed offset: the number of bytes
+// forced to disk. A client whose stream broke asks for the committed offset and sends the rest
+// from there, so nothing larger than a chunk is ever held in memory.
+//
+// Chunks are written to the data file on the caller's thread, which only copies them to the page
+// cache. Commits, which fsync, and the hand over of a finished file to the image store run on I/O
+// threads, so a gRPC thread never waits for the disk or for the image store.
+//
+// Sessions survive a restart: they are read back from the folder when the store is created.
+// A background sweeper deletes sessions that saw no data for longer than the TTL.
+public class UploadSessionStore {
+    private static final Logger logger = Logger.getLogger(UploadSessionStore.class.getName());
+
+    private static final long commitEvery = 1 << 20;
+    private static final int defaultIoThreads = 4;
+    private static final String sessionSuffix = ".session";
+    private static final String dataSuffix = ".part";
+
+    private final Path folder;
+    private final ImageStore imageStore;
+    private final long maxSize;
+    private final long ttlMillis;
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+    // runs commits and saves
+    private final ExecutorService ioExecutor;
+    private final boolean ownsExecutor;
+
+    public UploadSessionStore(String folder, ImageStore imageStore, long maxSize, long ttl, TimeUnit unit)
+            throws IOException {
+        this(folder, imageStore, maxSize, ttl, unit, null);
+    }
+
+    // ioExecutor runs commits and saves, the store starts its own threads when it is null
+    public UploadSessionStore(String folder, ImageStore imageStore, long maxSize, long ttl, TimeUnit unit,
+                              ExecutorService ioExecutor) throws IOException {
+        this.folder = Paths.get(folder);
+        this.imageStore = imageStore;
+        this.maxSize = maxSize;
+        this.ttlMillis = unit.toMillis(ttl);
+        this.ownsExecutor = ioExecutor == null;
+        this.ioExecutor = ioExecutor != null ? ioExecutor : Executors.newFixedThreadPool(defaultIoThreads, runnable -> {
+            Thread thread = new Thread(runnable, "upload-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Files.createDirectories(this.folder);
+        load();
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "upload-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, ttlMillis / 4);
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Session Start(String laptopID, String imageType, long size) throws IOException {
+        if (size <= 0 || size > maxSize) {
+            throw new IllegalArgumentException("upload size must be between 1 and " + maxSize + " bytes");
+        }
+
+        Session session = new Session(UUID.randomUUID().toString(), laptopID, imageType, size, 0, null);
+        Files.createFile(session.dataFile());
+        synchronized (session) {
+            session.persist();
+        }
+        sessions.put(session.uploadID, session);
+        return session;
+    }
+
+    public Session Find(String uploadID) {
+        return sessions.get(uploadID);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+        if (ownsExecutor) {
+            ioExecutor.shutdown();
+        }
+    }
+
+    // sweep deletes sessions idle for longer than the TTL: abandoned uploads with their data,
+    // and finished ones that were kept so a client could still read their image ID
+    void sweep() {
+        long now = System.currentTimeMillis();
+        for (Session session : sessions.values()) {
+            if (now - session.lastActivity > ttlMillis && sessions.remove(session.uploadID, session)) {
+                logger.info("expire upload " + session.uploadID);
+                try {
+                    session.delete();
+                } catch (IOException e) {
+                    logger.warning("cannot delete upload " + session.uploadID + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // onIoThread runs task on the I/O executor
+    private <T> CompletableFuture<T> onIoThread(IoTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        ioExecutor.execute(() -> {
+            try {
+                future.complete(task.run());
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private interface IoTask<T> {
+        T run() throws IOException;
+    }
+
+    private void load() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*" + sessionSuffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String uploadID = name.substring(0, name.length() - sessionSuffix.length());
+
+                Properties properties = new Properties();
+                try (InputStream in = Files.newInputStream(file)) {
+                    properties.load(in);
+                }
+
+                Session session = new Session(uploadID,
+                        properties.getProperty("laptopID"),
+                        properties.getProperty("imageType"),
+                        Long.parseLong(properties.getProperty("size")),
+                        Long.parseLong(properties.getProperty("committed")),
+                        properties.getProperty("imageID"));
+                if (session.imageID == null && !Files.exists(session.dataFile())) {
+                    logger.warning("drop upload " + uploadID + " without data");
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                sessions.put(uploadID, session);
+            }
+        }
+        logger.info("loaded " + sessions.size() + " upload sessions");
+    }
+
+    public class Session {
+        private final String uploadID;
+        private final String laptopID;
+        private final String imageType;
+        private final long size;
+        private volatile long lastActivity;
+
+        // guarded by this
+        private long committed;
+        private long written;
+        private String imageID;
+        private FileChannel channel;
+        private int generation;
+        private boolean saving;
+        private boolean deleted;
+
+        private Session(String uploadID, String laptopID, String imageType, long size, long committed, String imageID) {
+            this.uploadID = uploadID;
+            this.laptopID = laptopID;
+            this.imageType = imageType;
+            this.size = size;
+            this.committed = committed;
+            this.written = committed;
+            this.imageID = imageID;
+            this.lastActivity = System.currentTimeMillis();
+        }
+
+        public String getUploadID() {
+            return uploadID;
+        }
+
+        public synchronized boolean isComplete() {
+            return imageID != null;
+        }
+
+        public synchronized UploadStatus status() {
+            UploadStatus.Builder status = UploadStatus.newBuilder()
+                    .setUploadId(uploadID)
+                    .setSize(size)
+                    .setCommittedOffset(committed);
+            if (imageID != null) {
+                status.setImageId(imageID);
+            }
+            return status.build();
+        }
+
+        // open starts writing at offset, which must be the committed offset. Bytes written after
+        // the last commit are discarded, and a stream that had the session before loses it.
+        // The writer is ready at once, unless the last stream committed every byte but stopped
+        // before the file was saved: then it is ready once the image is saved.
+        public CompletableFuture<Writer> open(long offset) throws IOException {
+            Writer writer;
+            synchronized (this) {
+                checkUsable();
+                if (imageID != null) {
+                    throw new IllegalStateException("upload is complete");
+                }
+                if (saving) {
+                    throw new IllegalStateException("upload is being saved");
+                }
+                if (offset != committed) {
+                    throw new IllegalStateException("upload must resume from committed offset " + committed);
+                }
+
+                closeChannel();
+                channel = FileChannel.open(dataFile(), StandardOpenOption.WRITE);
+                channel.truncate(committed);
+                written = committed;
+                generation++;
+                lastActivity = System.currentTimeMillis();
+                writer = new Writer(generation);
+
+                if (committed < size) {
+                    return CompletableFuture.completedFuture(writer);
+                }
+                saving = true;
+            }
+            return writer.finish().thenApply(saved -> writer);
+        }
+
+        private void checkUsable() {
+            if (deleted) {
+                throw new IllegalStateException("upload has expired");
+            }
+        }
+
+        private synchronized boolean isCurrent(int generation) {
+            return !deleted && generation == this.generation && channel != null;
+        }
+
+        // commit makes the bytes the stream of generation wrote durable and moves the committed
+        // offset to them. It returns false when there was nothing to commit, or when another stream
+        // took the session over, as their bytes are then discarded. It forces the data file without
+        // the session's lock, so status still answers meanwhile.
+        private boolean commit(int generation) throws IOException {
+            FileChannel current;
+            long target;
+            synchronized (this) {
+                if (!isCurrent(generation) || written <= committed) {
+                    return false;
+                }
+                current = channel;
+                target = written;
+            }
+
+            try {
+                current.force(false);
+            } catch (ClosedChannelException e) {
+                if (!isCurrent(generation)) {
+                    return false;
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                if (!isCurrent(generation) || target <= committed) {
+                    return false;
+                }
+                committed = target;
+                persist();
+                return true;
+            }
+        }
+
+        // save hands the data file to the image store. It runs outside the session's lock, because
+        // the store may take its time, like a thumbnail queue waiting for room, and status must
+        // still answer meanwhile.
+        private void save() throws IOException {
+            String saved;
+            try {
+                saved = imageStore.SaveFile(laptopID, imageType, dataFile());
+            } catch (IOException | RuntimeException e) {
+                // every byte is committed, so the client can resume from the end to try again
+                synchronized (this) {
+                    saving = false;
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                imageID = saved;
+                saving = false;
+                if (!deleted) {
+                    persist();
+                }
+            }
+            logger.info("upload " + uploadID + " saved as image " + saved);
+        }
+        private void closeChannel() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+
+        private synchronized void delete() throws IOException {
+            deleted = true;
+            closeChannel();
+            Files.deleteIfExists(dataFile());
+            Files.deleteIfExists(sessionFile());
+        }
+
+        // persist replaces the session file atomically, so a crash leaves the old or the new offset
+        private void persist() throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("laptopID", laptopID);
+            properties.setProperty("imageType", imageType);
+            properties.setProperty("size", Long.toString(size));
+            properties.setProperty("committed", Long.toString(committed));
+            if (imageID != null) {
+                properties.setProperty("imageID", imageID);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            properties.store(bytes, null);
+
+            Path tmp = folder.resolve(uploadID + sessionSuffix + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(true);
+            }
+            Files.move(tmp, sessionFile(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private Path dataFile() {
+            return folder.resolve(uploadID + dataSuffix);
+        }
+
+        private Path sessionFile() {
+            return folder.resolve(uploadID + sessionSuffix);
+        }
+
+        // Writer appends the chunks of one stream
+        public class Writer {
+            private final int generation;
+            // guarded by Session.this
+            private boolean committing;
+
+            private Writer(int generation) {
+                this.generation = generation;
+            }
+
+            // write appends a chunk. The future completes with true once the committed offset moved,
+            // which is when the stream should acknowledge, and with false right away when no commit
+            // was due. A commit is due every commitEvery bytes, and after the last byte the future
+            // completes once the image is saved.
+            public CompletableFuture<Boolean> write(ByteBuffer data) throws IOException {
+                synchronized (Session.this) {
+                    check();
+                    if (written + data.remaining() > size) {
+                        throw new IllegalArgumentException("upload is larger than its size of " + size + " bytes");
+                    }
+
+                    while (data.hasRemaining()) {
+                        written += channel.write(data, written);
+                    }
+                    lastActivity = System.currentTimeMillis();
+
+                    if (written == size) {
+                        saving = true;
+                        return finish();
+                    }
+                    // while a commit runs, later chunks wait for the next one
+                    if (committing || written - committed < commitEvery) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    committing = true;
+                }
+
+                return onIoThread(() -> {
+                    try {
+                        return Session.this.commit(generation);
+                    } finally {
+                        synchronized (Session.this) {
+                            committing = false;
+                        }
+                    }
+                });
+            }
+
+            // commit makes every byte written so far durable, used when the stream ends early
+            public CompletableFuture<Boolean> commit() {
+                return onIoThread(() -> Session.this.commit(generation));
+            }
+
+            // finish commits the last bytes, closes the data file and saves it. The caller must have
+            // set saving, so no other stream takes the session over meanwhile.
+            private CompletableFuture<Boolean> finish() {
+                return onIoThread(() -> {
+                    try {
+                        Session.this.commit(generation);
+                        synchronized (Session.this) {
+                            check();
+                            closeChannel();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        synchronized (Session.this) {
+                            saving = false;
+                        }
+                        throw e;
+                    }
+                    save();
+                    return true;
+                });
+            }
+
+            private void check() {
+                checkUsable();
+                if (generation != Session.this.generation || channel == null) {
+                    throw new IllegalStateException("upload was resumed by another stream");
+                }
+            }
+        }
+    }
+}
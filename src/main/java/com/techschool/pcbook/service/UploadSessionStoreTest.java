@@ -0,0 +1,181 @@
+package com.techschool.pcbook.service;
+
+import com.techschool.pcbook.pb.UploadStatus;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UploadSessionStoreTest {
+    private static final int chunkSize = 64 * 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<UploadSessionStore> stores = new ArrayList<>();
+    // SaveFile waits for it, so a test can hold a save
+    private final CountDownLatch saveAllowed = new CountDownLatch(1);
+    private final ImageStore imageStore = new ImageStore() {
+        @Override
+        public String Save(String laptopID, String imageType, ByteArrayOutputStream imageData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String SaveFile(String laptopID, String imageType, Path file) throws IOException {
+            try {
+                saveAllowed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "image-" + Files.size(file);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        for (UploadSessionStore store : stores) {
+            store.shutdown();
+        }
+    }
+
+    private UploadSessionStore open(long ttl, TimeUnit unit) throws Exception {
+        UploadSessionStore store = new UploadSessionStore(folder.getRoot().getPath(), imageStore, 8 << 20, ttl, unit);
+        stores.add(store);
+        return store;
+    }
+
+    // write sends length bytes in chunks and returns whether the last chunk moved the committed offset
+    private static boolean write(UploadSessionStore.Session.Writer writer, int length) throws Exception {
+        boolean committed = false;
+        for (int offset = 0; offset < length; offset += chunkSize) {
+            CompletableFuture<Boolean> written = writer.write(ByteBuffer.wrap(new byte[Math.min(chunkSize, length - offset)]));
+            committed = written.get(5, TimeUnit.SECONDS);
+        }
+        return committed;
+    }
+
+    @Test
+    public void reloadsSessionsWhenConstructedAgain() throws Exception {
+        saveAllowed.countDown();
+        UploadSessionStore store = open(1, TimeUnit.HOURS);
+
+        UploadSessionStore.Session partial = store.Start("laptop", ".mp4", 3 << 20);
+        UploadSessionStore.Session.Writer writer = partial.open(0).get(5, TimeUnit.SECONDS);
+        assertTrue(write(writer, 1 << 20));
+        // written but not committed, so lost when the store is loaded again
+        write(writer, 1000);
+
+        UploadSessionStore.Session complete = store.Start("laptop", ".jpg", 2000);
+        assertTrue(write(complete.open(0).get(5, TimeUnit.SECONDS), 2000));
+        assertTrue(complete.isComplete());
+        store.shutdown();
+
+        UploadSessionStore reloaded = open(1, TimeUnit.HOURS);
+        assertEquals(2, reloaded.getSessionCount());
+
+        UploadStatus status = reloaded.Find(partial.getUploadID()).status();
+        assertEquals(1 << 20, status.getCommittedOffset());
+        assertEquals(3 << 20, status.getSize());
+        assertTrue(status.getImageId().isEmpty());
+        assertEquals("image-2000", reloaded.Find(complete.getUploadID()).status().getImageId());
+
+        // the client resumes from the committed offset
+        UploadSessionStore.Session resumed = reloaded.Find(partial.getUploadID());
+        try {
+            resumed.open(0);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(write(resumed.open(1 << 20).get(5, TimeUnit.SECONDS), 2 << 20));
+        assertEquals("image-" + (3 << 20), resumed.status().getImageId());
+    }
+
+    @Test
+    public void sweepsIdleSessionsWithTheirData() throws Exception {
+        UploadSessionStore store = open(50, TimeUnit.MILLISECONDS);
+        UploadSessionStore.Session idle = store.Start("laptop", ".mp4", 3000);
+        write(idle.open(0).get(5, TimeUnit.SECONDS), 1000);
+
+        File dataFile = new File(folder.getRoot(), idle.getUploadID() + ".part");
+        File sessionFile = new File(folder.getRoot(), idle.getUploadID() + ".session");
+        assertTrue(dataFile.exists());
+        assertTrue(sessionFile.exists());
+
+        Thread.sleep(100);
+        UploadSessionStore.Session active = store.Start("laptop", ".mp4", 3000);
+        store.sweep();
+
+        assertNull(store.Find(idle.getUploadID()));
+        assertNotNull(store.Find(active.getUploadID()));
+        assertFalse(dataFile.exists());
+        assertFalse(sessionFile.exists());
+        try {
+            idle.open(0);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rejectsWriterOfStreamThatWasTakenOver() throws Exception {
+        saveAllowed.countDown();
+        UploadSessionStore store = open(1, TimeUnit.HOURS);
+        UploadSessionStore.Session session = store.Start("laptop", ".mp4", 3000);
+
+        UploadSessionStore.Session.Writer stale = session.open(0).get(5, TimeUnit.SECONDS);
+        write(stale, 1000);
+        UploadSessionStore.Session.Writer current = session.open(0).get(5, TimeUnit.SECONDS);
+
+        try {
+            stale.write(ByteBuffer.wrap(new byte[1000]));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // the bytes of the stale stream were discarded, its commit doesn't bring them back
+        assertFalse(stale.commit().get(5, TimeUnit.SECONDS));
+        assertEquals(0, session.status().getCommittedOffset());
+
+        assertTrue(write(current, 3000));
+        assertEquals("image-3000", session.status().getImageId());
+    }
+
+    @Test
+    public void lastWriteDoesntWaitForSave() throws Exception {
+        UploadSessionStore store = open(1, TimeUnit.HOURS);
+        UploadSessionStore.Session session = store.Start("laptop", ".mp4", 3000);
+
+        CompletableFuture<Boolean> written = session.open(0).get(5, TimeUnit.SECONDS)
+                .write(ByteBuffer.wrap(new byte[3000]));
+        assertFalse(written.isDone());
+        // status answers while the image store holds the save
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (session.status().getCommittedOffset() != 3000 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3000, session.status().getCommittedOffset());
+        assertFalse(written.isDone());
+        assertFalse(session.isComplete());
+
+        saveAllowed.countDown();
+        assertTrue(written.get(5, TimeUnit.SECONDS));
+        assertEquals("image-3000", session.status().getImageId());
+    }
+}